@@ -320,6 +320,9 @@ public final class TermuxActivity extends Activity implements ServiceConnection
 
         if (mIsInvalidState) return;
 
+        if (mTermuxTerminalViewClient != null)
+            mTermuxTerminalViewClient.onDestroy();
+
         if (mTermuxService != null) {
             // Do not leave service and session clients with references to activity.
             mTermuxService.unsetTermuxTerminalSessionClient();
@@ -46,6 +46,7 @@ import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -112,6 +113,10 @@ public final class TermuxService extends Service implements TermuxTask.TermuxTas
     boolean mWantsToStop = false;
 
     public Integer mTerminalTranscriptRows;
+    public boolean mTerminalTranscriptSpillToDisk;
+    public int mTerminalOutputBufferSize;
+    public int mTerminalOutputBackpressure;
+    public int mTerminalFastForwardScreens;
 
     private static final String LOG_TAG = "TermuxService";
 
@@ -536,6 +541,11 @@ public final class TermuxService extends Service implements TermuxTask.TermuxTas
             return null;
         }
 
+        if (mTerminalTranscriptSpillToDisk)
+            newTermuxSession.getTerminalSession().setTranscriptSpillDirectory(new File(getCacheDir(), "terminal-transcripts"));
+        newTermuxSession.getTerminalSession().setOutputLimits(mTerminalOutputBufferSize, mTerminalOutputBackpressure);
+        newTermuxSession.getTerminalSession().setFastForwardScreens(mTerminalFastForwardScreens);
+
         mTermuxSessions.add(newTermuxSession);
 
         // Remove the execution command from the pending plugin execution commands list since it has
@@ -595,9 +605,13 @@ public final class TermuxService extends Service implements TermuxTask.TermuxTas
     }
 
     public void setTerminalTranscriptRows() {
-        // TermuxService only uses this termux property currently, so no need to load them all into
-        // an internal values map like TermuxActivity does
+        // TermuxService only uses the transcript and output termux properties currently, so no need to load them all
+        // into an internal values map like TermuxActivity does
         mTerminalTranscriptRows = TermuxAppSharedProperties.getTerminalTranscriptRows(this);
+        mTerminalTranscriptSpillToDisk = TermuxAppSharedProperties.shouldSpillTerminalTranscriptToDisk(this);
+        mTerminalOutputBufferSize = TermuxAppSharedProperties.getTerminalOutputBufferSize(this);
+        mTerminalOutputBackpressure = TermuxAppSharedProperties.getTerminalOutputBackpressure(this);
+        mTerminalFastForwardScreens = TermuxAppSharedProperties.getTerminalFastForwardScreens(this);
     }
 
 
@@ -116,4 +116,36 @@ public class TermuxAppSharedProperties extends TermuxSharedProperties {
             TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, new SharedPropertiesParserClient());
     }
 
+    /**
+     * Load the {@link TermuxPropertyConstants#KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK} value from termux properties file on disk.
+     */
+    public static boolean shouldSpillTerminalTranscriptToDisk(Context context) {
+        return  (boolean) TermuxSharedProperties.getInternalPropertyValue(context, TermuxPropertyConstants.getTermuxPropertiesFile(),
+            TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK, new SharedPropertiesParserClient());
+    }
+
+    /**
+     * Load the {@link TermuxPropertyConstants#KEY_TERMINAL_OUTPUT_BUFFER_SIZE} value from termux properties file on disk.
+     */
+    public static int getTerminalOutputBufferSize(Context context) {
+        return  (int) TermuxSharedProperties.getInternalPropertyValue(context, TermuxPropertyConstants.getTermuxPropertiesFile(),
+            TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BUFFER_SIZE, new SharedPropertiesParserClient());
+    }
+
+    /**
+     * Load the {@link TermuxPropertyConstants#KEY_TERMINAL_FAST_FORWARD_SCREENS} value from termux properties file on disk.
+     */
+    public static int getTerminalFastForwardScreens(Context context) {
+        return  (int) TermuxSharedProperties.getInternalPropertyValue(context, TermuxPropertyConstants.getTermuxPropertiesFile(),
+            TermuxPropertyConstants.KEY_TERMINAL_FAST_FORWARD_SCREENS, new SharedPropertiesParserClient());
+    }
+
+    /**
+     * Load the {@link TermuxPropertyConstants#KEY_TERMINAL_OUTPUT_BACKPRESSURE} value from termux properties file on disk.
+     */
+    public static int getTerminalOutputBackpressure(Context context) {
+        return  (int) TermuxSharedProperties.getInternalPropertyValue(context, TermuxPropertyConstants.getTermuxPropertiesFile(),
+            TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BACKPRESSURE, new SharedPropertiesParserClient());
+    }
+
 }
@@ -67,6 +67,9 @@ public class TermuxTerminalSessionClient extends TermuxTerminalSessionClientBase
             termuxSessionListNotifyUpdated();
         }
 
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (currentSession != null) currentSession.setAttached(true);
+
         // The current terminal session may have changed while being away, force
         // a refresh of the displayed terminal.
         mActivity.getTerminalView().onScreenUpdated();
@@ -90,6 +93,10 @@ public class TermuxTerminalSessionClient extends TermuxTerminalSessionClientBase
         // {@link #onStart} if needed.
         setCurrentStoredSession();
 
+        // The session is not shown while in the background, which lets its output be dropped if it floods
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (currentSession != null) currentSession.setAttached(false);
+
         // Release mBellSoundPool resources, specially to prevent exceptions like the following to be thrown
         // java.util.concurrent.TimeoutException: android.media.SoundPool.finalize() timed out after 10 seconds
         // Bell is not played in background anyways
@@ -130,6 +137,8 @@ public class TermuxTerminalSessionClient extends TermuxTerminalSessionClientBase
 
     @Override
     public void onSessionFinished(final TerminalSession finishedSession) {
+        mActivity.getTermuxTerminalViewClient().closeUrlSearch(finishedSession);
+
         TermuxService service = mActivity.getTermuxService();
 
         if (service == null || service.wantsToStop()) {
@@ -401,6 +410,8 @@ public class TermuxTerminalSessionClient extends TermuxTerminalSessionClientBase
     }
 
     public void removeFinishedSession(TerminalSession finishedSession) {
+        mActivity.getTermuxTerminalViewClient().closeUrlSearch(finishedSession);
+
         // Return pressed with finished session - remove it.
         TermuxService service = mActivity.getTermuxService();
         if (service == null) return;
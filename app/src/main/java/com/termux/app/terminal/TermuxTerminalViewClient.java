@@ -46,9 +46,9 @@ import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TranscriptSearch;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.List;
 
@@ -70,6 +70,10 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
     private boolean mTerminalCursorBlinkerStateAlreadySet;
 
+    /** The search for links in the session last selected from, continued from where it stopped the next time. */
+    private TranscriptSearch mUrlSearch;
+    private boolean mShowUrlsWhenSearched;
+
     private static final String LOG_TAG = "TermuxTerminalViewClient";
 
     public TermuxTerminalViewClient(TermuxActivity activity, TermuxTerminalSessionClient termuxTerminalSessionClient) {
@@ -130,6 +134,14 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         setTerminalCursorBlinkerState(false);
     }
 
+    /**
+     * Should be called when mActivity.onDestroy() is called
+     */
+    public void onDestroy() {
+        // Do not keep the last session searched for links alive with the activity
+        closeUrlSearch(null);
+    }
+
     /**
      * Should be called when mActivity.reloadActivityStyling() is called
      */
@@ -178,11 +190,10 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
         if (mActivity.getProperties().shouldOpenTerminalTranscriptURLOnClick()) {
             int[] columnAndRow = mActivity.getTerminalView().getColumnAndRow(e, true);
-            String wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
-            LinkedHashSet<CharSequence> urlSet = UrlUtils.extractUrls(wordAtTap);
+            // Only the line at the tap is searched for a URL:
+            String url = TranscriptSearch.findMatchAt(term.getScreen(), UrlUtils.getUrlMatchRegex(), columnAndRow[0], columnAndRow[1]);
 
-            if (!urlSet.isEmpty()) {
-                String url = (String) urlSet.iterator().next();
+            if (url != null) {
                 ShareUtils.openURL(mActivity, url);
                 return;
             }
@@ -643,36 +654,73 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
-        if (transcriptText == null) return;
-
-        try {
-            // See https://github.com/termux/termux-app/issues/1166.
-            Intent intent = new Intent(Intent.ACTION_SEND);
-            intent.setType("text/plain");
-            transcriptText = DataUtils.getTruncatedCommandOutput(transcriptText, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, true, false).trim();
-            intent.putExtra(Intent.EXTRA_TEXT, transcriptText);
-            intent.putExtra(Intent.EXTRA_SUBJECT, mActivity.getString(R.string.title_share_transcript));
-            mActivity.startActivity(Intent.createChooser(intent, mActivity.getString(R.string.title_share_transcript_with)));
-        } catch (Exception e) {
-            Logger.logStackTraceWithMessage(LOG_TAG,"Failed to get share session transcript of length " + transcriptText.length(), e);
-        }
+        // Only the end of the transcript can be shared, so stream it in the background keeping only that in memory
+        new Thread() {
+            @Override
+            public void run() {
+                String text = ShellUtils.getTerminalSessionTranscriptTextTail(session, false, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+                if (text == null) return;
+
+                // See https://github.com/termux/termux-app/issues/1166.
+                final String transcriptText = DataUtils.getTruncatedCommandOutput(text, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, true, false).trim();
+                mActivity.runOnUiThread(() -> {
+                    try {
+                        Intent intent = new Intent(Intent.ACTION_SEND);
+                        intent.setType("text/plain");
+                        intent.putExtra(Intent.EXTRA_TEXT, transcriptText);
+                        intent.putExtra(Intent.EXTRA_SUBJECT, mActivity.getString(R.string.title_share_transcript));
+                        mActivity.startActivity(Intent.createChooser(intent, mActivity.getString(R.string.title_share_transcript_with)));
+                    } catch (Exception e) {
+                        Logger.logStackTraceWithMessage(LOG_TAG,"Failed to get share session transcript of length " + transcriptText.length(), e);
+                    }
+                });
+            }
+        }.start();
     }
 
     public void showUrlSelection() {
         TerminalSession session = mActivity.getCurrentSession();
-        if (session == null) return;
+        if (session == null || session.getEmulator() == null) return;
 
-        String text = ShellUtils.getTerminalSessionTranscriptText(session, true, true);
+        mShowUrlsWhenSearched = true;
+        if (mUrlSearch == null || mUrlSearch.getSession() != session) {
+            if (mUrlSearch != null) mUrlSearch.close();
+            mUrlSearch = new TranscriptSearch(session, this::onUrlSearchResultsChanged);
+            mUrlSearch.setQuery(UrlUtils.getUrlMatchRegex());
+        } else {
+            // Only the output since the last time needs to be searched:
+            mUrlSearch.onScreenUpdated();
+        }
+    }
 
-        LinkedHashSet<CharSequence> urlSet = UrlUtils.extractUrls(text);
+    /**
+     * Close the search for links if it is in the session, or in any session if null, which should be done when the
+     * session finishes so that the search does not keep it alive.
+     */
+    public void closeUrlSearch(TerminalSession session) {
+        if (mUrlSearch == null || (session != null && mUrlSearch.getSession() != session)) return;
+        mUrlSearch.close();
+        mUrlSearch = null;
+    }
+
+    private void onUrlSearchResultsChanged(TranscriptSearch urlSearch) {
+        if (urlSearch != mUrlSearch || !urlSearch.isComplete() || !mShowUrlsWhenSearched) return;
+        mShowUrlsWhenSearched = false;
+
+        TerminalEmulator emulator = urlSearch.getSession().getEmulator();
+        if (emulator == null) return;
+        LinkedHashSet<CharSequence> urlSet = new LinkedHashSet<>();
+        // Latest first:
+        for (int i = urlSearch.getMatchCount() - 1; i >= 0; i--) {
+            String url = urlSearch.getMatchText(emulator.getScreen(), urlSearch.getMatch(i));
+            if (url != null) urlSet.add(url);
+        }
         if (urlSet.isEmpty()) {
             new AlertDialog.Builder(mActivity).setMessage(R.string.title_select_url_none_found).show();
             return;
         }
 
         final CharSequence[] urls = urlSet.toArray(new CharSequence[0]);
-        Collections.reverse(Arrays.asList(urls)); // Latest first.
 
         // Click to copy url to clipboard:
         final AlertDialog dialog = new AlertDialog.Builder(mActivity).setItems(urls, (di, which) -> {
@@ -698,24 +746,30 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
     public void reportIssueFromTranscript() {
         TerminalSession session = mActivity.getCurrentSession();
-        if (session == null) return;
-
-        final String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
-        if (transcriptText == null) return;
+        if (session == null || session.getEmulator() == null) return;
 
         MessageDialogUtils.showMessage(mActivity, TermuxConstants.TERMUX_APP_NAME + " Report Issue",
             mActivity.getString(R.string.msg_add_termux_debug_info),
-            mActivity.getString(R.string.action_yes), (dialog, which) -> reportIssueFromTranscript(transcriptText, true),
-            mActivity.getString(R.string.action_no), (dialog, which) -> reportIssueFromTranscript(transcriptText, false),
+            mActivity.getString(R.string.action_yes), (dialog, which) -> reportIssueFromTranscript(session, true),
+            mActivity.getString(R.string.action_no), (dialog, which) -> reportIssueFromTranscript(session, false),
             null);
     }
 
-    private void reportIssueFromTranscript(String transcriptText, boolean addTermuxDebugInfo) {
+    private void reportIssueFromTranscript(TerminalSession session, boolean addTermuxDebugInfo) {
         Logger.showToast(mActivity, mActivity.getString(R.string.msg_generating_report), true);
 
         new Thread() {
             @Override
             public void run() {
+                // Written in the background since the transcript may be long
+                StringBuilder transcript = new StringBuilder();
+                try {
+                    if (!ShellUtils.writeTerminalSessionTranscript(session, transcript, false)) return;
+                } catch (IOException e) {
+                    // Not thrown by StringBuilder.
+                }
+                String transcriptText = transcript.toString();
+
                 StringBuilder reportString = new StringBuilder();
 
                 String title = TermuxConstants.TERMUX_APP_NAME + " Report Issue";
@@ -0,0 +1,53 @@
+package com.termux.terminal;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A single thread emulating the output of sessions which are not shown, see {@link TerminalSession#setAttached(boolean)},
+ * so that busy sessions in the background do not keep the main thread from handling the one shown.
+ * <p>
+ * Sessions are emulated in turn, each for at most the limits of {@link TerminalSession#setInputProcessingLimits(int, int)}
+ * at a time, so that one flooding session does not hold up the others.
+ */
+final class BackgroundEmulator {
+
+    private static BackgroundEmulator sInstance;
+
+    /** The sessions with output to emulate, each listed once while its {@link TerminalSession#mNewInputPosted} is set. */
+    private final LinkedBlockingQueue<TerminalSession> mSessions = new LinkedBlockingQueue<>();
+
+    /** The emulator shared by all sessions, started on first use. */
+    static synchronized BackgroundEmulator getInstance() {
+        if (sInstance == null) sInstance = new BackgroundEmulator();
+        return sInstance;
+    }
+
+    private BackgroundEmulator() {
+        Thread thread = new Thread("TermBackgroundEmulator") {
+            @Override
+            public void run() {
+                runEmulationLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Emulate the output of the session once the sessions scheduled before have had their turn. */
+    void schedule(TerminalSession session) {
+        mSessions.add(session);
+    }
+
+    private void runEmulationLoop() {
+        while (true) {
+            TerminalSession session;
+            try {
+                session = mSessions.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            session.emulateInBackground();
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.ByteBuffer;
+
 /** A circular byte buffer allowing one producer and one consumer thread. */
 final class ByteQueue {
 
@@ -51,6 +53,29 @@ final class ByteQueue {
         return totalRead;
     }
 
+    /**
+     * Read available bytes into the remaining space of the buffer without blocking, such as straight into a direct
+     * buffer for native code without copying through an array first.
+     *
+     * @return the number of bytes read, 0 if nothing was available, or -1 if closed.
+     */
+    public synchronized int read(ByteBuffer buffer) {
+        if (!mOpen) return -1;
+        int totalRead = 0;
+        final int bufferLength = mBuffer.length;
+        final boolean wasFull = bufferLength == mStoredBytes;
+        while (buffer.hasRemaining() && mStoredBytes > 0) {
+            int bytesToCopy = Math.min(buffer.remaining(), Math.min(bufferLength - mHead, mStoredBytes));
+            buffer.put(mBuffer, mHead, bytesToCopy);
+            mHead += bytesToCopy;
+            if (mHead >= bufferLength) mHead = 0;
+            mStoredBytes -= bytesToCopy;
+            totalRead += bytesToCopy;
+        }
+        if (wasFull && totalRead > 0) notify();
+        return totalRead;
+    }
+
     /**
      * Attempt to write the specified portion of the provided buffer to the queue.
      * <p/>
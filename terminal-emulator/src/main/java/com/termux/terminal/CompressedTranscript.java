@@ -0,0 +1,90 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A {@link TranscriptArchive} keeping blocks of rows in memory, compressed with {@link Deflater}. */
+final class CompressedTranscript extends TranscriptArchive {
+
+    private static final class Block {
+        final byte[] mCompressed;
+        final int mLength;
+
+        Block(byte[] compressed, int length) {
+            mCompressed = compressed;
+            mLength = length;
+        }
+    }
+
+    /** The compressed blocks, oldest first. */
+    private final ArrayList<Block> mBlocks = new ArrayList<>();
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private byte[] mCompressBuffer = new byte[8192];
+
+    CompressedTranscript(int maxRows) {
+        super(maxRows);
+    }
+
+    @Override
+    void storeBlock(byte[] data, int length) {
+        final Deflater deflater = mDeflater;
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == mCompressBuffer.length)
+                mCompressBuffer = Arrays.copyOf(mCompressBuffer, 2 * mCompressBuffer.length);
+            compressedLength += deflater.deflate(mCompressBuffer, compressedLength, mCompressBuffer.length - compressedLength);
+        }
+        mBlocks.add(new Block(Arrays.copyOf(mCompressBuffer, compressedLength), length));
+    }
+
+    @Override
+    ByteBuffer loadBlock(int blockIndex) {
+        final Block block = mBlocks.get(blockIndex);
+        final Inflater inflater = mInflater;
+        inflater.reset();
+        inflater.setInput(block.mCompressed);
+        final byte[] data = new byte[block.mLength];
+        try {
+            int length = 0;
+            while (length < data.length && !inflater.finished())
+                length += inflater.inflate(data, length, data.length - length);
+            if (length != data.length) throw new IllegalStateException("Truncated transcript block");
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt transcript block", e);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    @Override
+    void dropOldestBlock() {
+        mBlocks.remove(0);
+    }
+
+    @Override
+    void dropAllBlocks() {
+        mBlocks.clear();
+    }
+
+    @Override
+    long getStoredBlockBytes() {
+        long bytes = 0;
+        for (Block block : mBlocks) bytes += block.mCompressed.length;
+        return bytes;
+    }
+
+    @Override
+    void close() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.termux.terminal;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The lock held while changing or reading the emulator of a session, which remembers if an attempt to take it without
+ * blocking has failed, so that the thread unlocking it can have what was postponed continued.
+ */
+final class EmulatorLock {
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    /** If {@link #tryLockOrAwait()} failed since the lock was last unlocked by {@link #unlock()}. */
+    private volatile boolean mUnlockAwaited;
+
+    void lock() {
+        mLock.lock();
+    }
+
+    /** Take the lock unless another thread holds it, without having the unlocking thread notified. */
+    boolean tryLock() {
+        return mLock.tryLock();
+    }
+
+    /**
+     * Take the lock unless another thread holds it, in which case {@link #unlock()} returns true for the thread holding
+     * it, so that it can have what the caller postponed continued.
+     */
+    boolean tryLockOrAwait() {
+        if (mLock.tryLock()) return true;
+        mUnlockAwaited = true;
+        // Try again in case the holder unlocked before seeing that it is awaited:
+        return mLock.tryLock();
+    }
+
+    /** @return If {@link #tryLockOrAwait()} failed while the lock was held, in which case the caller should notify. */
+    boolean unlock() {
+        mLock.unlock();
+        // Only after unlocking, since failing to lock sets it after trying:
+        if (!mUnlockAwaited) return false;
+        mUnlockAwaited = false;
+        return true;
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.ByteBuffer;
+
 /**
  * Native methods for creating and managing pseudoterminal subprocesses. C code is in jni/termux.c.
  */
@@ -38,4 +40,98 @@ final class JNI {
     /** Close a file descriptor through the close(2) system call. */
     public static native void close(int fileDescriptor);
 
+    /** Event and interest bit for a pty which can be read from without blocking, see {@link PtyReactor}. */
+    public static final int PTY_READABLE = 1;
+    /** Event and interest bit for a pty which can be written to without blocking. */
+    public static final int PTY_WRITABLE = 2;
+    /** Event bit for a pty whose slave side has been closed by all processes, or which had an error. */
+    public static final int PTY_HANGUP = 4;
+
+    /** Create an epoll(7) instance for waiting on many ptys at once. Callers are responsible for closing it. */
+    public static native int createPtyReactor();
+
+    /**
+     * Start waiting for events on a pty, which is made non-blocking.
+     *
+     * @param reactorFd The file descriptor from {@link #createPtyReactor()}.
+     * @param fd        The file descriptor of the pty master.
+     * @param token     The number to report events for the pty with in {@link #waitForPtyEvents(int, int[])}.
+     * @param interest  The events of interest, a combination of {@link #PTY_READABLE} and {@link #PTY_WRITABLE}.
+     */
+    public static native void addToPtyReactor(int reactorFd, int fd, int token, int interest);
+
+    /** Change the events of interest for a pty added by {@link #addToPtyReactor(int, int, int, int)}. */
+    public static native void modifyInPtyReactor(int reactorFd, int fd, int token, int interest);
+
+    /** Stop waiting for events on a pty, which needs to be done before it is closed. */
+    public static native void removeFromPtyReactor(int reactorFd, int fd);
+
+    /**
+     * Block until at least one pty added to the reactor has an event.
+     *
+     * @param events Filled with pairs of a token and a combination of {@link #PTY_READABLE}, {@link #PTY_WRITABLE}
+     *               and {@link #PTY_HANGUP}.
+     * @return the number of pairs filled in, which may be 0 if interrupted.
+     */
+    public static native int waitForPtyEvents(int reactorFd, int[] events);
+
+    /**
+     * Read from a non-blocking pty straight into the specified portion of a direct buffer, ignoring its position.
+     *
+     * @return the number of bytes read, 0 if nothing was available or -1 if the slave side is closed.
+     */
+    public static native int readPty(int fd, ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Write the specified portion of a direct buffer to a non-blocking pty, ignoring its position.
+     *
+     * @return the number of bytes written, 0 if the pty could not take any more or -1 on error.
+     */
+    public static native int writePty(int fd, ByteBuffer buffer, int offset, int length);
+
+    /** Returned by {@link #pollProcessExit(int, boolean)} for a process which has not terminated. */
+    public static final int PROCESS_RUNNING = Integer.MAX_VALUE;
+    /** Returned by {@link #pollProcessExit(int, boolean)} for a process which has already been reaped by another. */
+    public static final int PROCESS_EXIT_STATUS_UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Create the epoll(7) instance waiting for processes to terminate, see {@link ProcessReaper}. Only one may be
+     * created.
+     *
+     * @param mayUsePidfd If pidfd_open(2) may be called, which is not allowed for apps before Android 12. If it may not
+     *                    or the kernel lacks it, a SIGCHLD handler wakes up the reaper instead.
+     */
+    public static native int createProcessReaper(boolean mayUsePidfd);
+
+    /**
+     * Wait for the termination of a child process through a pidfd, which is reported with its pid by
+     * {@link #waitForProcessEvents(int, int[], int)} and needs to be closed after that.
+     *
+     * @return the pidfd, or -1 if not using pidfds, the process has already been reaped or no pidfd could be watched,
+     * in which case the reaper needs to poll the process when woken up. The SIGCHLD handler is then installed if it
+     * was not already, so that the reaper is woken up when the process terminates.
+     */
+    public static native int watchProcess(int reaperFd, int pid);
+
+    /** Make {@link #waitForProcessEvents(int, int[], int)} return with a pid of 0. */
+    public static native void wakeProcessReaper();
+
+    /**
+     * Block until a watched process has terminated, the reaper is woken up or the timeout has passed.
+     *
+     * @param pids          Filled with the pids of terminated processes watched through pidfds, or 0 if the reaper was
+     *                      woken up by {@link #wakeProcessReaper()} or a SIGCHLD signal.
+     * @param timeoutMillis The time to wait at most, or -1 to wait indefinitely.
+     * @return the number of pids filled in, which may be 0 if interrupted or timed out.
+     */
+    public static native int waitForProcessEvents(int reaperFd, int[] pids, int timeoutMillis);
+
+    /**
+     * Check without blocking if a child process has terminated.
+     *
+     * @param reap If to reap the process, which should be left to whoever started it otherwise.
+     * @return {@link #PROCESS_RUNNING}, {@link #PROCESS_EXIT_STATUS_UNKNOWN} or the same as {@link #waitFor(int)}.
+     */
+    public static native int pollProcessExit(int pid, boolean reap);
+
 }
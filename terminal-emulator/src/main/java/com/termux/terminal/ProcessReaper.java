@@ -0,0 +1,149 @@
+package com.termux.terminal;
+
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A single thread noticing when watched child processes terminate, instead of a thread blocking in waitpid(2) for each
+ * of them.
+ * <p>
+ * On Android 12 and later the reaper waits for a pidfd per process. Before that, or if the kernel lacks pidfds, a SIGCHLD
+ * handler wakes it up to poll all watched processes, as it also does for processes for which no pidfd could be watched,
+ * for instance when out of file descriptors. Either way only the watched processes are polled, since reaping
+ * any child would take the exit status from {@link Process} for those started through {@link Runtime#exec(String)}.
+ */
+public final class ProcessReaper {
+
+    /** Gets notified when a watched process has terminated. */
+    public interface Client {
+
+        /**
+         * Called on the reaper thread, so should return quickly.
+         *
+         * @param exitStatus If >= 0, the exit status of the process. If < 0, the signal causing the process to stop
+         *                   negated. {@link #EXIT_STATUS_UNKNOWN} if the process was not to be reaped and its owner
+         *                   has already done so.
+         */
+        void onProcessExited(int pid, int exitStatus);
+
+    }
+
+    public static final int EXIT_STATUS_UNKNOWN = JNI.PROCESS_EXIT_STATUS_UNKNOWN;
+
+    /**
+     * How long to wait before polling all processes again after one was reported but still running. SIGCHLD is sent,
+     * and pidfds are woken up, just before the process becomes a zombie which can be waited for.
+     */
+    private static final int REPOLL_DELAY_MILLIS = 10;
+
+    private static ProcessReaper sInstance;
+
+    private final int mReaperFd;
+    /** The watched processes by pid. Synchronized on itself. */
+    private final HashMap<Integer, Watch> mWatches = new HashMap<>();
+
+    private static final class Watch {
+        final int mPid;
+        final boolean mReap;
+        final Client mClient;
+        /** The pidfd to close when done, or -1 if the process is polled when the reaper is woken up. */
+        int mPidfd = -1;
+
+        Watch(int pid, boolean reap, Client client) {
+            mPid = pid;
+            mReap = reap;
+            mClient = client;
+        }
+    }
+
+    /** The reaper shared by all processes, started on first use. */
+    public static synchronized ProcessReaper getInstance() {
+        if (sInstance == null) sInstance = new ProcessReaper();
+        return sInstance;
+    }
+
+    private ProcessReaper() {
+        // The SIGCHLD handler is reset to the default when the class behind Process is initialized, so do that first:
+        for (String processClass : new String[]{"java.lang.UNIXProcess", "java.lang.ProcessImpl"}) {
+            try {
+                Class.forName(processClass);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // Not the class used by this runtime.
+            }
+        }
+        // pidfd_open() is not allowed by the seccomp filter for apps before Android 12 (API level 31).
+        mReaperFd = JNI.createProcessReaper(Build.VERSION.SDK_INT >= 31);
+        Thread thread = new Thread("TermProcessReaper") {
+            @Override
+            public void run() {
+                runEventLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Notify the client once the child process has terminated.
+     *
+     * @param reap If to reap the process, which should only be done if it was not started through {@link Process},
+     *             since that reaps it itself.
+     */
+    public void watch(int pid, boolean reap, Client client) {
+        Watch watch = new Watch(pid, reap, client);
+        synchronized (mWatches) {
+            mWatches.put(pid, watch);
+            watch.mPidfd = JNI.watchProcess(mReaperFd, pid);
+        }
+        // Poll once in case the process terminated before being watched:
+        if (watch.mPidfd == -1) JNI.wakeProcessReaper();
+    }
+
+    private void runEventLoop() {
+        final int[] pids = new int[64];
+        final List<Watch> watchesToPoll = new ArrayList<>();
+        boolean repoll = false;
+        while (true) {
+            int count = JNI.waitForProcessEvents(mReaperFd, pids, repoll ? REPOLL_DELAY_MILLIS : -1);
+            // Only poll again once, since most watched processes are still running when woken up by SIGCHLD:
+            boolean repolling = repoll && count == 0;
+            synchronized (mWatches) {
+                if (repolling) watchesToPoll.addAll(mWatches.values());
+                for (int i = 0; i < count; i++) {
+                    if (pids[i] == 0) {
+                        for (Watch watch : mWatches.values())
+                            if (watch.mPidfd == -1) watchesToPoll.add(watch);
+                    } else {
+                        Watch watch = mWatches.get(pids[i]);
+                        if (watch != null) watchesToPoll.add(watch);
+                    }
+                }
+            }
+            repoll = false;
+            for (Watch watch : watchesToPoll) {
+                if (!poll(watch) && !repolling) repoll = true;
+            }
+            watchesToPoll.clear();
+        }
+    }
+
+    /** Notify the client if the process has terminated, returning false if it is still running. */
+    private boolean poll(Watch watch) {
+        synchronized (mWatches) {
+            // Listed twice if both woken up and the pidfd was reported, and not to be polled again once reaped:
+            if (mWatches.get(watch.mPid) != watch) return true;
+        }
+        int exitStatus = JNI.pollProcessExit(watch.mPid, watch.mReap);
+        if (exitStatus == JNI.PROCESS_RUNNING) return false;
+        synchronized (mWatches) {
+            mWatches.remove(watch.mPid);
+        }
+        if (watch.mPidfd != -1) JNI.close(watch.mPidfd);
+        watch.mClient.onProcessExited(watch.mPid, exitStatus);
+        return true;
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single thread doing the pty I/O of all terminal sessions, waiting for all of them at once with epoll(7) instead of
+ * blocking a reader and a writer thread per session.
+ * <p>
+ * Process output is read straight into the {@link TerminalSession#mProcessToTerminalIOQueue} of a session. While that
+ * queue is full the pty is not read from, which blocks the process once the pty buffer fills up, as before, without
+ * blocking the output of other sessions, unless the session drops the queued output instead, see
+ * {@link TerminalSession#dropQueuedOutput()}. Input from {@link TerminalSession#mTerminalToProcessIOQueue} is written when
+ * the pty can take it.
+ */
+final class PtyReactor {
+
+    private static PtyReactor sInstance;
+
+    private final int mReactorFd;
+    private final AtomicInteger mNextToken = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Channel> mChannels = new ConcurrentHashMap<>();
+
+    /** The reactor shared by all sessions, started on first use. */
+    static synchronized PtyReactor getInstance() {
+        if (sInstance == null) sInstance = new PtyReactor();
+        return sInstance;
+    }
+
+    private PtyReactor() {
+        mReactorFd = JNI.createPtyReactor();
+        Thread thread = new Thread("TermSessionPtyReactor") {
+            @Override
+            public void run() {
+                runEventLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Start doing the I/O of the session through its pty, which needs to be unregistered by {@link Channel#close()}. */
+    Channel register(int fd, TerminalSession session) {
+        Channel channel = new Channel(mNextToken.incrementAndGet(), fd, session);
+        mChannels.put(channel.mToken, channel);
+        synchronized (channel) {
+            channel.updateInterest();
+        }
+        return channel;
+    }
+
+    private void runEventLoop() {
+        final int[] events = new int[2 * 64];
+        while (true) {
+            int count = JNI.waitForPtyEvents(mReactorFd, events);
+            for (int i = 0; i < count; i++) {
+                Channel channel = mChannels.get(events[2 * i]);
+                // Events may still be reported for a channel closed after they were returned:
+                if (channel != null) channel.handleEvents(events[2 * i + 1]);
+            }
+        }
+    }
+
+    /** The registration of a session with the reactor. Methods are synchronized on the channel. */
+    final class Channel {
+
+        final int mToken;
+        private final int mFd;
+        private final TerminalSession mSession;
+
+        /** If the queue was full on the last read, in which case reading is resumed by {@link #onInputConsumed()}. */
+        private volatile boolean mReadPaused;
+        /** If there may be input for the process, see {@link #requestWrite()}. */
+        private volatile boolean mWriteRequested;
+        /** If the pty has no slave side anymore, after which output is read until the end. */
+        private boolean mHungUp;
+        /** If all output has been read, in which case the pty is no longer waited for. */
+        private boolean mInputEnded;
+        private boolean mClosed;
+
+        /** If the pty is added to the epoll instance, and with which interest. */
+        private boolean mAdded;
+        private int mInterest;
+
+        /** Input taken from the queue but not yet written to the pty. Only used by the reactor thread. */
+        private ByteBuffer mPendingInput;
+        private int mPendingOffset, mPendingLength;
+
+        Channel(int token, int fd, TerminalSession session) {
+            mToken = token;
+            mFd = fd;
+            mSession = session;
+        }
+
+        /** If the output queue was found full since reading was last resumed. */
+        boolean isReadPaused() {
+            return mReadPaused;
+        }
+
+        /** Called by the emulating thread after draining the output queue, resuming reading if it was full. */
+        void onInputConsumed() {
+            if (mReadPaused) {
+                synchronized (this) {
+                    // Stay paused if the queue was filled up again while waiting for the lock, to be resumed next time:
+                    mReadPaused = !mSession.mProcessToTerminalIOQueue.hasFreeSpace();
+                    updateInterest();
+                }
+            }
+        }
+
+        /**
+         * Called after adding input to the input queue. The reactor keeps writing until it finds the queue empty, so
+         * the caller should not block on a full queue with input added since the last call.
+         */
+        void requestWrite() {
+            if (!mWriteRequested) {
+                synchronized (this) {
+                    mWriteRequested = true;
+                    updateInterest();
+                }
+            }
+        }
+
+        /**
+         * Replace the output queue of the session with one of the specified capacity, moving over the output not
+         * consumed yet, and resume reading. Called by the consumer of the queue.
+         *
+         * @return false if closed or the output not consumed yet does not fit.
+         */
+        synchronized boolean replaceOutputQueue(int capacity) {
+            final SpscByteQueue oldQueue = mSession.mProcessToTerminalIOQueue;
+            final int pendingLength = oldQueue.available();
+            if (mClosed || pendingLength > capacity) return false;
+
+            SpscByteQueue newQueue = new SpscByteQueue(capacity);
+            if (pendingLength > 0) {
+                byte[] pending = new byte[pendingLength];
+                oldQueue.read(pending, false);
+                newQueue.write(pending, 0, pendingLength);
+            }
+            mSession.mProcessToTerminalIOQueue = newQueue;
+            mReadPaused = !newQueue.hasFreeSpace();
+            updateInterest();
+            return true;
+        }
+
+        /** Stop waiting for the pty, after which it may be closed. */
+        synchronized void close() {
+            mClosed = true;
+            updateInterest();
+            mChannels.remove(mToken);
+        }
+
+        synchronized void handleEvents(int events) {
+            if (mClosed) return;
+            if ((events & JNI.PTY_HANGUP) != 0) mHungUp = true;
+            if ((events & (JNI.PTY_READABLE | JNI.PTY_HANGUP)) != 0 && (mInterest & JNI.PTY_READABLE) != 0) readOutput();
+            if ((events & (JNI.PTY_WRITABLE | JNI.PTY_HANGUP)) != 0 && (mInterest & JNI.PTY_WRITABLE) != 0) writeInput();
+            updateInterest();
+        }
+
+        /** Read process output into the queue until the pty is drained or the queue is full. */
+        private void readOutput() {
+            final SpscByteQueue queue = mSession.mProcessToTerminalIOQueue;
+            int totalRead = 0;
+            while (true) {
+                int free = queue.getContiguousFreeSpace();
+                if (free == 0) {
+                    if (mSession.dropQueuedOutput()) continue;
+                    mReadPaused = true;
+                    break;
+                }
+                int read = JNI.readPty(mFd, queue.getBuffer(), queue.getWriteOffset(), free);
+                if (read == 0) break;
+                if (read < 0) {
+                    mInputEnded = true;
+                    break;
+                }
+                queue.commitWrite(read);
+                totalRead += read;
+            }
+            if (totalRead > 0) mSession.postNewInput();
+        }
+
+        /** Write process input from the queue until the queue is empty or the pty cannot take more. */
+        private void writeInput() {
+            if (mPendingInput == null) mPendingInput = ByteBuffer.allocateDirect(4096);
+            while (true) {
+                if (mPendingLength == 0) {
+                    // Read straight into the buffer written from:
+                    mPendingInput.clear();
+                    int read = mSession.mTerminalToProcessIOQueue.read(mPendingInput);
+                    if (read <= 0) {
+                        if (!mWriteRequested) return;
+                        // Check once more after clearing, since input may have been added before the request:
+                        mWriteRequested = false;
+                        continue;
+                    }
+                    mPendingOffset = 0;
+                    mPendingLength = read;
+                }
+                int written = JNI.writePty(mFd, mPendingInput, mPendingOffset, mPendingLength);
+                if (written == 0) return;
+                // Drop input which cannot be written, as the process is gone:
+                if (written < 0) written = mPendingLength;
+                mPendingOffset += written;
+                mPendingLength -= written;
+            }
+        }
+
+        /** Bring the epoll interest in line with the state, avoiding system calls if it is unchanged. */
+        private void updateInterest() {
+            int interest = 0;
+            if (!mInputEnded && mSession.mProcessToTerminalIOQueue.hasFreeSpace()) interest |= JNI.PTY_READABLE;
+            if (mWriteRequested || mPendingLength > 0) interest |= JNI.PTY_WRITABLE;
+            // A hangup is reported regardless of interest, so stop waiting while it cannot be acted on:
+            boolean add = !mClosed && !mInputEnded && !(mHungUp && interest == 0);
+
+            if (add && !mAdded) {
+                JNI.addToPtyReactor(mReactorFd, mFd, mToken, interest);
+            } else if (add && interest != mInterest) {
+                JNI.modifyInPtyReactor(mReactorFd, mFd, mToken, interest);
+            } else if (!add && mAdded) {
+                JNI.removeFromPtyReactor(mReactorFd, mFd);
+            }
+            mAdded = add;
+            mInterest = interest;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A {@link TranscriptArchive} appending blocks of rows to a file, for practically unlimited transcripts without using
+ * more heap as they grow.
+ * <p>
+ * The file is memory mapped in chunks of {@link #CHUNK_BYTES}, with blocks never crossing a chunk boundary, so that rows
+ * are written to and read from the mapping without being copied. The only heap used per block is its entry in the
+ * offset index.
+ * <p>
+ * Once all blocks of a chunk have been dropped, its mapping is released and its part of the file is mapped again for
+ * new blocks, so that the file does not grow beyond the rows kept. The file is never truncated while open, since
+ * mappings are only unmapped once garbage collected, and accessing a mapping beyond the end of the file crashes.
+ * <p>
+ * The file is deleted as soon as it has been opened, so that its space is reclaimed by the system once the file and its
+ * mappings are closed or garbage collected, even if the app is killed.
+ */
+final class SpilledTranscript extends TranscriptArchive {
+
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+
+    /** A part of the file, mapped while it holds blocks. */
+    private static final class Chunk {
+        final long mStart;
+        final int mLength;
+        /** The mapping, or null if no blocks are stored in the chunk. */
+        MappedByteBuffer mBuffer;
+
+        Chunk(long start, int length) {
+            mStart = start;
+            mLength = length;
+        }
+    }
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    /** The chunks of the file, each starting where the previous one ends. */
+    private final ArrayList<Chunk> mChunks = new ArrayList<>();
+    /** The index in {@link #mChunks} of the chunk being filled, or -1 if none. */
+    private int mCurrentChunk = -1;
+    /** The number of bytes used in the chunk being filled. */
+    private int mCurrentChunkUsed;
+
+    /** The chunk (upper 32 bits) and offset in the chunk (lower 32 bits) of each block, starting at {@link #mFirstBlock}. */
+    private long[] mBlockLocations = new long[64];
+    private int[] mBlockLengths = new int[64];
+    private int mFirstBlock, mEndBlock;
+
+    /** @param file the file to spill to, which is created if needed and deleted once opened. */
+    SpilledTranscript(File file, int maxRows) throws IOException {
+        super(maxRows);
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mChannel.truncate(0);
+        //noinspection ResultOfMethodCallIgnored - the file is still usable if not deleted, but lingers in the cache dir.
+        file.delete();
+    }
+
+    @Override
+    void storeBlock(byte[] data, int length) {
+        if (mCurrentChunk == -1 || length > mChunks.get(mCurrentChunk).mLength - mCurrentChunkUsed) mapFreeChunk(length);
+        final ByteBuffer chunk = mChunks.get(mCurrentChunk).mBuffer.duplicate();
+        chunk.position(mCurrentChunkUsed);
+        chunk.put(data, 0, length);
+
+        if (mEndBlock == mBlockLocations.length) {
+            // Compact the index if dropped blocks have freed enough space at the start, otherwise grow it:
+            int blocks = mEndBlock - mFirstBlock;
+            if (mFirstBlock < blocks) {
+                mBlockLocations = Arrays.copyOf(mBlockLocations, 2 * mBlockLocations.length);
+                mBlockLengths = Arrays.copyOf(mBlockLengths, 2 * mBlockLengths.length);
+            }
+            System.arraycopy(mBlockLocations, mFirstBlock, mBlockLocations, 0, blocks);
+            System.arraycopy(mBlockLengths, mFirstBlock, mBlockLengths, 0, blocks);
+            mFirstBlock = 0;
+            mEndBlock = blocks;
+        }
+        mBlockLocations[mEndBlock] = ((long) mCurrentChunk << 32) | mCurrentChunkUsed;
+        mBlockLengths[mEndBlock] = length;
+        mEndBlock++;
+        mCurrentChunkUsed += length;
+    }
+
+    /** Start filling a chunk without blocks which fits the length, extending the file with a new one if none does. */
+    private void mapFreeChunk(int minimumLength) {
+        // The chunk being left may already have had all its blocks dropped:
+        if (mCurrentChunk != -1 && mFirstBlock == mEndBlock) mChunks.get(mCurrentChunk).mBuffer = null;
+        int chunkIndex = -1;
+        for (int i = 0; i < mChunks.size(); i++) {
+            final Chunk chunk = mChunks.get(i);
+            if (chunk.mBuffer == null && chunk.mLength >= minimumLength) {
+                chunkIndex = i;
+                break;
+            }
+        }
+        if (chunkIndex == -1) {
+            long start = 0;
+            if (!mChunks.isEmpty()) {
+                final Chunk last = mChunks.get(mChunks.size() - 1);
+                start = last.mStart + last.mLength;
+            }
+            chunkIndex = mChunks.size();
+            mChunks.add(new Chunk(start, Math.max(CHUNK_BYTES, minimumLength)));
+        }
+        final Chunk chunk = mChunks.get(chunkIndex);
+        try {
+            chunk.mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, chunk.mStart, chunk.mLength);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to extend transcript file", e);
+        }
+        mCurrentChunk = chunkIndex;
+        mCurrentChunkUsed = 0;
+    }
+
+    @Override
+    ByteBuffer loadBlock(int blockIndex) {
+        final int block = mFirstBlock + blockIndex;
+        final long location = mBlockLocations[block];
+        final ByteBuffer chunk = mChunks.get((int) (location >>> 32)).mBuffer.duplicate();
+        final int offset = (int) location;
+        chunk.limit(offset + mBlockLengths[block]);
+        chunk.position(offset);
+        return chunk;
+    }
+
+    @Override
+    void dropOldestBlock() {
+        final int chunkIndex = (int) (mBlockLocations[mFirstBlock] >>> 32);
+        mFirstBlock++;
+        // Blocks fill one chunk at a time, so the chunk is unused once the next block is in another one:
+        if (chunkIndex != mCurrentChunk && (mFirstBlock == mEndBlock || (int) (mBlockLocations[mFirstBlock] >>> 32) != chunkIndex))
+            mChunks.get(chunkIndex).mBuffer = null;
+    }
+
+    @Override
+    void dropAllBlocks() {
+        mFirstBlock = mEndBlock = 0;
+        for (Chunk chunk : mChunks) chunk.mBuffer = null;
+        mCurrentChunk = -1;
+        mCurrentChunkUsed = 0;
+    }
+
+    /** The number of bytes of the file used for chunks, whether holding blocks or not. */
+    long getFileBytes() {
+        if (mChunks.isEmpty()) return 0;
+        final Chunk last = mChunks.get(mChunks.size() - 1);
+        return last.mStart + last.mLength;
+    }
+
+    /** The number of chunks currently mapped. */
+    int getMappedChunkCount() {
+        int mapped = 0;
+        for (Chunk chunk : mChunks) if (chunk.mBuffer != null) mapped++;
+        return mapped;
+    }
+
+    @Override
+    long getStoredBlockBytes() {
+        long bytes = 0;
+        for (int block = mFirstBlock; block < mEndBlock; block++) bytes += mBlockLengths[block];
+        return bytes;
+    }
+
+    @Override
+    void close() {
+        mChunks.clear();
+        mCurrentChunk = -1;
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            // Nothing to do, the file is already deleted.
+        }
+    }
+
+}
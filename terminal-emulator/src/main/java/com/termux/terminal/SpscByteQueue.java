@@ -0,0 +1,225 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free circular byte buffer allowing exactly one producer and one consumer thread, with the same contract as
+ * {@link ByteQueue}.
+ * <p>
+ * The producer only advances {@link #mTail} and the consumer only advances {@link #mHead}, so no locking is needed when
+ * both are running. A thread only parks when the queue is empty (consumer) or full (producer), and the other side
+ * only unparks it if it has announced that it is waiting.
+ * <p>
+ * The bytes are kept in a direct buffer, which native code can read into straight away, see {@link #getBuffer()}.
+ */
+final class SpscByteQueue {
+
+    /** How many times to yield and check again before parking, since data usually arrives in quick succession. */
+    private static final int SPINS_BEFORE_PARKING = 16;
+
+    private final ByteBuffer mBuffer;
+    /** Views of {@link #mBuffer} with positions of their own for the producer and the consumer respectively. */
+    private final ByteBuffer mWriteView, mReadView;
+    private final int mCapacity;
+    private final int mMask;
+
+    /** The total number of bytes read. Only written by the consumer. The index into the buffer is masked. */
+    private volatile int mHead;
+    /** The total number of bytes written. Only written by the producer. The index into the buffer is masked. */
+    private volatile int mTail;
+    private volatile boolean mOpen = true;
+
+    /** The consumer thread if it is parked or about to be parked waiting for data. */
+    private volatile Thread mWaitingReader;
+    /** The producer thread if it is parked or about to be parked waiting for space. */
+    private volatile Thread mWaitingWriter;
+
+    /** @param capacity the capacity of the queue, which must be a power of two. */
+    public SpscByteQueue(int capacity) {
+        this(checkCapacity(capacity) ? ByteBuffer.allocateDirect(capacity) : null);
+    }
+
+    /** A queue keeping the bytes in the specified buffer, whose capacity must be a power of two. */
+    SpscByteQueue(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        checkCapacity(capacity);
+        mBuffer = buffer;
+        mWriteView = buffer.duplicate();
+        mReadView = buffer.duplicate();
+        mCapacity = capacity;
+        mMask = capacity - 1;
+    }
+
+    private static boolean checkCapacity(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity is not a power of two: " + capacity);
+        return true;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public void close() {
+        mOpen = false;
+        LockSupport.unpark(mWaitingReader);
+        LockSupport.unpark(mWaitingWriter);
+    }
+
+    /**
+     * Read available bytes into the buffer.
+     *
+     * @return the number of bytes read, 0 if nothing was available and not blocking, or -1 if closed.
+     */
+    public int read(byte[] buffer, boolean block) {
+        final int head = mHead;
+        int tail = mTail;
+        for (int spins = 0; tail == head && block && spins < SPINS_BEFORE_PARKING; spins++) {
+            Thread.yield();
+            tail = mTail;
+        }
+        while (tail == head && mOpen) {
+            if (!block) return 0;
+            mWaitingReader = Thread.currentThread();
+            // Check again after announcing that we are waiting, since the producer reads mWaitingReader after writing:
+            if (mTail == head && mOpen) LockSupport.park(this);
+            mWaitingReader = null;
+            tail = mTail;
+        }
+        if (!mOpen) return -1;
+
+        final int bytesToRead = Math.min(buffer.length, tail - head);
+        final int index = head & mMask;
+        final int firstRun = Math.min(bytesToRead, mCapacity - index);
+        mReadView.position(index);
+        mReadView.get(buffer, 0, firstRun);
+        mReadView.position(0);
+        mReadView.get(buffer, firstRun, bytesToRead - firstRun);
+        commitRead(bytesToRead);
+        return bytesToRead;
+    }
+
+    /**
+     * Attempt to write the specified portion of the provided buffer to the queue, blocking while the queue is full.
+     * <p/>
+     * Returns whether the output was totally written, false if it was closed before.
+     */
+    public boolean write(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+
+        final int capacity = mCapacity;
+        int tail = mTail;
+        while (lengthToWrite > 0) {
+            int head = mHead;
+            for (int spins = 0; tail - head == capacity && spins < SPINS_BEFORE_PARKING; spins++) {
+                Thread.yield();
+                head = mHead;
+            }
+            while (tail - head == capacity && mOpen) {
+                mWaitingWriter = Thread.currentThread();
+                // Check again after announcing that we are waiting, since the consumer reads mWaitingWriter after reading:
+                if (tail - mHead == capacity && mOpen) LockSupport.park(this);
+                mWaitingWriter = null;
+                head = mHead;
+            }
+            if (!mOpen) return false;
+
+            final int bytesToWrite = Math.min(lengthToWrite, capacity - (tail - head));
+            final int index = tail & mMask;
+            final int firstRun = Math.min(bytesToWrite, capacity - index);
+            mWriteView.position(index);
+            mWriteView.put(buffer, offset, firstRun);
+            mWriteView.position(0);
+            mWriteView.put(buffer, offset + firstRun, bytesToWrite - firstRun);
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
+            tail += bytesToWrite;
+            mTail = tail;
+
+            Thread waitingReader = mWaitingReader;
+            if (waitingReader != null) LockSupport.unpark(waitingReader);
+        }
+        return true;
+    }
+
+    /**
+     * The buffer backing the queue, for a producer which fills it in place instead of calling
+     * {@link #write(byte[], int, int)}: at most {@link #getContiguousFreeSpace()} bytes may be put at
+     * {@link #getWriteOffset()}, and are then made available to the consumer by {@link #commitWrite(int)}. Only
+     * absolute puts may be used, since the position is not to be changed.
+     */
+    ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /** The offset in {@link #getBuffer()} at which the producer puts the next bytes. */
+    int getWriteOffset() {
+        return mTail & mMask;
+    }
+
+    /** The number of bytes which can be put at {@link #getWriteOffset()} without wrapping around, 0 if full. */
+    int getContiguousFreeSpace() {
+        final int tail = mTail;
+        return Math.min(mCapacity - (tail - mHead), mCapacity - (tail & mMask));
+    }
+
+    /** If there is room for at least one more byte. May be called from any thread. */
+    boolean hasFreeSpace() {
+        return mTail - mHead < mCapacity;
+    }
+
+    /** Make the specified number of bytes put at {@link #getWriteOffset()} available to the consumer. */
+    void commitWrite(int count) {
+        mTail += count;
+        Thread waitingReader = mWaitingReader;
+        if (waitingReader != null) LockSupport.unpark(waitingReader);
+    }
+
+    /**
+     * If the consumer can use the bytes in place instead of calling {@link #read(byte[], boolean)}, which is the case
+     * if the buffer is backed by an array, as direct buffers are on Android: at most {@link #getContiguousReadable()}
+     * bytes at {@link #getReadOffset()} in {@link #getArray()} may be used, and are then given back to the producer by
+     * {@link #commitRead(int)}.
+     */
+    boolean hasArray() {
+        return mBuffer.hasArray();
+    }
+
+    byte[] getArray() {
+        return mBuffer.array();
+    }
+
+    /** The offset in {@link #getArray()} of the next byte to read. */
+    int getReadOffset() {
+        return mBuffer.arrayOffset() + (mHead & mMask);
+    }
+
+    /** The number of bytes which can be read at {@link #getReadOffset()} without wrapping around, 0 if empty. */
+    int getContiguousReadable() {
+        final int head = mHead;
+        return Math.min(mTail - head, mCapacity - (head & mMask));
+    }
+
+    /** Give back the specified number of bytes at {@link #getReadOffset()} to the producer. */
+    void commitRead(int count) {
+        mHead += count;
+        Thread waitingWriter = mWaitingWriter;
+        if (waitingWriter != null) LockSupport.unpark(waitingWriter);
+    }
+
+    /** The number of bytes which can be read. */
+    int available() {
+        return mTail - mHead;
+    }
+
+    /** Discard all bytes which can be read, as the consumer. */
+    void discard() {
+        commitRead(mTail - mHead);
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.termux.terminal;
 
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 
 /**
@@ -7,6 +12,10 @@ import java.util.Arrays;
  * history.
  * <p>
  * See {@link #externalToInternalRow(int)} for how to map from logical screen rows to array indices.
+ * <p>
+ * Rows falling out of the circular buffer may be kept in a {@link TranscriptArchive}, see
+ * {@link #setCompressedTranscriptRows(int)} and {@link #spillTranscriptTo(File)}, in which case they are available
+ * through {@link #getRow(int)}.
  */
 public final class TerminalBuffer {
 
@@ -15,10 +24,44 @@ public final class TerminalBuffer {
     int mTotalRows;
     /** The number of rows and columns visible on the screen. */
     int mScreenRows, mColumns;
-    /** The number of rows kept in history. */
+    /** The number of rows kept in history in {@link #mLines}. */
     private int mActiveTranscriptRows = 0;
+    /** The older rows of the history, if enabled, which have fallen out of {@link #mLines}. */
+    private TranscriptArchive mTranscriptArchive;
     /** The index in the circular buffer where the visible screen starts. */
     private int mScreenFirstRow = 0;
+    /** The number of rows scrolled into the transcript, see {@link #getScrolledRows()}. */
+    private long mScrolledRows;
+    /** Changed whenever the rows of the transcript are rearranged, see {@link #getTranscriptGeneration()}. */
+    private int mTranscriptGeneration;
+    /**
+     * The rows and row arrays no longer used, for reuse instead of allocating new ones as output scrolls. Only used when
+     * changing the buffer, so that reading it, as done without locking by the renderer, has no side effects.
+     */
+    private final TerminalRowPool mRowPool;
+    /** Returned by {@link #getRow(int)} for rows not allocated yet, instead of allocating them while reading. */
+    private TerminalRow mBlankRow;
+
+    /** The number of rows above the screen which are reflowed right away when the number of columns changes. */
+    static final int IMMEDIATE_REFLOW_ROWS = 200;
+    /**
+     * The older history rows not reflowed yet after the number of columns changed, oldest first and each keeping the width
+     * it had. They come between the {@link #mTranscriptArchive} and the transcript rows in {@link #mLines}, and are
+     * reflowed a step at a time by {@link #reflowHistory(int)}. Until then they are not part of the transcript, while the
+     * archived rows before them still are, laid out for the current width as usual.
+     */
+    private TerminalRow[] mUnreflowedRows;
+    private int mUnreflowedCount;
+
+    /**
+     * If everything, including the transcript, may have changed since the last {@link #clearDamage()}. Set on e.g.
+     * scrolling, since every row is then moved.
+     */
+    private boolean mFullyDamaged = true;
+    /** The screen rows which have changed since the last {@link #clearDamage()}, unless {@link #mFullyDamaged}. */
+    private boolean[] mDamagedRows;
+    /** The range of screen rows in {@link #mDamagedRows}, an empty range if none. The last row is inclusive. */
+    private int mFirstDamagedRow, mLastDamagedRow;
 
     /**
      * Create a transcript screen.
@@ -33,20 +76,78 @@ public final class TerminalBuffer {
         mTotalRows = totalRows;
         mScreenRows = screenRows;
         mLines = new TerminalRow[totalRows];
+        mDamagedRows = new boolean[screenRows];
+        mRowPool = new TerminalRowPool(columns);
+        mBlankRow = new TerminalRow(columns, TextStyle.NORMAL);
 
         blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
     }
 
+    /**
+     * Keep up to the specified number of rows falling out of the circular buffer in compressed form, for transcripts
+     * too long to keep in memory as {@link TerminalRow}:s. Zero to disable, which discards the compressed rows.
+     */
+    public void setCompressedTranscriptRows(int rows) {
+        setTranscriptArchive((rows > 0) ? new CompressedTranscript(rows) : null);
+    }
+
+    /**
+     * Keep all rows falling out of the circular buffer in the specified file, for practically unlimited transcripts.
+     * The file is deleted once opened, and is only used for as long as this buffer is.
+     */
+    public void spillTranscriptTo(File file) throws IOException {
+        setTranscriptArchive(new SpilledTranscript(file, Integer.MAX_VALUE - TranscriptArchive.BLOCK_ROWS));
+    }
+
+    private void setTranscriptArchive(TranscriptArchive archive) {
+        TranscriptArchive oldArchive = mTranscriptArchive;
+        if (oldArchive != null) {
+            if (archive != null) {
+                for (int i = 0; i < oldArchive.size(); i++)
+                    archive.add(oldArchive.getRow(i, mColumns));
+            }
+            oldArchive.close();
+        }
+        mTranscriptArchive = archive;
+        mFullyDamaged = true;
+    }
+
     public String getTranscriptText() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows).trim();
+        return getTranscriptText(true, false);
     }
 
     public String getTranscriptTextWithoutJoinedLines() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, false).trim();
+        // Note that getSelectedText(int, int, int, int, boolean) has always joined back lines, which is kept here.
+        return getTranscriptText(true, false);
     }
 
     public String getTranscriptTextWithFullLinesJoined() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true).trim();
+        return getTranscriptText(true, true);
+    }
+
+    private String getTranscriptText(boolean joinBackLines, boolean joinFullLines) {
+        final StringBuilder builder = new StringBuilder();
+        try {
+            writeTranscript(builder, joinBackLines, joinFullLines);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder.
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the text of the transcript and screen row by row, with leading and trailing whitespace trimmed like the
+     * getTranscriptText*() methods, without building up the whole text in memory.
+     *
+     * @param output         where to write the text, preferably a {@link Writer} or {@link StringBuilder}.
+     * @param joinBackLines  if to join rows which were line wrapped.
+     * @param joinFullLines  if to join rows whose text fills the whole row.
+     */
+    public void writeTranscript(Appendable output, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        TrimmingWriter writer = new TrimmingWriter(output);
+        appendSelectedText(writer, 0, -getActiveTranscriptRows(), mColumns, mScreenRows, joinBackLines, joinFullLines);
+        writer.flush();
     }
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
@@ -59,10 +160,23 @@ public final class TerminalBuffer {
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
         final StringBuilder builder = new StringBuilder();
+        try {
+            appendSelectedText(builder, selX1, selY1, selX2, selY2, joinBackLines, joinFullLines);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder.
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    private void appendSelectedText(Appendable output, int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) throws IOException {
         final int columns = mColumns;
+        // Used for rows frozen as ASCII, which have no char[] of their own:
+        char[] frozenRowText = null;
 
         if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
         if (selY2 >= mScreenRows) selY2 = mScreenRows - 1;
+        final TranscriptArchive.RowCursor archiveCursor = (selY1 < -mActiveTranscriptRows) ? newArchiveCursor() : null;
 
         for (int row = selY1; row <= selY2; row++) {
             int x1 = (row == selY1) ? selX1 : 0;
@@ -73,7 +187,7 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            TerminalRow lineObject = getRow(row, archiveCursor);
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
@@ -81,9 +195,10 @@ public final class TerminalBuffer {
                 x2Index = lineObject.findStartOfColumn(x2 + 1);
             }
             char[] line = lineObject.mText;
+            if (line == null) line = frozenRowText = lineObject.decodeAsciiText(frozenRowText);
             int lastPrintingCharIndex = -1;
             int i;
-            boolean rowLineWrap = getLineWrap(row);
+            boolean rowLineWrap = lineObject.mLineWrap;
             if (rowLineWrap && x2 == columns) {
                 // If the line was wrapped, we shouldn't lose trailing space:
                 lastPrintingCharIndex = x2Index - 1;
@@ -94,59 +209,268 @@ public final class TerminalBuffer {
                 }
             }
             if (lastPrintingCharIndex != -1)
-                builder.append(line, x1Index, lastPrintingCharIndex - x1Index + 1);
+                appendChars(output, line, x1Index, lastPrintingCharIndex - x1Index + 1);
             boolean lineFillsWidth = lastPrintingCharIndex == x2Index - 1;
             if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth)
-                && row < selY2 && row < mScreenRows - 1) builder.append('\n');
+                && row < selY2 && row < mScreenRows - 1) output.append('\n');
         }
-        return builder.toString();
     }
 
-    public String getWordAtLocation(int x, int y) {
-        // Set y1 and y2 to the lines where the wrapped line starts and ends.
-        // I.e. if a line that is wrapped to 3 lines starts at line 4, and this
-        // is called with y=5, then y1 would be set to 4 and y2 would be set to 6.
-        int y1 = y;
-        int y2 = y;
-        while (y1 > 0 && !getSelectedText(0, y1 - 1, mColumns, y, true, true).contains("\n")) {
-            y1--;
+    private static void appendChars(Appendable output, char[] chars, int start, int length) throws IOException {
+        if (output instanceof StringBuilder) {
+            ((StringBuilder) output).append(chars, start, length);
+        } else if (output instanceof Writer) {
+            ((Writer) output).write(chars, start, length);
+        } else {
+            output.append(CharBuffer.wrap(chars, start, length));
         }
-        while (y2 < mScreenRows && !getSelectedText(0, y, mColumns, y2 + 1, true, true).contains("\n")) {
-            y2++;
+    }
+
+    /** Writes to an {@link Appendable} with leading and trailing whitespace removed, as done by {@link String#trim()}. */
+    private static final class TrimmingWriter extends Writer {
+
+        private final Appendable mOutput;
+        /** Whitespace which is only written if followed by something else. */
+        private final StringBuilder mPendingWhitespace = new StringBuilder();
+        private boolean mWrittenAnything;
+
+        TrimmingWriter(Appendable output) {
+            mOutput = output;
         }
 
-        // Get the text for the whole wrapped line
-        String text = getSelectedText(0, y1, mColumns, y2, true, true);
-        // The index of x in text
-        int textOffset = (y - y1) * mColumns + x;
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            final int end = offset + length;
+            int lastNonWhitespace = end - 1;
+            while (lastNonWhitespace >= offset && chars[lastNonWhitespace] <= ' ') lastNonWhitespace--;
+            if (lastNonWhitespace < offset) {
+                // Only whitespace.
+                if (mWrittenAnything) mPendingWhitespace.append(chars, offset, length);
+                return;
+            }
 
-        if (textOffset >= text.length()) {
-          // The click was to the right of the last word on the line, so
-          // there's no word to return
-          return "";
+            if (!mWrittenAnything) {
+                while (chars[offset] <= ' ') offset++;
+                mWrittenAnything = true;
+            } else if (mPendingWhitespace.length() > 0) {
+                mOutput.append(mPendingWhitespace);
+                mPendingWhitespace.setLength(0);
+            }
+            appendChars(mOutput, chars, offset, lastNonWhitespace + 1 - offset);
+            mPendingWhitespace.append(chars, lastNonWhitespace + 1, end - lastNonWhitespace - 1);
         }
 
-        // Set x1 and x2 to the indices of the last space before x and the
-        // first space after x in text respectively
-        int x1 = text.lastIndexOf(' ', textOffset);
-        int x2 = text.indexOf(' ', textOffset);
-        if (x2 == -1) {
-            x2 = text.length();
+        @Override
+        public void write(int c) throws IOException {
+            if (c <= ' ') {
+                if (mWrittenAnything) mPendingWhitespace.append((char) c);
+                return;
+            }
+            mWrittenAnything = true;
+            if (mPendingWhitespace.length() > 0) {
+                mOutput.append(mPendingWhitespace);
+                mPendingWhitespace.setLength(0);
+            }
+            mOutput.append((char) c);
         }
 
-        if (x1 == x2) {
-          // The click was on a space, so there's no word to return
-          return "";
+        @Override
+        public void flush() throws IOException {
+            if (mOutput instanceof Flushable) ((Flushable) mOutput).flush();
         }
-        return text.substring(x1 + 1, x2);
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+    /** The word at a location, separated by spaces and possibly spanning rows, or an empty string if at a space. */
+    public String getWordAtLocation(int x, int y) {
+        final int[] bounds = new int[4];
+        if (!findWordAt(x, y, bounds)) return "";
+        return getSelectedText(bounds[0], bounds[1], bounds[2], bounds[3], true, true);
+    }
+
+    /**
+     * Find the word at a location, which is separated by spaces and may continue on adjacent rows of the logical line,
+     * without building the text of the line.
+     *
+     * @param bounds Set to the start column, start row, end column and end row of the word, with the end inclusive.
+     * @return If there is a word at the location, and not a space.
+     */
+    public boolean findWordAt(int x, int y, int[] bounds) {
+        if (x < 0 || x >= mColumns || y < -getActiveTranscriptRows() || y >= mScreenRows) return false;
+        final TerminalRow row = getRow(y);
+        if (row.isSpaceAt(x)) return false;
+
+        TerminalRow startRow = row;
+        int x1 = x, y1 = y;
+        while (true) {
+            if (x1 > 0) {
+                if (startRow.isSpaceAt(x1 - 1)) break;
+                x1--;
+            } else {
+                if (y1 == -getActiveTranscriptRows() || !isJoinedWithNextRow(y1 - 1, true)) break;
+                final TerminalRow previousRow = getRow(y1 - 1);
+                if (previousRow.isSpaceAt(mColumns - 1)) break;
+                startRow = previousRow;
+                y1--;
+                x1 = mColumns - 1;
+            }
+        }
+
+        TerminalRow endRow = row;
+        int x2 = x, y2 = y;
+        while (true) {
+            if (x2 < mColumns - 1) {
+                if (endRow.isSpaceAt(x2 + 1)) break;
+                x2++;
+            } else {
+                if (!isJoinedWithNextRow(y2, true)) break;
+                final TerminalRow nextRow = getRow(y2 + 1);
+                if (nextRow.isSpaceAt(0)) break;
+                endRow = nextRow;
+                y2++;
+                x2 = 0;
+            }
+        }
+
+        bounds[0] = x1;
+        bounds[1] = y1;
+        bounds[2] = x2;
+        bounds[3] = y2;
+        return true;
+    }
+
+    /**
+     * If the logical line at a row continues on the next row, which is the case if the row was wrapped by output reaching
+     * its end, or with joinFullLines, if text fills its whole width.
+     */
+    public boolean isJoinedWithNextRow(int row, boolean joinFullLines) {
+        if (row >= mScreenRows - 1) return false;
+        final TerminalRow lineObject = getRow(row);
+        return lineObject.mLineWrap || (joinFullLines && !lineObject.isSpaceAt(mColumns - 1));
+    }
+
+    /** The first row of the logical line containing a row, see {@link #isJoinedWithNextRow(int, boolean)}. */
+    public int getLogicalLineStart(int row, boolean joinFullLines) {
+        final int firstRow = -getActiveTranscriptRows();
+        while (row > firstRow && isJoinedWithNextRow(row - 1, joinFullLines)) row--;
+        return row;
+    }
+
+    /** The last row of the logical line containing a row, see {@link #isJoinedWithNextRow(int, boolean)}. */
+    public int getLogicalLineEnd(int row, boolean joinFullLines) {
+        while (isJoinedWithNextRow(row, joinFullLines)) row++;
+        return row;
     }
 
     public int getActiveTranscriptRows() {
-        return mActiveTranscriptRows;
+        return mActiveTranscriptRows + getArchivedTranscriptRows();
     }
 
     public int getActiveRows() {
-        return mActiveTranscriptRows + mScreenRows;
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    /**
+     * The number of rows which have been scrolled into the transcript, so that {@code getScrolledRows() + externalRow}
+     * numbers a row for as long as it is in the transcript, even as more rows are scrolled into it. Only valid while
+     * {@link #getTranscriptGeneration()} is unchanged.
+     */
+    public long getScrolledRows() {
+        return mScrolledRows;
+    }
+
+    /** Changed when the transcript is cleared or reflowed, which invalidates row numbers from {@link #getScrolledRows()}. */
+    public int getTranscriptGeneration() {
+        return mTranscriptGeneration;
+    }
+
+    /** The number of the oldest transcript rows which are kept compressed or spilled to a file. */
+    public int getArchivedTranscriptRows() {
+        return (mTranscriptArchive == null) ? 0 : mTranscriptArchive.size();
+    }
+
+    /**
+     * Get a row in the external coordinate system, including rows in the archived part of the transcript, for reading
+     * it. Rows returned from the archived part of the transcript are temporary copies, and rows not allocated yet are
+     * a shared blank row, neither of which should be modified. Use {@link #allocateFullLineIfNecessary(int)} to modify.
+     */
+    public TerminalRow getRow(int externalRow) {
+        if (externalRow < -mActiveTranscriptRows && getArchivedTranscriptRows() > 0) {
+            int index = mTranscriptArchive.size() + mActiveTranscriptRows + externalRow;
+            if (index >= 0) return mTranscriptArchive.getRow(index, mColumns);
+        }
+        final TerminalRow row = mLines[externalToInternalRow(externalRow)];
+        return (row == null) ? mBlankRow : row;
+    }
+
+    /** A cursor for reading archived rows with {@link #getRow(int, TranscriptArchive.RowCursor)}, or null if there are none. */
+    TranscriptArchive.RowCursor newArchiveCursor() {
+        return (getArchivedTranscriptRows() > 0) ? mTranscriptArchive.newCursor(mColumns) : null;
+    }
+
+    /**
+     * Get a row like {@link #getRow(int)}, but reading archived rows through a cursor, which decodes them into one reused
+     * row instead of loading their blocks, for going through many rows once. Rows from the cursor are only valid until
+     * it is used again, and the cursor only until the buffer changes.
+     */
+    TerminalRow getRow(int externalRow, TranscriptArchive.RowCursor archiveCursor) {
+        if (archiveCursor != null && externalRow < -mActiveTranscriptRows) {
+            int index = getArchivedTranscriptRows() + mActiveTranscriptRows + externalRow;
+            if (index >= 0) return archiveCursor.read(index);
+        }
+        return getRow(externalRow);
+    }
+
+    /**
+     * If everything may have changed since the last call to {@link #clearDamage()}, which includes the transcript
+     * rows since scrolling moves them.
+     */
+    public boolean isFullyDamaged() {
+        return mFullyDamaged;
+    }
+
+    /** If the row, in the external coordinate system, may have changed since the last call to {@link #clearDamage()}. */
+    public boolean isRowDamaged(int externalRow) {
+        if (mFullyDamaged) return true;
+        return externalRow >= 0 && externalRow < mScreenRows && mDamagedRows[externalRow];
+    }
+
+    /** The first screen row which may have changed since {@link #clearDamage()}, or -1 if no row has changed. */
+    public int getFirstDamagedRow() {
+        if (mFullyDamaged) return 0;
+        return mFirstDamagedRow <= mLastDamagedRow ? mFirstDamagedRow : -1;
+    }
+
+    /** The last screen row which may have changed since {@link #clearDamage()}, or -1 if no row has changed. */
+    public int getLastDamagedRow() {
+        if (mFullyDamaged) return mScreenRows - 1;
+        return mFirstDamagedRow <= mLastDamagedRow ? mLastDamagedRow : -1;
+    }
+
+    /** Forget about changes, typically called after the changed rows have been rendered. */
+    public void clearDamage() {
+        if (mFirstDamagedRow <= mLastDamagedRow) Arrays.fill(mDamagedRows, mFirstDamagedRow, mLastDamagedRow + 1, false);
+        mFirstDamagedRow = Integer.MAX_VALUE;
+        mLastDamagedRow = -1;
+        mFullyDamaged = false;
+    }
+
+    /** Mark everything as changed. */
+    public void damageAll() {
+        mFullyDamaged = true;
+    }
+
+    /** Mark the screen rows in the range, which is exclusive of the end row, as changed. */
+    private void damageRows(int startRow, int endRow) {
+        if (mFullyDamaged || startRow >= endRow) return;
+        if (startRow < mFirstDamagedRow) mFirstDamagedRow = startRow;
+        if (endRow - 1 > mLastDamagedRow) mLastDamagedRow = endRow - 1;
+        Arrays.fill(mDamagedRows, startRow, endRow, true);
     }
 
     /**
@@ -167,37 +491,49 @@ public final class TerminalBuffer {
      * [ mScreenRows-1                  ]     [ mScreenFirstRow + mScreenRows-1         ]
      * </pre>
      *
+     * Rows in the archived part of the transcript have no row in the private coordinate system, see {@link #getRow(int)}.
+     *
      * @param externalRow a row in the external coordinate system.
      * @return The row corresponding to the input argument in the private coordinate system.
      */
     public int externalToInternalRow(int externalRow) {
         if (externalRow < -mActiveTranscriptRows || externalRow > mScreenRows)
             throw new IllegalArgumentException("extRow=" + externalRow + ", mScreenRows=" + mScreenRows + ", mActiveTranscriptRows=" + mActiveTranscriptRows);
+        // Within one round of the buffer either way given the bounds above, so no need for the remainder operator:
         final int internalRow = mScreenFirstRow + externalRow;
-        return (internalRow < 0) ? (mTotalRows + internalRow) : (internalRow % mTotalRows);
+        return (internalRow < 0) ? (mTotalRows + internalRow) : ((internalRow < mTotalRows) ? internalRow : (internalRow - mTotalRows));
     }
 
     public void setLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = true;
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = true;
     }
 
     public boolean getLineWrap(int row) {
-        return mLines[externalToInternalRow(row)].mLineWrap;
+        return getRow(row).mLineWrap;
     }
 
     public void clearLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = false;
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = false;
     }
 
     /**
      * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
      * change or the rows expand (that is, it only works when shrinking the number of rows).
+     * <p>
+     * When the number of columns changes only the screen and the {@link #IMMEDIATE_REFLOW_ROWS} above it are reflowed
+     * right away, with the older history left for {@link #reflowHistory(int)}.
      *
      * @param newColumns The number of columns the screen should have.
      * @param newRows    The number of rows the screen should have.
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        mFullyDamaged = true;
+        if (newRows != mDamagedRows.length) {
+            mDamagedRows = new boolean[newRows];
+            mFirstDamagedRow = Integer.MAX_VALUE;
+            mLastDamagedRow = -1;
+        }
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == mColumns && newRows <= mTotalRows) {
             // Fast resize where just the rows changed.
@@ -225,23 +561,47 @@ public final class TerminalBuffer {
             mScreenFirstRow = (mScreenFirstRow < 0) ? (mScreenFirstRow + mTotalRows) : (mScreenFirstRow % mTotalRows);
             mTotalRows = newTotalRows;
             mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
+            // The rows keep their numbers as they move between the screen and the transcript:
+            mScrolledRows += shiftDownOfTopRow;
             cursor[1] -= shiftDownOfTopRow;
             mScreenRows = newRows;
         } else {
-            // Copy away old state and update new:
+            mTranscriptGeneration++;
+            // Copy away old state and update new. The transcript rows are allocated as they are written:
             TerminalRow[] oldLines = mLines;
             mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                mLines[i] = new TerminalRow(newColumns, currentStyle);
+            mRowPool.setColumns(newColumns);
+            for (int i = 0; i < newRows; i++)
+                mLines[i] = mRowPool.obtainRow(currentStyle);
 
             final int oldActiveTranscriptRows = mActiveTranscriptRows;
             final int oldScreenFirstRow = mScreenFirstRow;
             final int oldScreenRows = mScreenRows;
             final int oldTotalRows = mTotalRows;
+
+            // Only reflow the screen and the rows just above it now, starting at a whole line, so that resizing does not
+            // take longer the longer the history is. The older rows are reflowed later by reflowHistory():
+            int firstReflowedRow = -Math.min(oldActiveTranscriptRows, IMMEDIATE_REFLOW_ROWS);
+            while (firstReflowedRow > -oldActiveTranscriptRows) {
+                TerminalRow previousRow = getRowBeforeResize(oldLines, oldScreenFirstRow, oldTotalRows, firstReflowedRow - 1);
+                if (previousRow == null || !previousRow.mLineWrap) break;
+                firstReflowedRow--;
+            }
+            final int rowsLeftUnreflowed = oldActiveTranscriptRows + firstReflowedRow;
+            if (rowsLeftUnreflowed > 0) {
+                // Added after any rows left from an earlier resize, which are older:
+                final int unreflowedCount = mUnreflowedCount + rowsLeftUnreflowed;
+                if (mUnreflowedRows == null || mUnreflowedRows.length < unreflowedCount)
+                    mUnreflowedRows = (mUnreflowedRows == null) ? new TerminalRow[unreflowedCount] : Arrays.copyOf(mUnreflowedRows, unreflowedCount);
+                for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < firstReflowedRow; externalOldRow++)
+                    mUnreflowedRows[mUnreflowedCount++] = getRowBeforeResize(oldLines, oldScreenFirstRow, oldTotalRows, externalOldRow);
+            }
+
             mTotalRows = newTotalRows;
             mScreenRows = newRows;
             mActiveTranscriptRows = mScreenFirstRow = 0;
             mColumns = newColumns;
+            mBlankRow = new TerminalRow(newColumns, TextStyle.NORMAL);
 
             int newCursorRow = -1;
             int newCursorColumn = -1;
@@ -256,12 +616,8 @@ public final class TerminalBuffer {
             // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
             // keep track how many blank lines we have skipped if we later on find a non-blank line.
             int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-
-                TerminalRow oldLine = oldLines[internalOldRow];
+            for (int externalOldRow = firstReflowedRow; externalOldRow < oldScreenRows; externalOldRow++) {
+                TerminalRow oldLine = getRowBeforeResize(oldLines, oldScreenFirstRow, oldTotalRows, externalOldRow);
                 boolean cursorAtThisRow = externalOldRow == oldCursorRow;
                 // The cursor may only be on a non-null line, which we should not skip:
                 if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
@@ -280,6 +636,7 @@ public final class TerminalBuffer {
                     skippedBlankLines = 0;
                 }
 
+                final char[] oldText = oldLine.getText();
                 int lastNonSpaceIndex = 0;
                 boolean justToCursor = false;
                 if (cursorAtThisRow || oldLine.mLineWrap) {
@@ -289,7 +646,7 @@ public final class TerminalBuffer {
                 } else {
                     for (int i = 0; i < oldLine.getSpaceUsed(); i++)
                         // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
-                        if (oldLine.mText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
+                        if (oldText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
                             lastNonSpaceIndex = i + 1;
                 }
 
@@ -297,8 +654,8 @@ public final class TerminalBuffer {
                 long styleAtCol = 0;
                 for (int i = 0; i < lastNonSpaceIndex; i++) {
                     // Note that looping over java character, not cells.
-                    char c = oldLine.mText[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
+                    char c = oldText[i];
+                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldText[++i]) : c;
                     int displayWidth = WcWidth.width(codePoint);
                     // Use the last style if this is a zero-width character:
                     if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
@@ -350,25 +707,135 @@ public final class TerminalBuffer {
         if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
     }
 
+    /** Do what {@link #externalToInternalRow(int)} does but for the state before resizing. */
+    private static TerminalRow getRowBeforeResize(TerminalRow[] lines, int screenFirstRow, int totalRows, int externalRow) {
+        final int internalRow = screenFirstRow + externalRow;
+        return lines[(internalRow < 0) ? (totalRows + internalRow) : (internalRow % totalRows)];
+    }
+
+    /** If there are history rows left to reflow after the number of columns changed, see {@link #reflowHistory(int)}. */
+    public boolean isReflowPending() {
+        return mUnreflowedCount > 0;
+    }
+
     /**
-     * Block copy lines and associated metadata from one location to another in the circular buffer, taking wraparound
-     * into account.
+     * Reflow some of the history rows left as they were when resizing changed the number of columns, newest first, adding
+     * them to the transcript. The rows which still do not fit once the transcript is full are archived or dropped.
      *
-     * @param srcInternal The first line to be copied.
-     * @param len         The number of lines to be copied.
+     * @param maxRows The number of old rows to reflow before returning, rounded up to whole lines.
+     * @return If there are more rows to reflow.
      */
-    private void blockCopyLinesDown(int srcInternal, int len) {
-        if (len == 0) return;
-        int totalRows = mTotalRows;
+    public boolean reflowHistory(int maxRows) {
+        if (mUnreflowedCount == 0) return false;
+        // Rows are added before the oldest ones of the transcript, which renumbers them:
+        mTranscriptGeneration++;
+        mFullyDamaged = true;
+
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        while (mUnreflowedCount > 0 && maxRows > 0) {
+            if (mActiveTranscriptRows == maxTranscriptRows) {
+                // The oldest rows are older than all in the full transcript, so go directly to the archive:
+                maxRows -= archiveUnreflowedRows(maxRows);
+                continue;
+            }
+
+            // Reflow the newest line left, which starts after the last old row not wrapping:
+            final int lineEnd = mUnreflowedCount;
+            int lineStart = lineEnd - 1;
+            while (lineStart > 0 && mUnreflowedRows[lineStart - 1] != null && mUnreflowedRows[lineStart - 1].mLineWrap)
+                lineStart--;
+            final int newRowCount = reflowUnreflowedLine(lineStart, lineEnd);
+            Arrays.fill(mUnreflowedRows, lineStart, lineEnd, null);
+            mUnreflowedCount = lineStart;
+            maxRows -= lineEnd - lineStart;
+
+            // Add the rows as the oldest ones of the transcript, with those not fitting left to be archived:
+            int row = newRowCount - 1;
+            for (; row >= 0 && mActiveTranscriptRows < maxTranscriptRows; row--) {
+                mActiveTranscriptRows++;
+                mLines[externalToInternalRow(-mActiveTranscriptRows)] = mReflowedLine[row];
+            }
+            for (int i = 0; i <= row; i++)
+                mUnreflowedRows[mUnreflowedCount++] = mReflowedLine[i];
+            Arrays.fill(mReflowedLine, 0, newRowCount, null);
+        }
+        return mUnreflowedCount > 0;
+    }
+
+    /** The rows of the line last laid out by {@link #reflowUnreflowedLine(int, int)}. */
+    private TerminalRow[] mReflowedLine = new TerminalRow[4];
+    /** Used for the text of rows frozen as ASCII while reflowing them. */
+    private char[] mReflowedText;
+
+    /**
+     * Lay out the text of a line of {@link #mUnreflowedRows} in new rows of the current width, as done when resizing.
+     *
+     * @return The number of rows put in {@link #mReflowedLine}.
+     */
+    private int reflowUnreflowedLine(int start, int end) {
+        int newRowCount = 0;
+        TerminalRow newRow = mReflowedLine[newRowCount++] = mRowPool.obtainRow(TextStyle.NORMAL);
+        int newColumn = 0;
+        for (int r = start; r < end; r++) {
+            final TerminalRow oldLine = mUnreflowedRows[r];
+            if (oldLine == null) continue;
+            final char[] oldText = (oldLine.mText != null) ? oldLine.mText : (mReflowedText = oldLine.decodeAsciiText(mReflowedText));
+            int lastNonSpaceIndex = 0;
+            if (oldLine.mLineWrap) {
+                lastNonSpaceIndex = oldLine.getSpaceUsed();
+            } else {
+                for (int i = 0; i < oldLine.getSpaceUsed(); i++)
+                    if (oldText[i] != ' ') lastNonSpaceIndex = i + 1;
+            }
+
+            int oldColumn = 0;
+            long styleAtCol = 0;
+            for (int i = 0; i < lastNonSpaceIndex; i++) {
+                char c = oldText[i];
+                int codePoint = (Character.isHighSurrogate(c) && i + 1 < lastNonSpaceIndex) ? Character.toCodePoint(c, oldText[++i]) : c;
+                int displayWidth = WcWidth.width(codePoint);
+                // Use the last style if this is a zero-width character:
+                if (displayWidth > 0) styleAtCol = oldLine.getStyle(oldColumn);
+
+                if (newColumn + displayWidth > mColumns) {
+                    newRow.mLineWrap = true;
+                    newRow.freeze();
+                    if (newRowCount == mReflowedLine.length)
+                        mReflowedLine = Arrays.copyOf(mReflowedLine, 2 * newRowCount);
+                    newRow = mReflowedLine[newRowCount++] = mRowPool.obtainRow(TextStyle.NORMAL);
+                    newColumn = 0;
+                }
+
+                int offsetDueToCombiningChar = ((displayWidth <= 0 && newColumn > 0) ? 1 : 0);
+                newRow.setChar(newColumn - offsetDueToCombiningChar, codePoint, styleAtCol);
+                if (displayWidth > 0) {
+                    oldColumn += displayWidth;
+                    newColumn += displayWidth;
+                }
+            }
+        }
+        newRow.freeze();
+        return newRowCount;
+    }
 
-        int start = len - 1;
-        // Save away line to be overwritten:
-        TerminalRow lineToBeOverWritten = mLines[(srcInternal + start + 1) % totalRows];
-        // Do the copy from bottom to top.
-        for (int i = start; i >= 0; --i)
-            mLines[(srcInternal + i + 1) % totalRows] = mLines[(srcInternal + i) % totalRows];
-        // Put back overwritten line, now above the block:
-        mLines[(srcInternal) % totalRows] = lineToBeOverWritten;
+    /**
+     * Move up to the specified number of the oldest {@link #mUnreflowedRows} to the archive as they are, or drop them if
+     * there is none, since they are older than all rows in the transcript.
+     *
+     * @return The number of rows moved.
+     */
+    private int archiveUnreflowedRows(int maxRows) {
+        final int rows = Math.min(maxRows, mUnreflowedCount);
+        if (mTranscriptArchive != null) {
+            for (int i = 0; i < rows; i++)
+                if (mUnreflowedRows[i] != null) mTranscriptArchive.add(mUnreflowedRows[i]);
+        }
+        for (int i = 0; i < rows; i++)
+            if (mUnreflowedRows[i] != null) mRowPool.releaseRow(mUnreflowedRows[i]);
+        System.arraycopy(mUnreflowedRows, rows, mUnreflowedRows, 0, mUnreflowedCount - rows);
+        Arrays.fill(mUnreflowedRows, mUnreflowedCount - rows, mUnreflowedCount, null);
+        mUnreflowedCount -= rows;
+        return rows;
     }
 
     /**
@@ -379,27 +846,100 @@ public final class TerminalBuffer {
      * @param style        the style for the newly exposed line.
      */
     public void scrollDownOneLine(int topMargin, int bottomMargin, long style) {
+        scrollDownLines(topMargin, bottomMargin, 1, style);
+    }
+
+    /**
+     * Scroll the screen down a number of lines, the same as calling {@link #scrollDownOneLine(int, int, long)} that many
+     * times but advancing the circular buffer in one go, so that the fixed rows outside of the margins are only moved
+     * once.
+     */
+    public void scrollDownLines(int topMargin, int bottomMargin, int lines, long style) {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
 
-        // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
-        blockCopyLinesDown(mScreenFirstRow, topMargin);
-        // Copy the fixed mScreenRows-bottomMargin lines one line down so that they remain on screen in same
-        // position:
-        blockCopyLinesDown(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin);
-
-        // Update the screen location in the ring buffer:
-        mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
-        // Note that the history has grown if not already full:
-        if (mActiveTranscriptRows < mTotalRows - mScreenRows) mActiveTranscriptRows++;
-
-        // Blank the newly revealed line above the bottom margin:
-        int blankRow = externalToInternalRow(bottomMargin - 1);
-        if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
-        } else {
-            mLines[blankRow].clear(style);
+        while (lines > 0) {
+            // Scrolling more than the rows between the margins also scrolls out the blank rows revealed:
+            final int step = Math.min(lines, bottomMargin - topMargin);
+            advanceScreen(topMargin, bottomMargin, step, style);
+            lines -= step;
+        }
+    }
+
+    /** The rows moved by {@link #advanceScreen(int, int, int, long)}, indexed by their new external row plus the lines. */
+    private TerminalRow[] mMovedRows = new TerminalRow[0];
+
+    /**
+     * Move the screen down in the circular buffer, which scrolls the rows at the top margin into the transcript, and put
+     * back the rows outside of the margins where they were. The lines must not exceed the rows between the margins.
+     */
+    private void advanceScreen(int topMargin, int bottomMargin, int lines, long style) {
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        final int transcriptOverflow = mActiveTranscriptRows + lines - maxTranscriptRows;
+        if (transcriptOverflow > 0) {
+            // The oldest transcript rows are about to be reused, so archive them, after any older rows not yet reflowed:
+            if (mUnreflowedCount > 0) {
+                archiveUnreflowedRows(mUnreflowedCount);
+                mTranscriptGeneration++;
+            }
+            if (mTranscriptArchive != null) {
+                final int oldestRow = -mActiveTranscriptRows;
+                for (int row = oldestRow; row < oldestRow + Math.min(transcriptOverflow, mActiveTranscriptRows); row++) {
+                    final int internalRow = externalToInternalRow(row);
+                    if (mLines[internalRow] != null) {
+                        mTranscriptArchive.add(mLines[internalRow]);
+                        mRowPool.releaseRow(mLines[internalRow]);
+                        mLines[internalRow] = null;
+                    }
+                }
+            }
         }
+
+        final int screenRows = mScreenRows;
+        if (mMovedRows.length < screenRows + lines) mMovedRows = new TerminalRow[screenRows + lines];
+        final TerminalRow[] movedRows = mMovedRows;
+        // Scrolled into the transcript, except for any not fitting in it which are reused as blank rows instead:
+        final int droppedRows = Math.max(0, lines - maxTranscriptRows);
+        for (int i = 0; i < lines; i++)
+            movedRows[i] = mLines[externalToInternalRow(topMargin + i)];
+        // The fixed rows above the top margin:
+        for (int row = 0; row < topMargin; row++)
+            movedRows[lines + row] = mLines[externalToInternalRow(row)];
+        // The blank rows above the bottom margin, reusing the rows which the screen moves into:
+        for (int i = 0; i < lines; i++) {
+            movedRows[bottomMargin + i] = (i < droppedRows) ? movedRows[i]
+                : mLines[(mScreenFirstRow + screenRows + i - droppedRows) % mTotalRows];
+        }
+        // The fixed rows below the bottom margin:
+        for (int row = bottomMargin; row < screenRows; row++)
+            movedRows[lines + row] = mLines[externalToInternalRow(row)];
+
+        // Rows between the margins not scrolled out are already where they should be after moving the screen:
+        mScreenFirstRow = (mScreenFirstRow + lines) % mTotalRows;
+        mScrolledRows += lines;
+        mActiveTranscriptRows = Math.min(mActiveTranscriptRows + lines, maxTranscriptRows);
+        mFullyDamaged = true;
+
+        for (int i = droppedRows; i < lines; i++) {
+            // The rows scrolled into the transcript are unlikely to be modified again, so store them compactly:
+            final TerminalRow row = movedRows[i];
+            if (row != null) row.freeze();
+            mLines[externalToInternalRow(i - lines)] = row;
+        }
+        for (int row = 0; row < topMargin; row++)
+            mLines[externalToInternalRow(row)] = movedRows[lines + row];
+        for (int row = bottomMargin - lines; row < bottomMargin; row++) {
+            final TerminalRow blankRow = movedRows[lines + row];
+            if (blankRow == null) {
+                mLines[externalToInternalRow(row)] = mRowPool.obtainRow(style);
+            } else {
+                blankRow.clear(style);
+                mLines[externalToInternalRow(row)] = blankRow;
+            }
+        }
+        for (int row = bottomMargin; row < screenRows; row++)
+            mLines[externalToInternalRow(row)] = movedRows[lines + row];
+        Arrays.fill(movedRows, 0, screenRows + lines, null);
     }
 
     /**
@@ -418,6 +958,7 @@ public final class TerminalBuffer {
         if (w == 0) return;
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows || dx < 0 || dx + w > mColumns || dy < 0 || dy + h > mScreenRows)
             throw new IllegalArgumentException();
+        damageRows(dy, dy + h);
         boolean copyingUp = sy > dy;
         for (int y = 0; y < h; y++) {
             int y2 = copyingUp ? y : (h - (y + 1));
@@ -436,29 +977,42 @@ public final class TerminalBuffer {
             throw new IllegalArgumentException(
                 "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
         }
+        damageRows(sy, sy + h);
         for (int y = 0; y < h; y++)
             for (int x = 0; x < w; x++)
                 setChar(sx + x, sy + y, val, style);
     }
 
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        return (mLines[row] == null) ? (mLines[row] = mRowPool.obtainRow(0)) : mLines[row];
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
         if (row >= mScreenRows || column >= mColumns)
             throw new IllegalArgumentException("row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        damageRows(row, row + 1);
         row = externalToInternalRow(row);
         allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
     }
 
+    /** Set a run of printable ASCII characters, which must all fit on the specified row, starting at a column. */
+    public void setAsciiRun(int column, int row, byte[] buffer, int start, int count, long style) {
+        if (row >= mScreenRows || column + count > mColumns)
+            throw new IllegalArgumentException("row=" + row + ", column=" + column + ", count=" + count + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        if (count <= 0) return;
+        damageRows(row, row + 1);
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setAsciiRun(column, buffer, start, count, style);
+    }
+
     public long getStyleAt(int externalRow, int column) {
-        return allocateFullLineIfNecessary(externalToInternalRow(externalRow)).getStyle(column);
+        return getRow(externalRow).getStyle(column);
     }
 
     /** Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA */
     public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left,
                                  int bottom, int right) {
+        damageRows(top, bottom);
         for (int y = top; y < bottom; y++) {
             TerminalRow line = mLines[externalToInternalRow(y)];
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
@@ -476,19 +1030,59 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.setStyle(x, TextStyle.encode(foreColor, backColor, effect));
             }
         }
     }
 
+    /** The pool of rows which this buffer reuses, for its metrics. */
+    public TerminalRowPool getRowPool() {
+        return mRowPool;
+    }
+
+    /**
+     * Drop all but the specified number of the newest transcript rows, for instance to keep up with huge amounts of
+     * output which nobody is watching. Archived rows are only dropped once all rows in {@link #mLines} are kept, since
+     * they are then all older than the kept rows.
+     */
+    public void trimTranscript(int maxRows) {
+        final boolean archived = mUnreflowedCount > 0 || (mTranscriptArchive != null && mTranscriptArchive.size() > 0);
+        if (mActiveTranscriptRows < maxRows || (mActiveTranscriptRows == maxRows && !archived)) return;
+        for (int row = -mActiveTranscriptRows; row < -maxRows; row++) {
+            final int internalRow = externalToInternalRow(row);
+            if (mLines[internalRow] != null) {
+                mRowPool.releaseRow(mLines[internalRow]);
+                mLines[internalRow] = null;
+            }
+        }
+        mActiveTranscriptRows = maxRows;
+        for (int i = 0; i < mUnreflowedCount; i++)
+            if (mUnreflowedRows[i] != null) mRowPool.releaseRow(mUnreflowedRows[i]);
+        if (mUnreflowedCount > 0) {
+            Arrays.fill(mUnreflowedRows, 0, mUnreflowedCount, null);
+            mUnreflowedCount = 0;
+        }
+        if (mTranscriptArchive != null) mTranscriptArchive.clear();
+        mTranscriptGeneration++;
+        mFullyDamaged = true;
+    }
+
     public void clearTranscript() {
-        if (mScreenFirstRow < mActiveTranscriptRows) {
-            Arrays.fill(mLines, mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows, null);
-            Arrays.fill(mLines, 0, mScreenFirstRow, null);
-        } else {
-            Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
+        for (int row = -mActiveTranscriptRows; row < 0; row++) {
+            final int internalRow = externalToInternalRow(row);
+            if (mLines[internalRow] != null) {
+                mRowPool.releaseRow(mLines[internalRow]);
+                mLines[internalRow] = null;
+            }
         }
         mActiveTranscriptRows = 0;
+        if (mUnreflowedCount > 0) {
+            Arrays.fill(mUnreflowedRows, 0, mUnreflowedCount, null);
+            mUnreflowedCount = 0;
+        }
+        if (mTranscriptArchive != null) mTranscriptArchive.clear();
+        mTranscriptGeneration++;
+        mFullyDamaged = true;
     }
 
 }
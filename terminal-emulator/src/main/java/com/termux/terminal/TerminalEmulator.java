@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import android.util.Base64;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
@@ -79,6 +81,57 @@ public final class TerminalEmulator {
     private static final int ESC_CSI_SINGLE_QUOTE = 18;
     /** Escape processing: CSI ! */
     private static final int ESC_CSI_EXCLAMATION = 19;
+    /** The number of escape processing states, which are all below this. */
+    private static final int ESC_STATE_COUNT = 20;
+
+    /** Parser action: process the byte through {@link #processByte(byte)}, which handles all bytes in all states. */
+    private static final int ACTION_PROCESS_BYTE = 0;
+    /** Parser action: emit a run of printable ASCII, see {@link #canEmitAsciiRun()}. */
+    private static final int ACTION_PRINT = 1;
+    /** Parser action: do a run of line feeds and carriage returns, see {@link #doLinefeeds(int)}. */
+    private static final int ACTION_LINEFEEDS = 2;
+    /** Parser action: start an escape sequence at ESC, see {@link #startEscapeSequence()}. */
+    private static final int ACTION_START_ESCAPE = 3;
+    /** Parser action: go to the next state of the transition, with nothing else to do. */
+    private static final int ACTION_ENTER_STATE = 4;
+    /** Parser action: add a digit to the current parameter in {@link #mArgs}. */
+    private static final int ACTION_PARAM_DIGIT = 5;
+    /** Parser action: go to the next parameter in {@link #mArgs} at ';'. */
+    private static final int ACTION_PARAM_SEPARATOR = 6;
+    /** Parser action: "CSI Pn m", see {@link #selectGraphicRendition()}. */
+    private static final int ACTION_SGR = 7;
+
+    /**
+     * The transitions of the escape sequence state machine for the common parts of output, such as text, line feeds and
+     * the parameters of CSI sequences, indexed by the escape state times 128 plus the ASCII byte. Each entry holds the
+     * ACTION_* constant in the upper three bits and the next escape state in the lower five. Entries of other bytes are
+     * {@link #ACTION_PROCESS_BYTE}, so that this only shortcuts what {@link #processCodePoint(int)} does for them.
+     * Outlined in https://vt100.net/emu/dec_ansi_parser, though the states here are those of {@link #processCodePoint(int)}.
+     */
+    private static final byte[] PARSER_TRANSITIONS = new byte[ESC_STATE_COUNT * 128];
+
+    static {
+        for (int state = 0; state < ESC_STATE_COUNT; state++) {
+            // ESC is part of the string terminator of device control strings and OSC:
+            if (state != ESC_P && state != ESC_OSC) setParserTransition(state, 27, ACTION_START_ESCAPE, ESC);
+        }
+        for (int b = 32; b < 127; b++)
+            setParserTransition(ESC_NONE, b, ACTION_PRINT, ESC_NONE);
+        setParserTransition(ESC_NONE, '\n', ACTION_LINEFEEDS, ESC_NONE);
+        setParserTransition(ESC, '[', ACTION_ENTER_STATE, ESC_CSI);
+        setParserTransition(ESC_CSI, '?', ACTION_ENTER_STATE, ESC_CSI_QUESTIONMARK);
+        setParserTransition(ESC_CSI, '>', ACTION_ENTER_STATE, ESC_CSI_BIGGERTHAN);
+        for (int state : new int[]{ESC_CSI, ESC_CSI_QUESTIONMARK, ESC_CSI_BIGGERTHAN}) {
+            for (int b = '0'; b <= '9'; b++)
+                setParserTransition(state, b, ACTION_PARAM_DIGIT, state);
+            setParserTransition(state, ';', ACTION_PARAM_SEPARATOR, state);
+        }
+        setParserTransition(ESC_CSI, 'm', ACTION_SGR, ESC_NONE);
+    }
+
+    private static void setParserTransition(int state, int b, int action, int nextState) {
+        PARSER_TRANSITIONS[state * 128 + b] = (byte) ((action << 5) | nextState);
+    }
 
     /** The number of parameter arguments. This name comes from the ANSI standard for terminal escape codes. */
     private static final int MAX_ESCAPE_PARAMETERS = 16;
@@ -135,8 +188,10 @@ public final class TerminalEmulator {
 
     /** The number of terminal transcript rows that can be scrolled back to. */
     public static final int TERMINAL_TRANSCRIPT_ROWS_MIN = 100;
-    public static final int TERMINAL_TRANSCRIPT_ROWS_MAX = 50000;
+    public static final int TERMINAL_TRANSCRIPT_ROWS_MAX = 1000000;
     public static final int DEFAULT_TERMINAL_TRANSCRIPT_ROWS = 2000;
+    /** The number of transcript rows kept as {@link TerminalRow}:s, with older ones kept in compressed form. */
+    public static final int TERMINAL_TRANSCRIPT_ROWS_UNCOMPRESSED_MAX = 10000;
 
 
     /* The supported terminal cursor styles. */
@@ -310,7 +365,10 @@ public final class TerminalEmulator {
 
     public TerminalEmulator(TerminalOutput session, int columns, int rows, Integer transcriptRows, TerminalSessionClient client) {
         mSession = session;
-        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows);
+        final int totalTranscriptRows = getTerminalTranscriptRows(transcriptRows);
+        final int uncompressedTranscriptRows = Math.min(totalTranscriptRows, TERMINAL_TRANSCRIPT_ROWS_UNCOMPRESSED_MAX);
+        mScreen = mMainBuffer = new TerminalBuffer(columns, uncompressedTranscriptRows, rows);
+        mMainBuffer.setCompressedTranscriptRows(totalTranscriptRows - uncompressedTranscriptRows);
         mAltBuffer = new TerminalBuffer(columns, rows, rows);
         mClient = client;
         mRows = rows;
@@ -329,6 +387,11 @@ public final class TerminalEmulator {
         return mScreen;
     }
 
+    /** Keep transcript rows not fitting in memory in a file, see {@link TerminalBuffer#spillTranscriptTo(File)}. */
+    public void spillTranscriptTo(File file) throws IOException {
+        mMainBuffer.spillTranscriptTo(file);
+    }
+
     public boolean isAlternateBufferActive() {
         return mScreen == mAltBuffer;
     }
@@ -399,6 +462,21 @@ public final class TerminalEmulator {
         mCursorRow = cursor[1];
     }
 
+    /** Drop all but the newest rows of the main screen transcript, see {@link TerminalBuffer#trimTranscript(int)}. */
+    public void trimTranscript(int maxRows) {
+        mMainBuffer.trimTranscript(maxRows);
+    }
+
+    /** If history rows are left to reflow after resizing, see {@link TerminalBuffer#reflowHistory(int)}. */
+    public boolean isReflowPending() {
+        return mMainBuffer.isReflowPending();
+    }
+
+    /** Reflow some of the history left after resizing, see {@link TerminalBuffer#reflowHistory(int)}. */
+    public boolean reflowHistory(int maxRows) {
+        return mMainBuffer.reflowHistory(maxRows);
+    }
+
     public int getCursorRow() {
         return mCursorRow;
     }
@@ -476,8 +554,168 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
+        append(buffer, 0, length);
+    }
+
+    /** Process the specified portion of the buffer, see {@link #append(byte[], int)}. */
+    public void append(byte[] buffer, int offset, int length) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final byte b = buffer[i];
+            if (b < 0 && mUtf8ToFollow == 0) {
+                final int runEnd = processUtf8Run(buffer, i, end);
+                if (runEnd > i) {
+                    i = runEnd - 1;
+                    continue;
+                }
+            }
+            // Bytes in UTF-8 sequences have no transitions, and are decoded by processByte():
+            final int transition = (b < 0 || mUtf8ToFollow != 0) ? 0 : (PARSER_TRANSITIONS[mEscapeState * 128 + b] & 0xFF);
+            switch (transition >>> 5) {
+                case ACTION_PRINT:
+                    if (canEmitAsciiRun()) {
+                        // Fast path for plain text: find the longest run of printable 7-bit characters and emit it in one go.
+                        int runEnd = i + 1;
+                        while (runEnd < end && isPrintableAscii(buffer[runEnd])) runEnd++;
+                        emitAsciiRun(buffer, i, runEnd);
+                        i = runEnd - 1;
+                    } else {
+                        processByte(b);
+                    }
+                    break;
+                case ACTION_LINEFEEDS: {
+                    // Scroll once for a run of line feeds, such as blank lines where each has a carriage return as well:
+                    int runEnd = i + 1;
+                    int lineFeeds = 1;
+                    boolean carriageReturn = false;
+                    for (; runEnd < end && (buffer[runEnd] == '\n' || buffer[runEnd] == '\r'); runEnd++) {
+                        if (buffer[runEnd] == '\n') lineFeeds++;
+                        else carriageReturn = true;
+                    }
+                    doLinefeeds(lineFeeds);
+                    if (carriageReturn) setCursorCol(mLeftMargin);
+                    i = runEnd - 1;
+                    break;
+                }
+                case ACTION_START_ESCAPE:
+                    startEscapeSequence();
+                    break;
+                case ACTION_ENTER_STATE:
+                    mEscapeState = transition & 0b11111;
+                    break;
+                case ACTION_PARAM_DIGIT:
+                    addArgDigit(b);
+                    break;
+                case ACTION_PARAM_SEPARATOR:
+                    if (mArgIndex < mArgs.length) mArgIndex++;
+                    break;
+                case ACTION_SGR:
+                    selectGraphicRendition();
+                    finishSequence();
+                    break;
+                default:
+                    processByte(b);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Decode and process a run of complete and well-formed multi-byte UTF-8 sequences straight from the input, as
+     * {@link #processByte(byte)} would one byte at a time. Sequences split at the end of the input and malformed ones
+     * are left to {@link #processByte(byte)}.
+     *
+     * @return The index after the last sequence decoded, which is the start if none was.
+     */
+    private int processUtf8Run(byte[] buffer, int start, int end) {
+        int i = start;
+        while (i < end) {
+            final int firstByte = buffer[i];
+            final int sequenceLength;
+            int codePoint;
+            if ((firstByte & 0b11100000) == 0b11000000) {
+                sequenceLength = 2;
+                codePoint = firstByte & 0b00011111;
+            } else if ((firstByte & 0b11110000) == 0b11100000) {
+                sequenceLength = 3;
+                codePoint = firstByte & 0b00001111;
+            } else if ((firstByte & 0b11111000) == 0b11110000) {
+                sequenceLength = 4;
+                codePoint = firstByte & 0b00000111;
+            } else {
+                // ASCII or not a valid UTF-8 sequence start.
+                break;
+            }
+            if (i + sequenceLength > end) break;
+            for (int j = i + 1; j < i + sequenceLength; j++) {
+                final int continuationByte = buffer[j];
+                if ((continuationByte & 0b11000000) != 0b10000000) return i;
+                codePoint = (codePoint << 6) | (continuationByte & 0b00111111);
+            }
+            i += sequenceLength;
+
+            if (((codePoint <= 0b1111111) && sequenceLength > 1) || (codePoint < 0b11111111111 && sequenceLength > 2)
+                || (codePoint < 0b1111111111111111 && sequenceLength > 3)) {
+                // Overlong encoding.
+                codePoint = UNICODE_REPLACEMENT_CHAR;
+            } else if (codePoint >= 0x80 && codePoint <= 0x9F) {
+                // C1 control character, ignored as in processByte().
+                continue;
+            } else if (isUnassignedOrSurrogate(codePoint)) {
+                codePoint = UNICODE_REPLACEMENT_CHAR;
+            }
+            // Outside of escape sequences processCodePoint() just emits the non-control code point:
+            if (mEscapeState == ESC_NONE) {
+                emitCodePoint(codePoint);
+            } else {
+                processCodePoint(codePoint);
+            }
+        }
+        return i;
+    }
+
+    /** The bits of 4096 code points, see {@link #UNASSIGNED_OR_SURROGATE_PAGES}. */
+    private static final class CodePointPage {
+        final long[] mBits = new long[64];
+
+        CodePointPage(int firstCodePoint) {
+            for (int i = 0; i < 4096; i++) {
+                switch (Character.getType(firstCodePoint + i)) {
+                    case Character.UNASSIGNED:
+                    case Character.SURROGATE:
+                        mBits[i >> 6] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    /**
+     * The unassigned and surrogate code points, which are replaced by {@link #UNICODE_REPLACEMENT_CHAR} when decoded, in
+     * pages computed from {@link Character#getType(int)} the first time a code point in them is decoded. Looking up
+     * the type of every decoded code point is comparatively slow, and computing all pages up front would be slower
+     * still. The pages may be computed by several threads, but their bits are safely published through a final field.
+     */
+    private static final CodePointPage[] UNASSIGNED_OR_SURROGATE_PAGES = new CodePointPage[(Character.MAX_CODE_POINT + 1) >> 12];
+
+    private static boolean isUnassignedOrSurrogate(int codePoint) {
+        if (codePoint > Character.MAX_CODE_POINT) return true;
+        CodePointPage page = UNASSIGNED_OR_SURROGATE_PAGES[codePoint >> 12];
+        if (page == null) UNASSIGNED_OR_SURROGATE_PAGES[codePoint >> 12] = page = new CodePointPage(codePoint & ~4095);
+        return (page.mBits[(codePoint >> 6) & 63] & (1L << codePoint)) != 0;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
+    }
+
+    /**
+     * If printable ASCII may bypass {@link #processByte(byte)} and {@link #emitCodePoint(int)}: not inside an escape
+     * sequence or UTF-8 sequence, no line drawing character set selected and the cursor is within the margins.
+     */
+    private boolean canEmitAsciiRun() {
+        return mEscapeState == ESC_NONE && mUtf8ToFollow == 0 && !mInsertMode
+            && !(mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1)
+            && mCursorCol >= mLeftMargin && mCursorCol < mRightMargin;
     }
 
     private void processByte(byte byteToProcess) {
@@ -505,11 +743,7 @@ public final class TerminalEmulator {
                         // "It is not possible to use a C1 control obtained from decoding the
                         // UTF-8 text" - http://invisible-island.net/xterm/ctlseqs/ctlseqs.html
                     } else {
-                        switch (Character.getType(codePoint)) {
-                            case Character.UNASSIGNED:
-                            case Character.SURROGATE:
-                                codePoint = UNICODE_REPLACEMENT_CHAR;
-                        }
+                        if (isUnassignedOrSurrogate(codePoint)) codePoint = UNICODE_REPLACEMENT_CHAR;
                         processCodePoint(codePoint);
                     }
                 }
@@ -1121,8 +1355,7 @@ public final class TerminalEmulator {
             case 9: // X10 mouse reporting - outdated. Do not implement.
             case 12: // Control cursor blinking - ignore.
             case 25: // Hide/show cursor - no action needed, renderer will check with shouldCursorBeVisible().
-                if (mClient != null)
-                    mClient.onTerminalCursorStateChange(setting);
+                mSession.onTerminalCursorStateChange(setting);
                 break;
             case 40: // Allow 80 => 132 Mode, ignore.
             case 45: // TODO: Reverse wrap-around. Implement???
@@ -1274,19 +1507,25 @@ public final class TerminalEmulator {
     }
 
     private void doLinefeed() {
+        doLinefeeds(1);
+    }
+
+    /** Do a number of line feeds, scrolling once for all of them. */
+    private void doLinefeeds(int lineFeeds) {
         boolean belowScrollingRegion = mCursorRow >= mBottomMargin;
-        int newCursorRow = mCursorRow + 1;
         if (belowScrollingRegion) {
             // Move down (but not scroll) as long as we are above the last row.
             if (mCursorRow != mRows - 1) {
-                setCursorRow(newCursorRow);
+                setCursorRow(Math.min(mCursorRow + lineFeeds, mRows - 1));
             }
         } else {
-            if (newCursorRow == mBottomMargin) {
-                scrollDownOneLine();
-                newCursorRow = mBottomMargin - 1;
+            int linesToScroll = mCursorRow + lineFeeds - (mBottomMargin - 1);
+            if (linesToScroll > 0) {
+                scrollDownLines(linesToScroll);
+                setCursorRow(mBottomMargin - 1);
+            } else {
+                setCursorRow(mCursorRow + lineFeeds);
             }
-            setCursorRow(newCursorRow);
         }
     }
 
@@ -1558,9 +1797,7 @@ public final class TerminalEmulator {
             }
             break;
             case 'S': { // "${CSI}${N}S" - scroll up ${N} lines (default = 1) (SU).
-                final int linesToScroll = getArg0(1);
-                for (int i = 0; i < linesToScroll; i++)
-                    scrollDownOneLine();
+                scrollDownLines(getArg0(1));
                 break;
             }
             case 'T':
@@ -2076,31 +2313,29 @@ public final class TerminalEmulator {
     }
 
     private void scrollDownOneLine() {
-        mScrollCounter++;
+        scrollDownLines(1);
+    }
+
+    /** Scroll the scrolling region a number of lines, moving the rows in the screen buffer once for all of them. */
+    private void scrollDownLines(int lines) {
+        if (lines <= 0) return;
+        mScrollCounter += lines;
         if (mLeftMargin != 0 || mRightMargin != mColumns) {
-            // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
-            mScreen.blockCopy(mLeftMargin, mTopMargin + 1, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - 1, mLeftMargin, mTopMargin);
-            // .. and blank bottom row between margins:
-            mScreen.blockSet(mLeftMargin, mBottomMargin - 1, mRightMargin - mLeftMargin, 1, ' ', mEffect);
+            for (int i = 0; i < lines; i++) {
+                // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
+                mScreen.blockCopy(mLeftMargin, mTopMargin + 1, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - 1, mLeftMargin, mTopMargin);
+                // .. and blank bottom row between margins:
+                mScreen.blockSet(mLeftMargin, mBottomMargin - 1, mRightMargin - mLeftMargin, 1, ' ', mEffect);
+            }
         } else {
-            mScreen.scrollDownOneLine(mTopMargin, mBottomMargin, getStyle());
+            mScreen.scrollDownLines(mTopMargin, mBottomMargin, lines, getStyle());
         }
     }
 
     /** Process the next ASCII character of a parameter. */
     private void parseArg(int b) {
         if (b >= '0' && b <= '9') {
-            if (mArgIndex < mArgs.length) {
-                int oldValue = mArgs[mArgIndex];
-                int thisDigit = b - '0';
-                int value;
-                if (oldValue >= 0) {
-                    value = oldValue * 10 + thisDigit;
-                } else {
-                    value = thisDigit;
-                }
-                mArgs[mArgIndex] = value;
-            }
+            addArgDigit(b);
             continueSequence(mEscapeState);
         } else if (b == ';') {
             if (mArgIndex < mArgs.length) {
@@ -2112,6 +2347,15 @@ public final class TerminalEmulator {
         }
     }
 
+    /** Add a digit to the current argument, ignoring it if there are too many arguments. */
+    private void addArgDigit(int b) {
+        if (mArgIndex < mArgs.length) {
+            final int oldValue = mArgs[mArgIndex];
+            // Arguments not given yet are -1 (as are those overflowing), which the sign mask turns into 0 to start from:
+            mArgs[mArgIndex] = (oldValue & ~(oldValue >> 31)) * 10 + (b - '0');
+        }
+    }
+
     private int getArg0(int defaultValue) {
         return getArg(0, defaultValue, true);
     }
@@ -2334,6 +2578,47 @@ public final class TerminalEmulator {
         mCursorCol = Math.min(mCursorCol + displayWidth, mRightMargin - 1);
     }
 
+    /**
+     * Send a run of printable ASCII characters to the screen. Equivalent to calling {@link #emitCodePoint(int)} for each
+     * byte, but only does the wrapping and bounds calculations once per row segment.
+     *
+     * @param buffer the buffer containing the characters, all of which are in the range [32, 126]
+     * @param start  the index of the first character to emit
+     * @param end    the index after the last character to emit
+     */
+    private void emitAsciiRun(byte[] buffer, int start, int end) {
+        mLastEmittedCodePoint = buffer[end - 1];
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        final long style = getStyle();
+
+        while (start < end) {
+            if (autoWrap && mAboutToAutoWrap && mCursorCol == mRightMargin - 1) {
+                mScreen.setLineWrap(mCursorRow);
+                mCursorCol = mLeftMargin;
+                if (mCursorRow + 1 < mBottomMargin) {
+                    mCursorRow++;
+                } else {
+                    scrollDownOneLine();
+                }
+            }
+
+            final int columnsLeft = mRightMargin - mCursorCol;
+            int count = Math.min(columnsLeft, end - start);
+            if (!autoWrap && end - start > columnsLeft) {
+                // Without autowrap everything past the margin overwrites the last column, so only the last one shows.
+                mScreen.setAsciiRun(mCursorCol, mCursorRow, buffer, start, count - 1, style);
+                mScreen.setChar(mRightMargin - 1, mCursorRow, buffer[end - 1], style);
+                start = end;
+            } else {
+                mScreen.setAsciiRun(mCursorCol, mCursorRow, buffer, start, count, style);
+                start += count;
+            }
+
+            if (autoWrap) mAboutToAutoWrap = (count == columnsLeft);
+            mCursorCol = Math.min(mCursorCol + count, mRightMargin - 1);
+        }
+    }
+
     private void setCursorRow(int row) {
         mCursorRow = row;
         mAboutToAutoWrap = false;
@@ -2364,6 +2649,17 @@ public final class TerminalEmulator {
         mScrollCounter = 0;
     }
 
+    /**
+     * Forget any escape or UTF-8 sequence being received, for when the output following it has been dropped so that
+     * the output to come does not continue it.
+     */
+    void resynchronize() {
+        mArgIndex = 0;
+        mContinueSequence = false;
+        mEscapeState = ESC_NONE;
+        mUtf8Index = mUtf8ToFollow = 0;
+    }
+
     /** Reset terminal state so user can interact with it regardless of present state. */
     public void reset() {
         setCursorStyle();
@@ -6,6 +6,9 @@ import java.util.Arrays;
  * A row in a terminal, composed of a fixed number of cells.
  * <p>
  * The text in the row is stored in a char[] array, {@link #mText}, for quick access during rendering.
+ * <p>
+ * Rows which have left the screen are {@link #freeze() frozen} into a compact form, which is transparently undone if
+ * the row is written to again.
  */
 public final class TerminalRow {
 
@@ -13,32 +16,91 @@ public final class TerminalRow {
 
     /** The number of columns in this terminal row. */
     private final int mColumns;
-    /** The text filling this terminal row. */
+    /**
+     * The text filling this terminal row, or null if the row has been frozen into {@link #mAsciiText}.
+     * Use {@link #getText()} to read the text of rows which may be frozen.
+     */
     public char[] mText;
+    /** The text of a frozen row only containing ASCII characters, with one byte per column. Null unless frozen. */
+    private byte[] mAsciiText;
     /** The number of java char:s used in {@link #mText}. */
     private short mSpaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean mLineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] mStyle;
+    /** The style bits of each cell in the row, see {@link TextStyle}, or null if compacted into {@link #mStyleRuns}. */
+    long[] mStyle;
+    /**
+     * A compact alternative to {@link #mStyle} used for rows in the transcript, which rarely have more than a few
+     * different styles: pairs of the first column of a run of cells having the same style, followed by that style.
+     * Only non-null when {@link #mStyle} is null, and expanded back into {@link #mStyle} when the row is modified.
+     */
+    private long[] mStyleRuns;
     /** If this row might contain chars with width != 1, used for deactivating fast path */
     boolean mHasNonOneWidthOrSurrogateChars;
 
+    /**
+     * The index in {@link #mText} where the character displayed in each column starts, so that lookups of columns in rows
+     * with {@link #mHasNonOneWidthOrSurrogateChars} does not need to walk the row from the start. Lazily allocated and
+     * extended when modifying the row, see {@link #indexStartOfColumn(int)}, and only valid for the first
+     * {@link #mIndexedColumns} columns. Reading the row only uses it, so that other threads may read the row meanwhile,
+     * see {@link #findStartOfColumn(int)}.
+     */
+    private short[] mColumnCharIndex;
+    /** The number of columns at the start of the row for which {@link #mColumnCharIndex} is valid. */
+    private int mIndexedColumns;
+    /** The index in {@link #mText} where to continue walking the row when extending {@link #mColumnCharIndex}. */
+    private int mIndexedCharEnd;
+
+    /** Where the arrays of this row are taken from and given back to, or null to just allocate them. */
+    private final TerminalRowPool mPool;
+
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
+        this(columns, style, null);
+    }
+
+    TerminalRow(int columns, long style, TerminalRowPool pool) {
         mColumns = columns;
-        mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        mStyle = new long[columns];
+        mPool = pool;
         clear(style);
     }
 
+    /** The length of {@link #mText} for a row of the specified number of columns, unless grown for combining chars. */
+    static int getTextCapacity(int columns) {
+        return (int) (SPARE_CAPACITY_FACTOR * columns);
+    }
+
+    private char[] obtainText() {
+        return (mPool == null) ? new char[getTextCapacity(mColumns)] : mPool.obtainText(mColumns);
+    }
+
+    private long[] obtainStyle() {
+        return (mPool == null) ? new long[mColumns] : mPool.obtainStyle(mColumns);
+    }
+
+    /**
+     * Give the arrays of this row back to its pool, if any, leaving the row without text until {@link #clear(long)}.
+     * Only done once nothing else references the row.
+     */
+    void recycle() {
+        if (mPool != null) {
+            if (mText != null) mPool.releaseText(mText);
+            if (mAsciiText != null) mPool.releaseAsciiText(mAsciiText);
+            if (mStyle != null) mPool.releaseStyle(mStyle);
+        }
+        mText = null;
+        mAsciiText = null;
+        mStyle = null;
+        mStyleRuns = null;
+    }
+
     /** NOTE: The sourceX2 is exclusive. */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
         mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
-        final int x1 = line.findStartOfColumn(sourceX1);
-        final int x2 = line.findStartOfColumn(sourceX2);
+        final int x1 = line.indexStartOfColumn(sourceX1);
+        final int x2 = line.indexStartOfColumn(sourceX2);
         boolean startingFromSecondHalfOfWideChar = (sourceX1 > 0 && line.wideDisplayCharacterStartingAt(sourceX1 - 1));
-        final char[] sourceChars = (this == line) ? Arrays.copyOf(line.mText, line.mText.length) : line.mText;
+        final char[] sourceChars = (this == line || line.mText == null) ? Arrays.copyOf(line.getText(), line.mSpaceUsed) : line.mText;
         int latestNonCombiningWidth = 0;
         for (int i = x1; i < x2; i++) {
             char sourceChar = sourceChars[i];
@@ -58,73 +120,234 @@ public final class TerminalRow {
         }
     }
 
+    int getColumns() {
+        return mColumns;
+    }
+
     public int getSpaceUsed() {
         return mSpaceUsed;
     }
 
-    /** Note that the column may end of second half of wide character. */
+    /**
+     * The text of this row, valid up to {@link #getSpaceUsed()}. This is {@link #mText} unless the row is frozen as ASCII,
+     * in which case the text is decoded into a new array.
+     */
+    public char[] getText() {
+        return (mText != null) ? mText : decodeAsciiText(null);
+    }
+
+    /**
+     * Decode the text of a row frozen as ASCII (where {@link #mText} is null) into a buffer, which is replaced by a new
+     * array if null or too small.
+     */
+    public char[] decodeAsciiText(char[] buffer) {
+        final byte[] asciiText = mAsciiText;
+        if (buffer == null || buffer.length < asciiText.length) buffer = new char[asciiText.length];
+        for (int i = 0; i < asciiText.length; i++)
+            buffer[i] = (char) asciiText[i];
+        return buffer;
+    }
+
+    /** If this row has been frozen and stores its text as ASCII bytes. */
+    boolean isFrozenAscii() {
+        return mAsciiText != null;
+    }
+
+    /**
+     * Store this row compactly, since it has left the screen and is unlikely to be modified again. The text of rows only
+     * containing ASCII characters is stored as bytes, and that of other rows is trimmed to the space used. The styles are
+     * compacted as well, see {@link #compactStyle()}.
+     */
+    void freeze() {
+        final long[] style = mStyle;
+        compactStyle();
+        if (mStyle == null && style != null && mPool != null) mPool.releaseStyle(style);
+        if (mText == null) return;
+
+        final char[] text = mText;
+        final int spaceUsed = mSpaceUsed;
+        boolean ascii = !mHasNonOneWidthOrSurrogateChars;
+        for (int i = 0; ascii && i < spaceUsed; i++)
+            if (text[i] >= 128) ascii = false;
+
+        if (ascii) {
+            // Without wide or combining chars there is one char per column:
+            final byte[] asciiText = (mPool == null) ? new byte[spaceUsed] : mPool.obtainAsciiText(spaceUsed);
+            for (int i = 0; i < spaceUsed; i++)
+                asciiText[i] = (byte) text[i];
+            mAsciiText = asciiText;
+            mText = null;
+        } else if (text.length > spaceUsed) {
+            mText = Arrays.copyOf(text, spaceUsed);
+        }
+        if (mText != text && mPool != null) mPool.releaseText(text);
+        mColumnCharIndex = null;
+        mIndexedColumns = mIndexedCharEnd = 0;
+    }
+
+    /** An estimate of the bytes used by the arrays of this row, assuming 16 byte array headers and 8 byte alignment. */
+    int getArraysMemoryUsage() {
+        int bytes = 0;
+        if (mText != null) bytes += arrayMemoryUsage(2 * mText.length);
+        if (mAsciiText != null) bytes += arrayMemoryUsage(mAsciiText.length);
+        if (mStyle != null) bytes += arrayMemoryUsage(8 * mStyle.length);
+        if (mStyleRuns != null) bytes += arrayMemoryUsage(8 * mStyleRuns.length);
+        if (mColumnCharIndex != null) bytes += arrayMemoryUsage(2 * mColumnCharIndex.length);
+        return bytes;
+    }
+
+    private static int arrayMemoryUsage(int contentBytes) {
+        return (16 + contentBytes + 7) & ~7;
+    }
+
+    /** Convert the text of a row frozen as ASCII back into {@link #mText} before modifying it. */
+    private char[] thawText() {
+        final char[] text = obtainText();
+        decodeAsciiText(text);
+        if (mPool != null) mPool.releaseAsciiText(mAsciiText);
+        mAsciiText = null;
+        return mText = text;
+    }
+
+    /**
+     * Note that the column may end of second half of wide character. Does not extend the column index, walking the row
+     * from where it ends instead, so that it may be called while the row is read by another thread. The index is read
+     * once and the walk bounded by the text, so that this does not fail if another thread modifies or freezes the row
+     * meanwhile, as when rendering without the emulator lock, though the result may then be stale.
+     */
     public int findStartOfColumn(int column) {
         if (column == mColumns) return getSpaceUsed();
-
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
+        // freeze() drops the index before its count, so the count is only used with the array read before it:
+        final short[] columnCharIndex = mColumnCharIndex;
+        final int indexedColumns = (columnCharIndex == null) ? 0 : Math.min(mIndexedColumns, columnCharIndex.length);
+        if (column < indexedColumns) return columnCharIndex[column];
+        final char[] text = mText;
+        if (text == null) return column;
+        // Continue from the start of the last indexed character, rather than from mIndexedCharEnd which is set apart:
         int currentColumn = 0;
         int currentCharIndex = 0;
-        while (true) { // 0<2 1 < 2
-            int newCharIndex = currentCharIndex;
-            char c = mText[newCharIndex++]; // cci=1, cci=2
-            boolean isHigh = Character.isHighSurrogate(c);
-            int codePoint = isHigh ? Character.toCodePoint(c, mText[newCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint); // 1, 2
-            if (wcwidth > 0) {
-                currentColumn += wcwidth;
-                if (currentColumn == column) {
-                    while (newCharIndex < mSpaceUsed) {
-                        // Skip combining chars.
-                        if (Character.isHighSurrogate(mText[newCharIndex])) {
-                            if (WcWidth.width(Character.toCodePoint(mText[newCharIndex], mText[newCharIndex + 1])) <= 0) {
-                                newCharIndex += 2;
-                            } else {
-                                break;
-                            }
-                        } else if (WcWidth.width(mText[newCharIndex]) <= 0) {
-                            newCharIndex++;
-                        } else {
-                            break;
-                        }
-                    }
-                    return newCharIndex;
-                } else if (currentColumn > column) {
-                    // Wide column going past end.
-                    return currentCharIndex;
-                }
+        if (indexedColumns > 0) {
+            currentColumn = indexedColumns - 1;
+            while (currentColumn > 0 && columnCharIndex[currentColumn - 1] == columnCharIndex[currentColumn]) currentColumn--;
+            currentCharIndex = columnCharIndex[currentColumn];
+        }
+        while (currentCharIndex < text.length) {
+            int startCharIndex = currentCharIndex;
+            char c = text[currentCharIndex++];
+            int codePoint = (Character.isHighSurrogate(c) && currentCharIndex < text.length) ? Character.toCodePoint(c, text[currentCharIndex++]) : c;
+            // Combining chars are skipped and so end up in the column of the preceding character.
+            currentColumn += WcWidth.width(codePoint);
+            if (currentColumn > column) return startCharIndex;
+        }
+        return text.length;
+    }
+
+    /** Do what {@link #findStartOfColumn(int)} does, extending the column index, when about to modify the row. */
+    private int indexStartOfColumn(int column) {
+        if (column == mColumns) return getSpaceUsed();
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
+        if (column >= mIndexedColumns) indexColumnsUpTo(column);
+        return mColumnCharIndex[column];
+    }
+
+    /**
+     * The column where the character at the specified index in the text is displayed, the inverse of
+     * {@link #findStartOfColumn(int)}, or the number of columns if at the end of the text. Combining characters are in
+     * the column of the character they combine with. Like {@link #findStartOfColumn(int)} this does not update the
+     * column index, so that it may be called while the row is read by another thread.
+     */
+    public int findColumnOfCharIndex(int charIndex) {
+        if (charIndex >= mSpaceUsed) return mColumns;
+        if (mText == null || !mHasNonOneWidthOrSurrogateChars) return charIndex;
+        final char[] text = mText;
+        int column = 0;
+        int lastColumn = 0;
+        for (int i = 0; i <= charIndex; ) {
+            char c = text[i++];
+            int codePoint = (Character.isHighSurrogate(c) && i < mSpaceUsed) ? Character.toCodePoint(c, text[i++]) : c;
+            int width = WcWidth.width(codePoint);
+            if (width > 0) {
+                if (i > charIndex) return column;
+                lastColumn = column;
+                column += width;
+            } else if (i > charIndex) {
+                return lastColumn;
             }
-            currentCharIndex = newCharIndex;
         }
+        return column;
+    }
+
+    /** If the character displayed in a column is a space, without decoding the text of rows frozen as ASCII. */
+    public boolean isSpaceAt(int column) {
+        final int charIndex = findStartOfColumn(column);
+        if (charIndex >= mSpaceUsed) return true;
+        return ((mText != null) ? mText[charIndex] : (char) mAsciiText[charIndex]) == ' ';
     }
 
     private boolean wideDisplayCharacterStartingAt(int column) {
-        for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
-            char c = mText[currentCharIndex++];
-            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
-            int wcwidth = WcWidth.width(codePoint);
-            if (wcwidth > 0) {
-                if (currentColumn == column && wcwidth == 2) return true;
-                currentColumn += wcwidth;
-                if (currentColumn > column) return false;
-            }
+        if (!mHasNonOneWidthOrSurrogateChars || column + 1 >= mColumns) return false;
+        if (column + 1 >= mIndexedColumns) indexColumnsUpTo(column + 1);
+        // Both halves of a wide character start at the same char index, which the next character cannot:
+        return mColumnCharIndex[column] == mColumnCharIndex[column + 1];
+    }
+
+    /** Extend {@link #mColumnCharIndex} by walking the row from where it was left off until covering the column. */
+    private void indexColumnsUpTo(int column) {
+        if (mColumnCharIndex == null) mColumnCharIndex = new short[mColumns];
+        final char[] text = mText;
+        final short[] columnCharIndex = mColumnCharIndex;
+        int currentColumn = mIndexedColumns;
+        int currentCharIndex = mIndexedCharEnd;
+        while (currentColumn <= column) {
+            int startCharIndex = currentCharIndex;
+            char c = text[currentCharIndex++];
+            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[currentCharIndex++]) : c;
+            // Combining chars are skipped and so end up in the column of the preceding character.
+            for (int wcwidth = WcWidth.width(codePoint); wcwidth > 0 && currentColumn < mColumns; wcwidth--)
+                columnCharIndex[currentColumn++] = (short) startCharIndex;
         }
-        return false;
+        mIndexedColumns = currentColumn;
+        mIndexedCharEnd = currentCharIndex;
+    }
+
+    /**
+     * Called before modifying the text at a column. The characters before the character displayed in the column are
+     * unaffected, so the index of those stays valid.
+     */
+    private void invalidateColumnIndexFrom(int column) {
+        if (column >= mIndexedColumns) return;
+        // Do not keep only the first half of a wide character:
+        if (column > 0 && mColumnCharIndex[column - 1] == mColumnCharIndex[column]) column--;
+        mIndexedColumns = column;
+        mIndexedCharEnd = (column == 0) ? 0 : mColumnCharIndex[column];
     }
 
     public void clear(long style) {
+        if (mText == null || mText.length < mColumns) {
+            if (mPool != null) {
+                if (mText != null) mPool.releaseText(mText);
+                if (mAsciiText != null) mPool.releaseAsciiText(mAsciiText);
+            }
+            mText = obtainText();
+            mAsciiText = null;
+        }
         Arrays.fill(mText, ' ');
+        if (mStyle == null) {
+            mStyle = obtainStyle();
+            mStyleRuns = null;
+        }
         Arrays.fill(mStyle, style);
         mSpaceUsed = (short) mColumns;
         mHasNonOneWidthOrSurrogateChars = false;
+        mIndexedColumns = mIndexedCharEnd = 0;
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        mStyle[columnToSet] = style;
+        final long[] styles = (mStyle == null) ? expandStyle() : mStyle;
+        styles[columnToSet] = style;
+        if (mText == null) thawText();
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
 
@@ -154,17 +377,18 @@ public final class TerminalRow {
         }
 
         char[] text = mText;
-        final int oldStartOfColumnIndex = findStartOfColumn(columnToSet);
+        final int oldStartOfColumnIndex = indexStartOfColumn(columnToSet);
         final int oldCodePointDisplayWidth = WcWidth.width(text, oldStartOfColumnIndex);
 
         // Get the number of elements in the mText array this column uses now
         int oldCharactersUsedForColumn;
         if (columnToSet + oldCodePointDisplayWidth < mColumns) {
-            oldCharactersUsedForColumn = findStartOfColumn(columnToSet + oldCodePointDisplayWidth) - oldStartOfColumnIndex;
+            oldCharactersUsedForColumn = indexStartOfColumn(columnToSet + oldCodePointDisplayWidth) - oldStartOfColumnIndex;
         } else {
             // Last character.
             oldCharactersUsedForColumn = mSpaceUsed - oldStartOfColumnIndex;
         }
+        invalidateColumnIndexFrom(columnToSet);
 
         // Find how many chars this column will need
         int newCharactersUsedForColumn = Character.charCount(codePoint);
@@ -188,6 +412,7 @@ public final class TerminalRow {
                 char[] newText = new char[text.length + mColumns];
                 System.arraycopy(text, 0, newText, 0, oldStartOfColumnIndex + oldCharactersUsedForColumn);
                 System.arraycopy(text, oldNextColumnIndex, newText, newNextColumnIndex, oldCharactersAfterColumn);
+                if (mPool != null) mPool.releaseText(text);
                 mText = text = newText;
             } else {
                 System.arraycopy(text, oldNextColumnIndex, text, newNextColumnIndex, oldCharactersAfterColumn);
@@ -208,6 +433,7 @@ public final class TerminalRow {
                 char[] newText = new char[text.length + mColumns];
                 System.arraycopy(text, 0, newText, 0, newNextColumnIndex);
                 System.arraycopy(text, newNextColumnIndex, newText, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
+                if (mPool != null) mPool.releaseText(text);
                 mText = text = newText;
             } else {
                 System.arraycopy(text, newNextColumnIndex, text, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
@@ -234,14 +460,97 @@ public final class TerminalRow {
         }
     }
 
+    /**
+     * Set a run of printable ASCII characters (all of display width 1) starting at the specified column. The caller
+     * needs to make sure that the run fits in the row.
+     */
+    public void setAsciiRun(int columnToSet, byte[] buffer, int start, int count, long style) {
+        if (mHasNonOneWidthOrSurrogateChars) {
+            // Wide or combining characters may need to be shifted around, so go through the slow path.
+            for (int i = 0; i < count; i++)
+                setChar(columnToSet + i, buffer[start + i], style);
+            return;
+        }
+        final char[] text = (mText == null) ? thawText() : mText;
+        for (int i = 0; i < count; i++)
+            text[columnToSet + i] = (char) buffer[start + i];
+        Arrays.fill(mStyle == null ? expandStyle() : mStyle, columnToSet, columnToSet + count, style);
+    }
+
     boolean isBlank() {
+        if (mText == null) {
+            for (byte b : mAsciiText)
+                if (b != ' ') return false;
+            return true;
+        }
         for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++)
             if (mText[charIndex] != ' ') return false;
         return true;
     }
 
     public final long getStyle(int column) {
-        return mStyle[column];
+        if (mStyle != null) return mStyle[column];
+
+        // Binary search for the last run starting at or before the column.
+        final long[] runs = mStyleRuns;
+        int low = 0;
+        int high = runs.length / 2 - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (runs[2 * mid] <= column) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return runs[2 * low + 1];
+    }
+
+    void setStyle(int column, long style) {
+        final long[] styles = (mStyle == null) ? expandStyle() : mStyle;
+        styles[column] = style;
+    }
+
+    /** If the styles of this row are stored in the compact {@link #mStyleRuns} form. */
+    boolean isStyleCompacted() {
+        return mStyle == null;
+    }
+
+    /**
+     * Store the styles as runs of equal styles in {@link #mStyleRuns}, if that takes less memory. Used for rows that have
+     * been scrolled into the transcript, and undone transparently if the row is modified again.
+     */
+    void compactStyle() {
+        final long[] styles = mStyle;
+        if (styles == null) return;
+        int runs = 1;
+        for (int i = 1; i < mColumns; i++)
+            if (styles[i] != styles[i - 1]) runs++;
+        if (2 * runs >= mColumns) return;
+
+        final long[] styleRuns = new long[2 * runs];
+        styleRuns[1] = styles[0];
+        for (int i = 1, run = 1; i < mColumns; i++) {
+            if (styles[i] != styles[i - 1]) {
+                styleRuns[2 * run] = i;
+                styleRuns[2 * run + 1] = styles[i];
+                run++;
+            }
+        }
+        mStyleRuns = styleRuns;
+        mStyle = null;
+    }
+
+    /** Convert the compacted {@link #mStyleRuns} back into {@link #mStyle} before modifying the row. */
+    private long[] expandStyle() {
+        final long[] styleRuns = mStyleRuns;
+        final long[] styles = obtainStyle();
+        for (int run = 0; run < styleRuns.length; run += 2) {
+            int end = (run + 2 < styleRuns.length) ? (int) styleRuns[run + 2] : mColumns;
+            Arrays.fill(styles, (int) styleRuns[run], end, styleRuns[run + 1]);
+        }
+        mStyleRuns = null;
+        return mStyle = styles;
     }
 
 }
@@ -0,0 +1,151 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Recycled {@link TerminalRow} objects and row arrays of a {@link TerminalBuffer}, so that continuous output does not
+ * keep allocating arrays as rows are frozen into the transcript, archived and reused as blank rows.
+ * <p>
+ * Only arrays of the full size for the current number of columns are kept: the text of rows on the screen, their
+ * styles and the text of rows frozen as ASCII. Up to a fixed number of each is kept, with the rest left to the garbage
+ * collector. Not thread safe, and only used when changing the buffer, which is done by the thread emulating the terminal
+ * holding the emulator lock. Reading the buffer, as done by the renderer, search and transcript export, does not use it.
+ */
+public final class TerminalRowPool {
+
+    /** The number of arrays of each kind, and of rows, kept for reuse. More than a screen's worth of rows. */
+    static final int MAX_POOLED = 128;
+
+    private int mColumns;
+    private final char[][] mTexts = new char[MAX_POOLED][];
+    private final long[][] mStyles = new long[MAX_POOLED][];
+    private final byte[][] mAsciiTexts = new byte[MAX_POOLED][];
+    private final TerminalRow[] mRows = new TerminalRow[MAX_POOLED];
+    private int mTextCount, mStyleCount, mAsciiTextCount, mRowCount;
+
+    private long mReusedCount, mAllocatedCount, mDiscardedCount;
+
+    TerminalRowPool(int columns) {
+        mColumns = columns;
+    }
+
+    /** Drop everything kept for the old number of columns, since arrays of other sizes are not accepted. */
+    void setColumns(int columns) {
+        if (columns == mColumns) return;
+        mColumns = columns;
+        mDiscardedCount += mTextCount + mStyleCount + mAsciiTextCount + mRowCount;
+        Arrays.fill(mTexts, 0, mTextCount, null);
+        Arrays.fill(mStyles, 0, mStyleCount, null);
+        Arrays.fill(mAsciiTexts, 0, mAsciiTextCount, null);
+        Arrays.fill(mRows, 0, mRowCount, null);
+        mTextCount = mStyleCount = mAsciiTextCount = mRowCount = 0;
+    }
+
+    /** A blank row of the current width, with the specified style. */
+    TerminalRow obtainRow(long style) {
+        if (mRowCount == 0) {
+            mAllocatedCount++;
+            return new TerminalRow(mColumns, style, this);
+        }
+        mReusedCount++;
+        final TerminalRow row = mRows[--mRowCount];
+        mRows[mRowCount] = null;
+        row.mLineWrap = false;
+        row.clear(style);
+        return row;
+    }
+
+    /** Take back a row which is no longer referenced, along with its arrays. */
+    void releaseRow(TerminalRow row) {
+        row.recycle();
+        if (row.getColumns() != mColumns || mRowCount == MAX_POOLED) {
+            mDiscardedCount++;
+        } else {
+            mRows[mRowCount++] = row;
+        }
+    }
+
+    /** An array for the text of a row with the specified number of columns, see {@link TerminalRow#mText}. */
+    char[] obtainText(int columns) {
+        if (columns != mColumns || mTextCount == 0) {
+            mAllocatedCount++;
+            return new char[TerminalRow.getTextCapacity(columns)];
+        }
+        mReusedCount++;
+        final char[] text = mTexts[--mTextCount];
+        mTexts[mTextCount] = null;
+        return text;
+    }
+
+    void releaseText(char[] text) {
+        if (text.length != TerminalRow.getTextCapacity(mColumns) || mTextCount == MAX_POOLED) {
+            mDiscardedCount++;
+        } else {
+            mTexts[mTextCount++] = text;
+        }
+    }
+
+    /** An array for the styles of a row with the specified number of columns, with one style per column. */
+    long[] obtainStyle(int columns) {
+        if (columns != mColumns || mStyleCount == 0) {
+            mAllocatedCount++;
+            return new long[columns];
+        }
+        mReusedCount++;
+        final long[] style = mStyles[--mStyleCount];
+        mStyles[mStyleCount] = null;
+        return style;
+    }
+
+    void releaseStyle(long[] style) {
+        if (style.length != mColumns || mStyleCount == MAX_POOLED) {
+            mDiscardedCount++;
+        } else {
+            mStyles[mStyleCount++] = style;
+        }
+    }
+
+    /** An array for the text of a row with the specified number of columns frozen as ASCII, with one byte per column. */
+    byte[] obtainAsciiText(int columns) {
+        if (columns != mColumns || mAsciiTextCount == 0) {
+            mAllocatedCount++;
+            return new byte[columns];
+        }
+        mReusedCount++;
+        final byte[] asciiText = mAsciiTexts[--mAsciiTextCount];
+        mAsciiTexts[mAsciiTextCount] = null;
+        return asciiText;
+    }
+
+    void releaseAsciiText(byte[] asciiText) {
+        if (asciiText.length != mColumns || mAsciiTextCount == MAX_POOLED) {
+            mDiscardedCount++;
+        } else {
+            mAsciiTexts[mAsciiTextCount++] = asciiText;
+        }
+    }
+
+    /** The number of rows and arrays taken from the pool instead of being allocated. */
+    public long getReusedCount() {
+        return mReusedCount;
+    }
+
+    /** The number of rows and arrays allocated since the pool had none to reuse. */
+    public long getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * The number of rows and arrays given back but left to the garbage collector, since the pool was full or they were
+     * sized for another number of columns.
+     */
+    public long getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+    /** The number of rows and arrays currently kept for reuse. */
+    public int getPooledCount() {
+        return mTextCount + mStyleCount + mAsciiTextCount + mRowCount;
+    }
+
+}
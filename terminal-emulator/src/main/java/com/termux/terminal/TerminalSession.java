@@ -3,26 +3,25 @@ package com.termux.terminal;
 import android.annotation.SuppressLint;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
- * {@link #updateSize(int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * {@link #updateSize(int, int)} terminal emulation will begin and the subprocess I/O will be handled by the
+ * {@link PtyReactor} shared by all sessions, with its termination noticed by the {@link ProcessReaper}.
+ * Terminal emulation is performed on the main thread while the session is shown, and on the {@link BackgroundEmulator}
+ * thread while it is not, see {@link #setAttached(boolean)}. All callback methods will be performed on the main thread.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -32,24 +31,84 @@ public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
+    private static final int MSG_EMULATOR_UNLOCKED = 5;
+    private static final int MSG_REFLOW_HISTORY = 6;
+    private static final int MSG_SHRINK_OUTPUT_QUEUE = 7;
+
+    /** The number of history rows to reflow in one go after resizing, see {@link TerminalEmulator#reflowHistory(int)}. */
+    private static final int REFLOW_ROWS_PER_STEP = 1000;
+
+    /** The default number of bytes of process output to emulate in one go before letting other messages through. */
+    public static final int DEFAULT_MAX_INPUT_BYTES_PER_DRAIN = 64 * 1024;
+    /** The default time to spend emulating process output in one go before letting other messages through. */
+    public static final int DEFAULT_MAX_INPUT_MILLIS_PER_DRAIN = 8;
+
+    /** The initial capacity of {@link #mProcessToTerminalIOQueue} and that of {@link #mTerminalToProcessIOQueue}. */
+    private static final int IO_QUEUE_CAPACITY = 4096;
+
+    /** The range and default of the size the process output buffer may grow to, see {@link #setOutputLimits(int, int)}. */
+    public static final int OUTPUT_BUFFER_SIZE_MIN = IO_QUEUE_CAPACITY;
+    public static final int OUTPUT_BUFFER_SIZE_MAX = 1024 * 1024;
+    public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 64 * 1024;
+    /** How long the process output buffer needs to go without filling up before it is shrunk back. */
+    private static final int OUTPUT_QUEUE_IDLE_MILLIS = 5000;
+
+    /** Block the process while its output buffer is full, until the output has been emulated. */
+    public static final int OUTPUT_BACKPRESSURE_BLOCK = 0;
+    /**
+     * Drop the buffered output not emulated yet when the output buffer is full while the session is not attached to a
+     * view, keeping only the latest output, instead of blocking the process. Terminal modes set by the dropped output
+     * are lost with it. See {@link #dropQueuedOutput()}.
+     */
+    public static final int OUTPUT_BACKPRESSURE_DROP_FRAMES = 1;
+    public static final int DEFAULT_OUTPUT_BACKPRESSURE = OUTPUT_BACKPRESSURE_BLOCK;
+
+    /** The range and default of the number of screens of transcript rows kept, see {@link #setFastForwardScreens(int)}. */
+    public static final int FAST_FORWARD_SCREENS_MIN = 0;
+    public static final int FAST_FORWARD_SCREENS_MAX = 1000;
+    public static final int DEFAULT_FAST_FORWARD_SCREENS = 0;
 
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
-     * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * A queue written to from the {@link PtyReactor} thread when the process outputs, and read to process by terminal
+     * emulator holding {@link #mEmulatorLock}. Lock-free since there is always one writer and one reader at a time and
+     * it sees all of the process output.
+     * Grown under sustained output and shrunk back when idle, see {@link PtyReactor.Channel#replaceOutputQueue(int)}.
+     */
+    volatile SpscByteQueue mProcessToTerminalIOQueue = new SpscByteQueue(IO_QUEUE_CAPACITY);
+    /**
+     * If a {@link #MSG_NEW_INPUT} message has been posted, or the session has been scheduled on the
+     * {@link BackgroundEmulator}, which has not started draining {@link #mProcessToTerminalIOQueue} yet, in which case
+     * there is no need to post another one.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final AtomicBoolean mNewInputPosted = new AtomicBoolean();
     /**
-     * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * A queue written to from the main thread due to user interaction, and read by the {@link PtyReactor} thread which
+     * forwards by writing to the {@link #mTerminalFileDescriptor}.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(IO_QUEUE_CAPACITY);
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
+    /**
+     * Held by the main thread or the {@link BackgroundEmulator} thread while changing the emulator, and by other threads
+     * while reading it, see {@link #lockEmulator()}. The main thread only tries to take it, and postpones emulation,
+     * resizing and resetting until the emulator is unlocked instead of blocking, see {@link #tryLockEmulator()}.
+     */
+    private final EmulatorLock mEmulatorLock = new EmulatorLock();
+    /**
+     * Held by the {@link BackgroundEmulator} thread while emulating, and while checking {@link #mAttached} before that,
+     * so that attaching the session waits for the emulation in the background to finish.
+     */
+    private final Object mBackgroundEmulationLock = new Object();
+    /** A resize postponed while the emulator is locked, or 0 if none. Only used on the main thread. */
+    private int mPendingColumns, mPendingRows;
+    /** If a reset was postponed while the emulator is locked. Only used on the main thread. */
+    private boolean mPendingReset;
+
     /** Callback which gets notified when a session finishes or changes title. */
     TerminalSessionClient mClient;
 
@@ -64,6 +123,8 @@ public final class TerminalSession extends TerminalOutput {
      * {@link JNI#createSubprocess(String, String, String[], String[], int[], int, int)}.
      */
     private int mTerminalFileDescriptor;
+    /** The registration of {@link #mTerminalFileDescriptor} with the {@link PtyReactor}. */
+    private PtyReactor.Channel mPtyChannel;
 
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
@@ -75,6 +136,23 @@ public final class TerminalSession extends TerminalOutput {
     private final String[] mArgs;
     private final String[] mEnv;
     private final Integer mTranscriptRows;
+    /** The directory to spill the transcript to, if any, see {@link #setTranscriptSpillDirectory(File)}. */
+    private File mTranscriptSpillDirectory;
+
+    private int mMaxInputBytesPerDrain = DEFAULT_MAX_INPUT_BYTES_PER_DRAIN;
+    private long mMaxInputNanosPerDrain = DEFAULT_MAX_INPUT_MILLIS_PER_DRAIN * 1000000L;
+
+    /** The capacity {@link #mProcessToTerminalIOQueue} may grow to. */
+    private volatile int mMaxOutputQueueCapacity = DEFAULT_OUTPUT_BUFFER_SIZE;
+    /** The uptime at which {@link #mProcessToTerminalIOQueue} was last found full. */
+    private volatile long mOutputQueueLastFullMillis;
+    private volatile int mOutputBackpressure = DEFAULT_OUTPUT_BACKPRESSURE;
+    /** If the session is shown, see {@link #setAttached(boolean)}. */
+    private volatile boolean mAttached;
+    private volatile int mFastForwardScreens = DEFAULT_FAST_FORWARD_SCREENS;
+
+    /** Used to read process output into if it cannot be emulated in place. Only used holding {@link #mEmulatorLock}. */
+    private final byte[] mReceiveBuffer = new byte[4 * 1024];
 
 
     private static final String LOG_TAG = "TerminalSession";
@@ -103,10 +181,163 @@ public final class TerminalSession extends TerminalOutput {
     public void updateSize(int columns, int rows) {
         if (mEmulator == null) {
             initializeEmulator(columns, rows);
+        } else if (!tryLockEmulator()) {
+            // Resized once the emulator is unlocked.
+            mPendingColumns = columns;
+            mPendingRows = rows;
         } else {
-            JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns);
-            mEmulator.resize(columns, rows);
+            try {
+                JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns);
+                mEmulator.resize(columns, rows);
+            } finally {
+                unlockEmulator();
+            }
+            postReflowHistory();
+        }
+    }
+
+    /** Reflow the history left after resizing a step at a time, letting other messages through in between. */
+    private void postReflowHistory() {
+        if (mEmulator.isReflowPending() && !mMainThreadHandler.hasMessages(MSG_REFLOW_HISTORY))
+            mMainThreadHandler.sendEmptyMessage(MSG_REFLOW_HISTORY);
+    }
+
+    /**
+     * Set how much process output is emulated on the main thread before other messages, such as touch input, are
+     * let through. A single screen update is done for all output emulated in one go.
+     *
+     * @param maxBytes  The maximum number of bytes to emulate in one go.
+     * @param maxMillis The maximum time in milliseconds to spend emulating in one go.
+     */
+    public void setInputProcessingLimits(int maxBytes, int maxMillis) {
+        mMaxInputBytesPerDrain = maxBytes;
+        mMaxInputNanosPerDrain = maxMillis * 1000000L;
+    }
+
+    /**
+     * Set how process output is buffered until it is emulated on the main thread.
+     *
+     * @param maxBufferSize The size in bytes the buffer may grow to when the process keeps outputting faster than the
+     *                      buffer is drained, rounded down to a power of two. The pty is read in chunks of up to the
+     *                      buffer size, so a larger buffer means fewer system calls and messages. The buffer is shrunk
+     *                      back once the output has calmed down.
+     * @param backpressure  What to do when the buffer is full, {@link #OUTPUT_BACKPRESSURE_BLOCK} or
+     *                      {@link #OUTPUT_BACKPRESSURE_DROP_FRAMES}.
+     */
+    public void setOutputLimits(int maxBufferSize, int backpressure) {
+        mMaxOutputQueueCapacity = Integer.highestOneBit(Math.max(maxBufferSize, OUTPUT_BUFFER_SIZE_MIN));
+        mOutputBackpressure = backpressure;
+    }
+
+    /**
+     * Set if the session is shown, which should be done on the main thread when attaching it to or detaching it from a
+     * view, and when the view is no longer visible.
+     * <p>
+     * The output of a session not shown is emulated on the {@link BackgroundEmulator} thread without notifying about
+     * screen updates, so that it does not slow down the main thread, and the client is brought up to date when the
+     * session is shown again. Only output of sessions not shown may be dropped, see
+     * {@link #OUTPUT_BACKPRESSURE_DROP_FRAMES}, or fast forwarded, see {@link #setFastForwardScreens(int)}.
+     */
+    public void setAttached(boolean attached) {
+        if (attached == mAttached) return;
+        if (!attached) {
+            mAttached = false;
+            return;
         }
+        // Wait for any emulation in the background to finish, after which the main thread takes over:
+        synchronized (mBackgroundEmulationLock) {
+            mAttached = true;
+        }
+        if (mEmulator == null) return;
+        // The screen updates and history reflowing skipped in the background:
+        notifyScreenUpdate();
+        postReflowHistory();
+        mNewInputPosted.set(false);
+        postNewInput();
+    }
+
+    public boolean isAttached() {
+        return mAttached;
+    }
+
+    /**
+     * Set how much of the transcript to keep while emulating output in the background, see
+     * {@link #setAttached(boolean)}. Keeping only the newest rows lets huge amounts of output be emulated faster, since
+     * the rows scrolled out of them do not need to be archived, see {@link TerminalBuffer#trimTranscript(int)}.
+     *
+     * @param screens The number of screens of transcript rows to keep, or 0 to keep as many as when shown.
+     */
+    public void setFastForwardScreens(int screens) {
+        mFastForwardScreens = screens;
+    }
+
+    /**
+     * Called on the {@link PtyReactor} thread when {@link #mProcessToTerminalIOQueue} is full. If the session is not
+     * shown and drops frames, discard the output not emulated yet to make room for the latest output, instead of
+     * blocking the process. The screen shows what the latest output leaves it as, though output which did not redraw
+     * all of it may leave remnants of the dropped output, and the dropped output is missing from the transcript.
+     * <p>
+     * Modes set or reset by the dropped output, such as the alternate screen, mouse reporting or bracketed paste, are
+     * lost as well. The emulator is not reset, since that would also lose the modes set before, which the program still
+     * running expects, so the session stays in the modes it was in until the program sets them again.
+     *
+     * @return If the output was dropped.
+     */
+    boolean dropQueuedOutput() {
+        if (mOutputBackpressure != OUTPUT_BACKPRESSURE_DROP_FRAMES || mAttached) return false;
+        // The queue is being drained if the lock is held, so let that make room:
+        if (!mEmulatorLock.tryLock()) return false;
+        try {
+            mProcessToTerminalIOQueue.discard();
+            mEmulator.resynchronize();
+        } finally {
+            unlockEmulator();
+        }
+        return true;
+    }
+
+    /**
+     * Keep all transcript rows which do not fit in memory in a file in the specified directory, for practically
+     * unlimited transcripts. Needs to be called before the emulator is initialized.
+     */
+    public void setTranscriptSpillDirectory(File directory) {
+        mTranscriptSpillDirectory = directory;
+    }
+
+    /**
+     * Write the transcript text, see {@link TerminalBuffer#writeTranscript(Appendable, boolean, boolean)}, without
+     * building it up in memory. Meant to be called from a background thread, for instance to write long transcripts to
+     * a file, in which case process output is not emulated until done.
+     */
+    public void writeTranscript(Appendable output, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        lockEmulator();
+        try {
+            if (mEmulator != null) mEmulator.getScreen().writeTranscript(output, joinBackLines, joinFullLines);
+        } finally {
+            unlockEmulator();
+        }
+    }
+
+    /**
+     * Keep the emulator from being changed, so that it can be read from another thread. Should be held briefly, since
+     * process output is not emulated meanwhile.
+     */
+    void lockEmulator() {
+        mEmulatorLock.lock();
+    }
+
+    /** Undo {@link #lockEmulator()}, continuing what has been postponed meanwhile. */
+    void unlockEmulator() {
+        if (mEmulatorLock.unlock()) mMainThreadHandler.sendEmptyMessage(MSG_EMULATOR_UNLOCKED);
+    }
+
+    /**
+     * Take {@link #mEmulatorLock} unless another thread holds it, in which case {@link #MSG_EMULATOR_UNLOCKED} is sent
+     * once it unlocks, for the main thread to continue what was postponed. Needs to be undone by
+     * {@link #unlockEmulator()}, since another thread may have failed to lock meanwhile.
+     */
+    private boolean tryLockEmulator() {
+        return mEmulatorLock.tryLockOrAwait();
     }
 
     /** The terminal title as set through escape sequences or null if none set. */
@@ -122,60 +353,82 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows) {
         mEmulator = new TerminalEmulator(this, columns, rows, mTranscriptRows, mClient);
+        if (mTranscriptSpillDirectory != null) {
+            try {
+                //noinspection ResultOfMethodCallIgnored - createTempFile() fails if it does not exist.
+                mTranscriptSpillDirectory.mkdirs();
+                mEmulator.spillTranscriptTo(File.createTempFile("transcript-", null, mTranscriptSpillDirectory));
+            } catch (IOException e) {
+                mClient.logStackTraceWithMessage(LOG_TAG, "Failed to spill transcript to " + mTranscriptSpillDirectory, e);
+            }
+        }
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns);
         mShellPid = processId[0];
 
-        final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
+        mPtyChannel = PtyReactor.getInstance().register(mTerminalFileDescriptor, this);
 
-        new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
+        ProcessReaper.getInstance().watch(mShellPid, true, new ProcessReaper.Client() {
             @Override
-            public void run() {
-                try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
-                    while (true) {
-                        int read = termIn.read(buffer);
-                        if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
-                    }
-                } catch (Exception e) {
-                    // Ignore, just shutting down.
-                }
+            public void onProcessExited(int pid, int exitStatus) {
+                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, exitStatus));
             }
-        }.start();
+        });
 
-        new Thread("TermSessionOutputWriter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                final byte[] buffer = new byte[4096];
-                try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped)) {
-                    while (true) {
-                        int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
-                        if (bytesToWrite == -1) return;
-                        termOut.write(buffer, 0, bytesToWrite);
-                    }
-                } catch (IOException e) {
-                    // Ignore.
-                }
-            }
-        }.start();
+    }
 
-        new Thread("TermSessionWaiter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+    /**
+     * Post a {@link #MSG_NEW_INPUT} message, or schedule the session on the {@link BackgroundEmulator} if not shown,
+     * unless already waiting to be handled.
+     */
+    void postNewInput() {
+        if (mNewInputPosted.compareAndSet(false, true)) {
+            if (mAttached) {
+                mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+            } else {
+                BackgroundEmulator.getInstance().schedule(this);
             }
-        }.start();
+        }
+    }
 
+    /** Called on the {@link BackgroundEmulator} thread to emulate output of the session, see {@link #postNewInput()}. */
+    void emulateInBackground() {
+        boolean outOfBudget;
+        synchronized (mBackgroundEmulationLock) {
+            if (mAttached) {
+                // Shown meanwhile, so leave it to the main thread:
+                mNewInputPosted.set(false);
+                postNewInput();
+                return;
+            }
+            // Continued with MSG_EMULATOR_UNLOCKED, leaving mNewInputPosted set until then:
+            if (!tryLockEmulator()) return;
+            try {
+                mNewInputPosted.set(false);
+                outOfBudget = drainInput(true, true);
+                final int fastForwardScreens = mFastForwardScreens;
+                if (fastForwardScreens > 0) mEmulator.trimTranscript(fastForwardScreens * mEmulator.mRows);
+            } finally {
+                unlockEmulator();
+            }
+        }
+        // Let the other sessions have their turn before continuing:
+        if (outOfBudget) postNewInput();
     }
 
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        // Hand over at most a queue full at a time, so that a full queue is always being written by the reactor:
+        while (count > 0) {
+            int bytesToWrite = Math.min(count, IO_QUEUE_CAPACITY);
+            if (!mTerminalToProcessIOQueue.write(data, offset, bytesToWrite)) return;
+            mPtyChannel.requestWrite();
+            offset += bytesToWrite;
+            count -= bytesToWrite;
+        }
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -226,7 +479,16 @@ public final class TerminalSession extends TerminalOutput {
 
     /** Reset state for terminal emulator state. */
     public void reset() {
-        mEmulator.reset();
+        if (!tryLockEmulator()) {
+            // Reset once the emulator is unlocked.
+            mPendingReset = true;
+            return;
+        }
+        try {
+            mEmulator.reset();
+        } finally {
+            unlockEmulator();
+        }
         notifyScreenUpdate();
     }
 
@@ -248,7 +510,8 @@ public final class TerminalSession extends TerminalOutput {
             mShellExitStatus = exitStatus;
         }
 
-        // Stop the reader and writer threads, and close the I/O streams
+        // Stop the pty I/O before closing the file descriptor, which may then be reused.
+        mPtyChannel.close();
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
@@ -256,7 +519,12 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onTitleChanged(TerminalSession.this);
+            }
+        });
     }
 
     public synchronized boolean isRunning() {
@@ -269,23 +537,64 @@ public final class TerminalSession extends TerminalOutput {
     }
 
     @Override
-    public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+    public void onCopyTextToClipboard(final String text) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onCopyTextToClipboard(TerminalSession.this, text);
+            }
+        });
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onPasteTextFromClipboard(TerminalSession.this);
+            }
+        });
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onBell(TerminalSession.this);
+            }
+        });
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onColorsChanged(TerminalSession.this);
+            }
+        });
+    }
+
+    @Override
+    public void onTerminalCursorStateChange(final boolean state) {
+        // The client acts on the view, which checks the cursor state itself when the session is shown again:
+        if (!mAttached) return;
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onTerminalCursorStateChange(state);
+            }
+        });
+    }
+
+    /** Run right away if on the main thread, or post to it if emulating in the background. */
+    private void runOnMainThread(Runnable runnable) {
+        if (mMainThreadHandler.getLooper().isCurrentThread()) {
+            runnable.run();
+        } else {
+            mMainThreadHandler.post(runnable);
+        }
     }
 
     public int getPid() {
@@ -313,54 +622,151 @@ public final class TerminalSession extends TerminalOutput {
         return null;
     }
 
-    private static FileDescriptor wrapFileDescriptor(int fileDescriptor, TerminalSessionClient client) {
-        FileDescriptor result = new FileDescriptor();
-        try {
-            Field descriptorField;
-            try {
-                descriptorField = FileDescriptor.class.getDeclaredField("descriptor");
-            } catch (NoSuchFieldException e) {
-                // For desktop java:
-                descriptorField = FileDescriptor.class.getDeclaredField("fd");
+    /**
+     * Emulate the output available in {@link #mProcessToTerminalIOQueue} and notify about a screen update once, holding
+     * {@link #mEmulatorLock}.
+     *
+     * @param limited  If to stop after the limits set by {@link #setInputProcessingLimits(int, int)}.
+     * @param headless If emulating in the background, in which case the screen update is left to
+     *                 {@link #setAttached(boolean)}.
+     * @return If stopping due to the limits with possibly more output available.
+     */
+    private boolean drainInput(boolean limited, boolean headless) {
+        final long startTime = System.nanoTime();
+        int bytesProcessed = 0;
+        boolean outOfBudget = false;
+        final SpscByteQueue queue = mProcessToTerminalIOQueue;
+        while (true) {
+            int bytesRead;
+            if (queue.hasArray()) {
+                // Emulate straight from the buffer the output was read into:
+                bytesRead = queue.getContiguousReadable();
+                if (bytesRead == 0) break;
+                // The readable part may be as large as the queue, so only take what is left of the budget:
+                if (limited) bytesRead = Math.min(bytesRead, Math.max(1, mMaxInputBytesPerDrain - bytesProcessed));
+                mEmulator.append(queue.getArray(), queue.getReadOffset(), bytesRead);
+                queue.commitRead(bytesRead);
+            } else {
+                bytesRead = queue.read(mReceiveBuffer, false);
+                if (bytesRead <= 0) break;
+                mEmulator.append(mReceiveBuffer, bytesRead);
+            }
+            bytesProcessed += bytesRead;
+            if (limited && (bytesProcessed >= mMaxInputBytesPerDrain || System.nanoTime() - startTime >= mMaxInputNanosPerDrain)) {
+                outOfBudget = true;
+                break;
             }
-            descriptorField.setAccessible(true);
-            descriptorField.set(result, fileDescriptor);
-        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException e) {
-            client.logStackTraceWithMessage(LOG_TAG, "Error accessing FileDescriptor#descriptor private field", e);
-            System.exit(1);
         }
-        return result;
+        if (bytesProcessed > 0) {
+            if (!outOfBudget && mPtyChannel.isReadPaused()) growOutputQueue();
+            mPtyChannel.onInputConsumed();
+            if (!headless) {
+                notifyScreenUpdate();
+                // Leaving the alternate screen resizes the main one if the size changed meanwhile:
+                postReflowHistory();
+            }
+        }
+        return outOfBudget;
+    }
+
+    /**
+     * Called after draining {@link #mProcessToTerminalIOQueue} which was found full meanwhile, so that the process
+     * outputs faster than the output is drained. Grow the queue to read more at a time, and shrink it back later.
+     */
+    private void growOutputQueue() {
+        mOutputQueueLastFullMillis = SystemClock.uptimeMillis();
+        final int capacity = mProcessToTerminalIOQueue.capacity();
+        if (capacity < mMaxOutputQueueCapacity && mPtyChannel.replaceOutputQueue(capacity * 2)
+            && !mMainThreadHandler.hasMessages(MSG_SHRINK_OUTPUT_QUEUE)) {
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_SHRINK_OUTPUT_QUEUE, OUTPUT_QUEUE_IDLE_MILLIS);
+        }
     }
 
     @SuppressLint("HandlerLeak")
     class MainThreadHandler extends Handler {
 
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
+            if (msg.what == MSG_NEW_INPUT) {
+                // Continued with MSG_EMULATOR_UNLOCKED, leaving mNewInputPosted set until then:
+                if (!tryLockEmulator()) return;
+                try {
+                    // Clear before draining so that output arriving while draining posts a new message:
+                    mNewInputPosted.set(false);
+                    if (drainInput(true, false)) {
+                        // Out of budget, let other messages through before continuing.
+                        postNewInput();
+                    }
+                } finally {
+                    unlockEmulator();
+                }
+            } else if (msg.what == MSG_EMULATOR_UNLOCKED) {
+                if (mPendingColumns > 0) {
+                    int columns = mPendingColumns, rows = mPendingRows;
+                    mPendingColumns = mPendingRows = 0;
+                    updateSize(columns, rows);
+                }
+                if (mPendingReset) {
+                    mPendingReset = false;
+                    reset();
+                }
+                // Cleared even if the queue is empty, since a failed attempt to drain it leaves it set:
+                mNewInputPosted.set(false);
+                if (mProcessToTerminalIOQueue.available() > 0) postNewInput();
+                postReflowHistory();
+            } else if (msg.what == MSG_REFLOW_HISTORY) {
+                // Continued with MSG_EMULATOR_UNLOCKED:
+                if (!tryLockEmulator()) return;
+                try {
+                    mEmulator.reflowHistory(REFLOW_ROWS_PER_STEP);
+                } finally {
+                    unlockEmulator();
+                }
                 notifyScreenUpdate();
-            }
-
-            if (msg.what == MSG_PROCESS_EXITED) {
-                int exitCode = (Integer) msg.obj;
-                cleanupResources(exitCode);
-
-                String exitDescription = "\r\n[Process completed";
-                if (exitCode > 0) {
-                    // Non-zero process exit.
-                    exitDescription += " (code " + exitCode + ")";
-                } else if (exitCode < 0) {
-                    // Negated signal.
-                    exitDescription += " (signal " + (-exitCode) + ")";
+                postReflowHistory();
+            } else if (msg.what == MSG_SHRINK_OUTPUT_QUEUE) {
+                final long idleMillis = SystemClock.uptimeMillis() - mOutputQueueLastFullMillis;
+                if (idleMillis < OUTPUT_QUEUE_IDLE_MILLIS) {
+                    sendEmptyMessageDelayed(MSG_SHRINK_OUTPUT_QUEUE, OUTPUT_QUEUE_IDLE_MILLIS - idleMillis);
+                    return;
+                }
+                if (!isRunning()) return;
+                // The queue is consumed by whichever thread holds the lock, with the reactor thread dropping output:
+                boolean shrunk = false;
+                if (mEmulatorLock.tryLock()) {
+                    try {
+                        shrunk = mPtyChannel.replaceOutputQueue(IO_QUEUE_CAPACITY);
+                    } finally {
+                        unlockEmulator();
+                    }
                 }
-                exitDescription += " - press Enter]";
+                if (!shrunk) sendEmptyMessageDelayed(MSG_SHRINK_OUTPUT_QUEUE, OUTPUT_QUEUE_IDLE_MILLIS);
+            } else if (msg.what == MSG_PROCESS_EXITED) {
+                if (!mEmulatorLock.tryLock()) {
+                    // Try again once the emulator is unlocked.
+                    sendMessageDelayed(obtainMessage(MSG_PROCESS_EXITED, msg.obj), 10);
+                    return;
+                }
+                int exitCode = (Integer) msg.obj;
+                try {
+                    drainInput(false, false);
+                    cleanupResources(exitCode);
+
+                    String exitDescription = "\r\n[Process completed";
+                    if (exitCode > 0) {
+                        // Non-zero process exit.
+                        exitDescription += " (code " + exitCode + ")";
+                    } else if (exitCode < 0) {
+                        // Negated signal.
+                        exitDescription += " (signal " + (-exitCode) + ")";
+                    }
+                    exitDescription += " - press Enter]";
 
-                byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
+                    byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                } finally {
+                    unlockEmulator();
+                }
                 notifyScreenUpdate();
 
                 mClient.onSessionFinished(TerminalSession.this);
@@ -0,0 +1,303 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The oldest part of the transcript of a {@link TerminalBuffer}, holding rows which have fallen out of its circular
+ * buffer, for transcripts too long to keep as {@link TerminalRow} objects.
+ * <p>
+ * Rows are serialized as they are added, and handed to the subclass for storage in blocks of {@link #BLOCK_ROWS} rows.
+ * Blocks are loaded on demand when their rows are read, with the most recently used ones kept in {@link #mHotBlocks}.
+ * <p>
+ * Rows keep the width they had when added, and are truncated or padded to the current number of columns when read.
+ * <p>
+ * Methods are synchronized, since rows are added by the thread emulating output while they may be read by another
+ * thread, such as the main thread rendering them.
+ */
+abstract class TranscriptArchive {
+
+    /** The number of rows stored together. */
+    static final int BLOCK_ROWS = 128;
+    /** The number of loaded blocks to keep, enough to cover a screen and scrolling back and forth over it. */
+    private static final int HOT_BLOCKS = 4;
+
+    /** The maximum number of rows to keep. The oldest block is dropped when exceeded. */
+    private final int mMaxRows;
+    /** The number of stored blocks. */
+    private int mBlockCount;
+    /** The number of blocks dropped from the start, so that {@link #mHotBlocks} can be keyed by block number. */
+    private int mDroppedBlocks;
+
+    /** The serialized rows not yet filling a block, which are stored once there are {@link #BLOCK_ROWS} of them. */
+    private byte[] mPending = new byte[8192];
+    private int mPendingLength, mPendingRows;
+
+    /** Rows of recently used blocks keyed by block number, laid out for {@link #mHotBlocksColumns} columns. */
+    private final LinkedHashMap<Integer, TerminalRow[]> mHotBlocks = new LinkedHashMap<Integer, TerminalRow[]>(HOT_BLOCKS + 1, 1f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, TerminalRow[]> eldest) {
+            return size() > HOT_BLOCKS;
+        }
+    };
+    private int mHotBlocksColumns;
+
+    TranscriptArchive(int maxRows) {
+        mMaxRows = maxRows;
+    }
+
+    /** Store a block of serialized rows, which becomes the newest block. */
+    abstract void storeBlock(byte[] data, int length);
+
+    /** Load a stored block, where block 0 is the oldest one, positioned at the start of the serialized rows. */
+    abstract ByteBuffer loadBlock(int blockIndex);
+
+    abstract void dropOldestBlock();
+
+    abstract void dropAllBlocks();
+
+    /** The number of bytes used for storing the blocks. */
+    abstract long getStoredBlockBytes();
+
+    /** Release the resources held, after which the archive should not be used. */
+    void close() {
+    }
+
+    /** The number of rows held, where row 0 is the oldest one. */
+    final synchronized int size() {
+        return mBlockCount * BLOCK_ROWS + mPendingRows;
+    }
+
+    /** The number of bytes used by the stored blocks and the rows waiting to be stored. */
+    final synchronized long getStoredBytes() {
+        return getStoredBlockBytes() + mPendingLength;
+    }
+
+    final synchronized void clear() {
+        dropAllBlocks();
+        mHotBlocks.clear();
+        mBlockCount = mDroppedBlocks = 0;
+        mPendingLength = mPendingRows = 0;
+    }
+
+    /** Add a row as the newest one. The row is not referenced afterwards. */
+    final synchronized void add(TerminalRow row) {
+        writeRow(row);
+        mPendingRows++;
+        // The pending block is about to change:
+        mHotBlocks.remove(mDroppedBlocks + mBlockCount);
+
+        if (mPendingRows == BLOCK_ROWS) {
+            storeBlock(mPending, mPendingLength);
+            mBlockCount++;
+            mPendingLength = mPendingRows = 0;
+        }
+
+        while (size() > mMaxRows && mBlockCount > 0) {
+            dropOldestBlock();
+            mBlockCount--;
+            mHotBlocks.remove(mDroppedBlocks);
+            mDroppedBlocks++;
+        }
+    }
+
+    /** Get a row, loading its block if not recently used. The returned row should not be modified. */
+    final synchronized TerminalRow getRow(int index, int columns) {
+        if (index < 0 || index >= size()) throw new IllegalArgumentException("index=" + index + ", size=" + size());
+        if (columns != mHotBlocksColumns) {
+            mHotBlocks.clear();
+            mHotBlocksColumns = columns;
+        }
+
+        final int blockIndex = index / BLOCK_ROWS;
+        final int blockNumber = mDroppedBlocks + blockIndex;
+        TerminalRow[] rows = mHotBlocks.get(blockNumber);
+        if (rows == null) {
+            if (blockIndex == mBlockCount) {
+                rows = readRows(ByteBuffer.wrap(mPending, 0, mPendingLength), mPendingRows, columns);
+            } else {
+                rows = readRows(loadBlock(blockIndex), BLOCK_ROWS, columns);
+            }
+            mHotBlocks.put(blockNumber, rows);
+        }
+        return rows[index % BLOCK_ROWS];
+    }
+
+    /*
+     * Serialized rows consist of:
+     * - a flags byte, currently only holding whether the row was line wrapped,
+     * - the number of columns,
+     * - the number of style runs followed by the start column and the style of each run,
+     * - the number of chars used in the row followed by the chars.
+     * Numbers and chars are stored as variable length integers with 7 bits per byte, since they are mostly small.
+     */
+
+    private void writeRow(TerminalRow row) {
+        final int columns = row.getColumns();
+        final int spaceUsed = row.getSpaceUsed();
+        final char[] text = row.getText();
+
+        ensurePendingCapacity(1 + 5 + 5 + columns * (5 + 8) + 5 + 3 * spaceUsed);
+        mPending[mPendingLength++] = (byte) (row.mLineWrap ? 1 : 0);
+        writeVarInt(columns);
+
+        int runs = 1;
+        for (int column = 1; column < columns; column++)
+            if (row.getStyle(column) != row.getStyle(column - 1)) runs++;
+        writeVarInt(runs);
+        for (int column = 0; column < columns; column++) {
+            long style = row.getStyle(column);
+            if (column == 0 || style != row.getStyle(column - 1)) {
+                writeVarInt(column);
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    mPending[mPendingLength++] = (byte) (style >>> shift);
+            }
+        }
+
+        writeVarInt(spaceUsed);
+        for (int i = 0; i < spaceUsed; i++)
+            writeVarInt(text[i]);
+    }
+
+    private void ensurePendingCapacity(int bytes) {
+        if (mPendingLength + bytes > mPending.length)
+            mPending = Arrays.copyOf(mPending, Math.max(2 * mPending.length, mPendingLength + bytes));
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            mPending[mPendingLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mPending[mPendingLength++] = (byte) value;
+    }
+
+    /** Read serialized rows directly from the buffer, laying them out for the specified number of columns. */
+    private static TerminalRow[] readRows(ByteBuffer data, int rowCount, int columns) {
+        final TerminalRow[] rows = new TerminalRow[rowCount];
+        final RowReader reader = new RowReader();
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            final TerminalRow row = new TerminalRow(columns, TextStyle.NORMAL);
+            reader.readRow(data, row);
+            row.freeze();
+            rows[rowIndex] = row;
+        }
+        return rows;
+    }
+
+    /** Reads serialized rows one at a time, keeping the arrays for style runs between them. */
+    private static final class RowReader {
+        private int[] mRunStarts = new int[0];
+        private long[] mRunStyles = new long[0];
+
+        /** Read the next row from the buffer into a blank row, laying it out for the number of columns of the row. */
+        void readRow(ByteBuffer data, TerminalRow row) {
+            final int columns = row.getColumns();
+            final boolean lineWrap = (data.get() & 1) != 0;
+            final int sourceColumns = readVarInt(data);
+
+            final int runs = readVarInt(data);
+            if (mRunStarts.length < runs) {
+                mRunStarts = new int[runs];
+                mRunStyles = new long[runs];
+            }
+            final int[] runStarts = mRunStarts;
+            final long[] runStyles = mRunStyles;
+            for (int run = 0; run < runs; run++) {
+                runStarts[run] = readVarInt(data);
+                runStyles[run] = data.getLong();
+            }
+
+            final int spaceUsed = readVarInt(data);
+            int run = 0;
+            int column = 0;
+            int lastColumn = 0;
+            boolean truncated = false;
+            for (int i = 0; i < spaceUsed; i++) {
+                char c = (char) readVarInt(data);
+                if (truncated) continue;
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < spaceUsed) {
+                    codePoint = Character.toCodePoint(c, (char) readVarInt(data));
+                    i++;
+                }
+                int width = WcWidth.width(codePoint);
+                if (width > 0) {
+                    if (column + width > columns || column >= sourceColumns) {
+                        // Keep reading to get to the next row.
+                        truncated = true;
+                        continue;
+                    }
+                    while (run + 1 < runs && runStarts[run + 1] <= column) run++;
+                    row.setChar(column, codePoint, runStyles[run]);
+                    lastColumn = column;
+                    column += width;
+                } else if (column > 0) {
+                    row.setChar(lastColumn, codePoint, runStyles[run]);
+                }
+            }
+            row.mLineWrap = lineWrap;
+        }
+    }
+
+    /** A cursor for reading rows in order, see {@link RowCursor}. */
+    final RowCursor newCursor(int columns) {
+        return new RowCursor(columns);
+    }
+
+    /**
+     * Reads rows mostly in increasing order, decoding each into the same row instead of loading their whole block into
+     * {@link #mHotBlocks} like {@link #getRow(int, int)}, for going through many rows once, like when exporting or
+     * searching the transcript, without allocating rows or evicting the blocks being shown. The returned row is only
+     * valid until the next read, and the cursor only until rows are added to or dropped from the archive.
+     */
+    final class RowCursor {
+        private final TerminalRow mRow;
+        private final RowReader mReader = new RowReader();
+        /** The block being read, positioned at the row {@link #mNextIndex}. */
+        private ByteBuffer mData;
+        private int mDataBlockIndex = -1;
+        private int mNextIndex;
+        /** The positions in {@link #mData} of the rows of the block read so far, for going back to them. */
+        private final int[] mRowPositions = new int[BLOCK_ROWS];
+
+        RowCursor(int columns) {
+            mRow = new TerminalRow(columns, TextStyle.NORMAL);
+        }
+
+        TerminalRow read(int index) {
+            synchronized (TranscriptArchive.this) {
+                if (index < 0 || index >= size()) throw new IllegalArgumentException("index=" + index + ", size=" + size());
+                final int blockIndex = index / BLOCK_ROWS;
+                if (blockIndex != mDataBlockIndex) {
+                    mData = (blockIndex == mBlockCount) ? ByteBuffer.wrap(mPending, 0, mPendingLength) : loadBlock(blockIndex);
+                    mDataBlockIndex = blockIndex;
+                    mNextIndex = blockIndex * BLOCK_ROWS;
+                } else if (index < mNextIndex) {
+                    mData.position(mRowPositions[index % BLOCK_ROWS]);
+                    mNextIndex = index;
+                }
+                // Rows before the one asked for are read into the same row to get past them:
+                while (mNextIndex <= index) {
+                    mRowPositions[mNextIndex % BLOCK_ROWS] = mData.position();
+                    mRow.clear(TextStyle.NORMAL);
+                    mReader.readRow(mData, mRow);
+                    mNextIndex++;
+                }
+                return mRow;
+            }
+        }
+    }
+
+    private static int readVarInt(ByteBuffer data) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+}
@@ -0,0 +1,564 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search for text in the transcript and screen of a {@link TerminalSession}, run on a background thread.
+ * <p>
+ * Rows are searched a logical line at a time, joining rows which were line wrapped, so that matches may span rows.
+ * Matches in the transcript are kept as rows scroll into it, since transcript rows do not change, so that only new
+ * output and the screen need to be searched as output arrives. Narrowing a literal query, as when typing it, only
+ * searches the lines which matched the previous query.
+ * <p>
+ * Rows are numbered by {@link TerminalBuffer#getScrolledRows()}, so that matches stay valid as output scrolls.
+ */
+public final class TranscriptSearch {
+
+    /** Notified on the main thread when the matches have changed. */
+    public interface Listener {
+        void onSearchResultsChanged(TranscriptSearch search);
+    }
+
+    /** A match, from the start column of the start row to the exclusive end column of the end row. */
+    public static final class Match {
+        /** The first row of the logical line containing the match, for narrowing searches. */
+        final long mLineStartRow;
+        public final long mStartRow;
+        public final int mStartColumn;
+        public final long mEndRow;
+        public final int mEndColumn;
+
+        Match(long lineStartRow, long startRow, int startColumn, long endRow, int endColumn) {
+            mLineStartRow = lineStartRow;
+            mStartRow = startRow;
+            mStartColumn = startColumn;
+            mEndRow = endRow;
+            mEndColumn = endColumn;
+        }
+
+        boolean isBefore(long row, int column) {
+            return mStartRow < row || (mStartRow == row && mStartColumn < column);
+        }
+    }
+
+    /** A query to search for, with a null pattern for the empty query. */
+    private static final class Query {
+        final Pattern mPattern;
+        /** The literal query if not a regex, for narrowing. */
+        final String mLiteral;
+
+        Query(Pattern pattern, String literal) {
+            mPattern = pattern;
+            mLiteral = literal;
+        }
+
+        /** If this query only matches lines which the previous query matches, so that only those need to be searched. */
+        boolean narrows(Query previous) {
+            return mPattern != null && previous.mPattern != null && mLiteral != null && previous.mLiteral != null
+                && mPattern.flags() == previous.mPattern.flags() && mLiteral.contains(previous.mLiteral);
+        }
+    }
+
+    /** The matches found so far, published to the main thread. Not modified once published. */
+    private static final class Results {
+        static final Results NONE = new Results(null, 0, 0, new Match[0], 0, new Match[0], true, 0);
+
+        final TerminalBuffer mScreen;
+        final int mTranscriptGeneration;
+        /** The transcript matches are mTranscriptMatches[mTranscriptStart, mTranscriptEnd). */
+        final Match[] mTranscriptMatches;
+        final int mTranscriptStart, mTranscriptEnd;
+        final Match[] mScreenMatches;
+        final boolean mComplete;
+        final int mVersion;
+
+        Results(TerminalBuffer screen, int transcriptGeneration, int transcriptStart, Match[] transcriptMatches,
+                int transcriptEnd, Match[] screenMatches, boolean complete, int version) {
+            mScreen = screen;
+            mTranscriptGeneration = transcriptGeneration;
+            mTranscriptStart = transcriptStart;
+            mTranscriptMatches = transcriptMatches;
+            mTranscriptEnd = transcriptEnd;
+            mScreenMatches = screenMatches;
+            mComplete = complete;
+            mVersion = version;
+        }
+
+        int size() {
+            return mTranscriptEnd - mTranscriptStart + mScreenMatches.length;
+        }
+
+        Match get(int index) {
+            final int transcriptMatches = mTranscriptEnd - mTranscriptStart;
+            return (index < transcriptMatches) ? mTranscriptMatches[mTranscriptStart + index] : mScreenMatches[index - transcriptMatches];
+        }
+
+        /** The index of the first match ending at or after the row, or {@link #size()} if none. */
+        int indexOfFirstMatchEndingAtOrAfter(long row) {
+            int low = 0, high = size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (get(middle).mEndRow < row) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * The time to search for at a time while holding the emulator lock, which keeps output from being emulated, after
+     * which the lock is released before continuing. Lines are long or short and slow or quick to match, so this is
+     * bounded by time rather than by rows.
+     */
+    private static final long STEP_NANOS = 4000000L;
+    /** The time after which the search thread is stopped when there is nothing to search. */
+    private static final int IDLE_THREAD_SECONDS = 10;
+    private static final Query NO_QUERY = new Query(null, null);
+
+    private final TerminalSession mSession;
+    private final Listener mListener;
+    /** Runs the searching, created on first use. */
+    private ExecutorService mExecutor;
+    /** Increased when the query is changed or the search is closed, to cancel searching for the old query. */
+    private final AtomicInteger mQueryGeneration = new AtomicInteger();
+    /** If an update has been queued on {@link #mExecutor} and not started yet. */
+    private final AtomicBoolean mUpdateQueued = new AtomicBoolean();
+    /** If a notification of {@link #mListener} has been posted and not run yet. */
+    private final AtomicBoolean mNotificationPosted = new AtomicBoolean();
+    private final Runnable mNotifyListener = new Runnable() {
+        @Override
+        public void run() {
+            mNotificationPosted.set(false);
+            if (mListener != null) mListener.onSearchResultsChanged(TranscriptSearch.this);
+        }
+    };
+
+    /** The query set by {@link #setQuery(String, boolean, boolean)}, picked up by the next update. */
+    private volatile Query mPendingQuery = NO_QUERY;
+    private volatile Results mResults = Results.NONE;
+    /** The match last selected by {@link #selectMatch(boolean)}. Only used on the main thread. */
+    private Match mSelectedMatch;
+
+    /* The state of the search, only used while updating. */
+    private Query mQuery = NO_QUERY;
+    private TerminalBuffer mScreen;
+    private int mTranscriptGeneration, mColumns;
+    /** The matches in the transcript, which only change when rows leave the transcript or the query changes. */
+    private Match[] mTranscriptMatches = new Match[64];
+    private int mTranscriptStart, mTranscriptEnd;
+    /** The row up to which the transcript has been searched. */
+    private long mSearchedUntilRow;
+    /** The first rows of lines matching the previous query, which are searched before continuing at {@link #mSearchedUntilRow}. */
+    private long[] mLinesToNarrow = new long[0];
+    private int mLinesToNarrowStart, mLinesToNarrowEnd;
+    private Match[] mScreenMatches = new Match[0];
+    private int mVersion;
+
+    /* Buffers used for searching a logical line at a time. */
+    private final StringBuilder mLineText = new StringBuilder();
+    private int[] mLineRowStarts = new int[8];
+    private char[] mFrozenRowText;
+    private final ArrayList<Match> mLineMatches = new ArrayList<>();
+
+    /**
+     * @param session  The session to search the current screen of.
+     * @param listener Notified on the main thread as matches are found.
+     */
+    public TranscriptSearch(TerminalSession session, Listener listener) {
+        mSession = session;
+        mListener = listener;
+    }
+
+    /** For searching synchronously with {@link #update(TerminalBuffer, int)}. */
+    TranscriptSearch() {
+        this(null, null);
+    }
+
+    /**
+     * Search for a query, cancelling the search for the previous one. Should be called on the main thread.
+     *
+     * @param query      The text or regular expression to search for, with an empty query matching nothing.
+     * @param regex      If the query is a regular expression as by {@link Pattern}.
+     * @param ignoreCase If to ignore case when matching.
+     * @throws java.util.regex.PatternSyntaxException If the regular expression is invalid.
+     */
+    public void setQuery(String query, boolean regex, boolean ignoreCase) {
+        int flags = ignoreCase ? (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) : 0;
+        Pattern pattern = query.isEmpty() ? null : Pattern.compile(regex ? query : Pattern.quote(query), flags);
+        setQuery(new Query(pattern, regex ? null : query));
+    }
+
+    /** Search for a compiled pattern, such as for finding links, see {@link #setQuery(String, boolean, boolean)}. */
+    public void setQuery(Pattern pattern) {
+        setQuery(new Query(pattern, null));
+    }
+
+    private void setQuery(Query query) {
+        mPendingQuery = query;
+        mQueryGeneration.incrementAndGet();
+        mSelectedMatch = null;
+        queueUpdate();
+    }
+
+    /** Search the new output and the screen after they have changed. Should be called on the main thread. */
+    public void onScreenUpdated() {
+        if (mPendingQuery.mPattern != null) queueUpdate();
+    }
+
+    /** Stop searching. The search should not be used afterwards. */
+    public void close() {
+        mQueryGeneration.incrementAndGet();
+        if (mExecutor != null) mExecutor.shutdown();
+        mResults = Results.NONE;
+    }
+
+    public TerminalSession getSession() {
+        return mSession;
+    }
+
+    /** The number of matches found so far, oldest first. */
+    public int getMatchCount() {
+        return mResults.size();
+    }
+
+    public Match getMatch(int index) {
+        return mResults.get(index);
+    }
+
+    /** If all of the transcript and screen have been searched for the current query. */
+    public boolean isComplete() {
+        return mResults.mComplete;
+    }
+
+    /** Changed whenever the matches change, for knowing when to render them again. */
+    public int getResultsVersion() {
+        return mResults.mVersion;
+    }
+
+    /**
+     * Get the row of a match on a screen, or {@link Integer#MIN_VALUE} if the match is no longer in its transcript or
+     * is not from the screen.
+     */
+    public int getExternalRow(TerminalBuffer screen, long row) {
+        final Results results = mResults;
+        if (results.mScreen != screen || results.mTranscriptGeneration != screen.getTranscriptGeneration()) return Integer.MIN_VALUE;
+        long externalRow = row - screen.getScrolledRows();
+        return (externalRow < -screen.getActiveTranscriptRows() || externalRow >= screen.mScreenRows) ? Integer.MIN_VALUE : (int) externalRow;
+    }
+
+    /**
+     * Get the text of a match on a screen, with wrapped rows joined. Should be called on the main thread.
+     *
+     * @return The text, or null if the match is no longer in the transcript of the screen.
+     */
+    public String getMatchText(TerminalBuffer screen, Match match) {
+        final int startRow = getExternalRow(screen, match.mStartRow);
+        final int endRow = getExternalRow(screen, match.mEndRow);
+        if (startRow == Integer.MIN_VALUE || endRow == Integer.MIN_VALUE) return null;
+        return screen.getSelectedText(match.mStartColumn, startRow, match.mEndColumn - 1, endRow, true, false);
+    }
+
+    /**
+     * Find the text matching a pattern at a cell of a screen, only searching the logical line containing the cell. For
+     * finding a link at a tapped location without searching or keeping a search of the whole transcript.
+     *
+     * @return The text of the match containing the cell, or null if none.
+     */
+    public static String findMatchAt(TerminalBuffer screen, Pattern pattern, int column, int row) {
+        if (row < -screen.getActiveTranscriptRows() || row >= screen.mScreenRows) return null;
+        final int lineStartRow = screen.getLogicalLineStart(row, false);
+
+        final TranscriptSearch search = new TranscriptSearch();
+        search.mQuery = new Query(pattern, null);
+        final long scrolledRows = screen.getScrolledRows();
+        search.searchLine(screen, null, lineStartRow, scrolledRows);
+        for (Match match : search.mLineMatches) {
+            final long matchStartRow = match.mStartRow - scrolledRows, matchEndRow = match.mEndRow - scrolledRows;
+            if ((row > matchStartRow || (row == matchStartRow && column >= match.mStartColumn))
+                && (row < matchEndRow || (row == matchEndRow && column < match.mEndColumn)))
+                return screen.getSelectedText(match.mStartColumn, (int) matchStartRow, match.mEndColumn - 1, (int) matchEndRow, true, false);
+        }
+        return null;
+    }
+
+    /**
+     * Mark the columns of a row on a screen which are part of a match, for highlighting.
+     *
+     * @return If any column was marked.
+     */
+    public boolean markMatchesInRow(TerminalBuffer screen, int externalRow, boolean[] columns) {
+        final Results results = mResults;
+        if (results.mScreen != screen || results.mTranscriptGeneration != screen.getTranscriptGeneration()) return false;
+        final long row = screen.getScrolledRows() + externalRow;
+        boolean marked = false;
+        for (int index = results.indexOfFirstMatchEndingAtOrAfter(row); index < results.size(); index++) {
+            final Match match = results.get(index);
+            if (match.mStartRow > row) break;
+            final int start = (match.mStartRow == row) ? match.mStartColumn : 0;
+            final int end = Math.min(columns.length, (match.mEndRow == row) ? match.mEndColumn : columns.length);
+            for (int column = start; column < end; column++) columns[column] = true;
+            marked |= start < end;
+        }
+        return marked;
+    }
+
+    /**
+     * Select the match after or before the one selected last, wrapping around at the newest and oldest matches. If
+     * none has been selected, the oldest or newest match is selected.
+     *
+     * @return The selected match, or null if there are no matches.
+     */
+    public Match selectMatch(boolean backwards) {
+        final Results results = mResults;
+        final int count = results.size();
+        if (count == 0) return null;
+
+        int index;
+        if (mSelectedMatch == null) {
+            index = backwards ? count - 1 : 0;
+        } else {
+            // Find the first match at or after the selected one, which is after it unless it is still a match:
+            int low = 0, high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (results.get(middle).isBefore(mSelectedMatch.mStartRow, mSelectedMatch.mStartColumn)) low = middle + 1;
+                else high = middle;
+            }
+            index = low;
+            if (backwards) {
+                index--;
+            } else if (index < count && results.get(index).isBefore(mSelectedMatch.mStartRow, mSelectedMatch.mStartColumn + 1)) {
+                // The selected match itself.
+                index++;
+            }
+            index = (index + count) % count;
+        }
+        return mSelectedMatch = results.get(index);
+    }
+
+    private void queueUpdate() {
+        if (mSession == null || !mUpdateQueued.compareAndSet(false, true)) return;
+        if (mExecutor == null) {
+            // The thread is stopped when idle, so that searches kept for later use do not keep a thread each:
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "TranscriptSearch[pid=" + mSession.getPid() + "]");
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mUpdateQueued.set(false);
+                final int queryGeneration = mQueryGeneration.get();
+                boolean moreToSearch = true;
+                while (moreToSearch && queryGeneration == mQueryGeneration.get()) {
+                    mSession.lockEmulator();
+                    try {
+                        final TerminalEmulator emulator = mSession.getEmulator();
+                        if (emulator == null) return;
+                        moreToSearch = update(emulator.getScreen(), STEP_NANOS);
+                    } finally {
+                        mSession.unlockEmulator();
+                    }
+                    if (mNotificationPosted.compareAndSet(false, true))
+                        mSession.mMainThreadHandler.post(mNotifyListener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Continue searching the screen, which should not change meanwhile, and publish the matches found.
+     *
+     * @param maxNanos The time to search transcript rows for before returning, after searching at least one line.
+     * @return If there are more transcript rows to search.
+     */
+    boolean update(TerminalBuffer screen, long maxNanos) {
+        final long startTime = System.nanoTime();
+        final Query pendingQuery = mPendingQuery;
+        if (screen != mScreen || screen.getTranscriptGeneration() != mTranscriptGeneration || screen.mColumns != mColumns) {
+            mScreen = screen;
+            mTranscriptGeneration = screen.getTranscriptGeneration();
+            mColumns = screen.mColumns;
+            restart(pendingQuery, false);
+        } else if (pendingQuery != mQuery) {
+            restart(pendingQuery, pendingQuery.narrows(mQuery));
+        }
+
+        final long scrolledRows = screen.getScrolledRows();
+        final long firstRow = scrolledRows - screen.getActiveTranscriptRows();
+        // The screen rows, and the line continuing into them, may still change and so are searched again each time:
+        final int firstScreenLineRow = screen.getLogicalLineStart(0, false);
+        final long transcriptEndRow = scrolledRows + firstScreenLineRow;
+
+        // Drop matches in rows which have left the transcript, or which are on the screen again after a resize:
+        while (mTranscriptStart < mTranscriptEnd && mTranscriptMatches[mTranscriptStart].mStartRow < firstRow)
+            mTranscriptStart++;
+        if (mTranscriptEnd > mTranscriptStart && mTranscriptMatches[mTranscriptEnd - 1].mLineStartRow >= transcriptEndRow) {
+            // Published results may still be using the array, so do not let the dropped matches be overwritten:
+            int kept = mTranscriptEnd;
+            while (kept > mTranscriptStart && mTranscriptMatches[kept - 1].mLineStartRow >= transcriptEndRow) kept--;
+            mTranscriptMatches = Arrays.copyOfRange(mTranscriptMatches, mTranscriptStart, mTranscriptMatches.length);
+            mTranscriptEnd = kept - mTranscriptStart;
+            mTranscriptStart = 0;
+        }
+        mSearchedUntilRow = Math.min(Math.max(mSearchedUntilRow, firstRow), transcriptEndRow);
+
+        if (mQuery.mPattern == null) {
+            publish(new Match[0], true);
+            return false;
+        }
+
+        // Archived rows are read through a cursor, so that searching them does not replace the blocks being shown:
+        final TranscriptArchive.RowCursor archiveCursor = screen.newArchiveCursor();
+        boolean timeLeft = true;
+        while (mLinesToNarrowStart < mLinesToNarrowEnd && timeLeft) {
+            final long lineStartRow = mLinesToNarrow[mLinesToNarrowStart++];
+            if (lineStartRow < firstRow || lineStartRow >= mSearchedUntilRow) continue;
+            searchLine(screen, archiveCursor, (int) (lineStartRow - scrolledRows), scrolledRows);
+            addTranscriptMatches();
+            timeLeft = System.nanoTime() - startTime < maxNanos;
+        }
+        while (mLinesToNarrowStart == mLinesToNarrowEnd && mSearchedUntilRow < transcriptEndRow && timeLeft) {
+            mSearchedUntilRow += searchLine(screen, archiveCursor, (int) (mSearchedUntilRow - scrolledRows), scrolledRows);
+            addTranscriptMatches();
+            timeLeft = System.nanoTime() - startTime < maxNanos;
+        }
+        if (mLinesToNarrowStart < mLinesToNarrowEnd || mSearchedUntilRow < transcriptEndRow) {
+            // Publish what has been found so far, with the screen matches of the last complete update:
+            publish(mScreenMatches, false);
+            return true;
+        }
+
+        final ArrayList<Match> screenMatches = new ArrayList<>();
+        for (int row = firstScreenLineRow; row < screen.mScreenRows; ) {
+            row += searchLine(screen, null, row, scrolledRows);
+            screenMatches.addAll(mLineMatches);
+        }
+        mScreenMatches = screenMatches.toArray(new Match[0]);
+        publish(mScreenMatches, true);
+        return false;
+    }
+
+    /**
+     * Start searching for a new query.
+     *
+     * @param narrowing If only the lines which matched the previous query need to be searched, up to where it got.
+     */
+    private void restart(Query query, boolean narrowing) {
+        mLinesToNarrowStart = mLinesToNarrowEnd = 0;
+        if (narrowing) {
+            if (mLinesToNarrow.length < mTranscriptEnd - mTranscriptStart)
+                mLinesToNarrow = new long[mTranscriptEnd - mTranscriptStart];
+            for (int i = mTranscriptStart; i < mTranscriptEnd; i++) {
+                final long lineStartRow = mTranscriptMatches[i].mLineStartRow;
+                if (mLinesToNarrowEnd == 0 || mLinesToNarrow[mLinesToNarrowEnd - 1] != lineStartRow)
+                    mLinesToNarrow[mLinesToNarrowEnd++] = lineStartRow;
+            }
+        } else {
+            mSearchedUntilRow = Long.MIN_VALUE;
+        }
+        mQuery = query;
+        // Published results may still be using the old array:
+        mTranscriptMatches = new Match[64];
+        mTranscriptStart = mTranscriptEnd = 0;
+        mScreenMatches = new Match[0];
+    }
+
+    /** Append {@link #mLineMatches} to the transcript matches. */
+    private void addTranscriptMatches() {
+        final int matches = mLineMatches.size();
+        if (matches == 0) return;
+        if (mTranscriptEnd + matches > mTranscriptMatches.length) {
+            final int kept = mTranscriptEnd - mTranscriptStart;
+            // Published results may still be using the old array, so always copy into a new one:
+            Match[] newMatches = new Match[Math.max(64, 2 * (kept + matches))];
+            System.arraycopy(mTranscriptMatches, mTranscriptStart, newMatches, 0, kept);
+            mTranscriptMatches = newMatches;
+            mTranscriptStart = 0;
+            mTranscriptEnd = kept;
+        }
+        for (int i = 0; i < matches; i++) mTranscriptMatches[mTranscriptEnd++] = mLineMatches.get(i);
+    }
+
+    private void publish(Match[] screenMatches, boolean complete) {
+        mResults = new Results(mScreen, mTranscriptGeneration, mTranscriptStart, mTranscriptMatches, mTranscriptEnd,
+            screenMatches, complete, ++mVersion);
+    }
+
+    /**
+     * Search the logical line starting at a row, putting the matches in {@link #mLineMatches}.
+     *
+     * @param archiveCursor For reading rows in the archived part of the transcript, see {@link TerminalBuffer#getRow(int, TranscriptArchive.RowCursor)}.
+     * @return The number of rows in the line.
+     */
+    private int searchLine(TerminalBuffer screen, TranscriptArchive.RowCursor archiveCursor, int startRow, long scrolledRows) {
+        final StringBuilder text = mLineText;
+        text.setLength(0);
+        mLineMatches.clear();
+
+        int rows = 0;
+        while (true) {
+            final TerminalRow row = screen.getRow(startRow + rows, archiveCursor);
+            if (rows + 1 >= mLineRowStarts.length) mLineRowStarts = Arrays.copyOf(mLineRowStarts, 2 * mLineRowStarts.length);
+            mLineRowStarts[rows++] = text.length();
+            char[] chars = row.mText;
+            if (chars == null) chars = mFrozenRowText = row.decodeAsciiText(mFrozenRowText);
+            int length = row.getSpaceUsed();
+            if (!row.mLineWrap || startRow + rows >= screen.mScreenRows) {
+                // Trailing spaces of the last row are not part of the line, as when selecting text:
+                while (length > 0 && chars[length - 1] == ' ') length--;
+                text.append(chars, 0, length);
+                break;
+            }
+            text.append(chars, 0, length);
+        }
+        mLineRowStarts[rows] = text.length();
+
+        final Matcher matcher = mQuery.mPattern.matcher(text);
+        while (matcher.find()) {
+            final int start = matcher.start();
+            int end = matcher.end();
+            if (start == end) continue;
+            // Include combining characters following the match, which are displayed together with the last character:
+            while (end < text.length() && WcWidth.width(Character.codePointAt(text, end)) <= 0) end++;
+
+            final int startRowIndex = findRowIndex(start, rows);
+            final int endRowIndex = findRowIndex(end - 1, rows);
+            // Rows from the cursor are only valid until the next one is read, so they are used one at a time:
+            final int startColumn = screen.getRow(startRow + startRowIndex, archiveCursor)
+                .findColumnOfCharIndex(start - mLineRowStarts[startRowIndex]);
+            int endColumn = screen.getRow(startRow + endRowIndex, archiveCursor)
+                .findColumnOfCharIndex(end - mLineRowStarts[endRowIndex]);
+            if (endRowIndex == startRowIndex && endColumn <= startColumn) endColumn = startColumn + 1;
+            mLineMatches.add(new Match(scrolledRows + startRow, scrolledRows + startRow + startRowIndex, startColumn,
+                scrolledRows + startRow + endRowIndex, endColumn));
+        }
+        return rows;
+    }
+
+    /** The index of the row in the line being searched which contains the char at an index in {@link #mLineText}. */
+    private int findRowIndex(int charIndex, int rows) {
+        int rowIndex = Arrays.binarySearch(mLineRowStarts, 0, rows, charIndex);
+        if (rowIndex < 0) return -rowIndex - 2;
+        // Skip rows without any text, which start where the next one does:
+        while (rowIndex + 1 < rows && mLineRowStarts[rowIndex + 1] == charIndex) rowIndex++;
+        return rowIndex;
+    }
+
+}
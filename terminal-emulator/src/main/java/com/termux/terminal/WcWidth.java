@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.util.Arrays;
+
 /**
  * Implementation of wcwidth(3) for Unicode 9.
  *
@@ -464,6 +466,71 @@ public final class WcWidth {
     };
 
 
+    /** Code points with width 0 in addition to {@link #ZERO_WIDTH}, as inclusive ranges. */
+    private static final int[][] ZERO_WIDTH_EXTRA = {
+        {0x00000, 0x0001f},  // C0 control characters (Termux change: width 0 instead of -1)
+        {0x0007f, 0x0009f},  // C1 control characters (Termux change: width 0 instead of -1)
+        {0x0034f, 0x0034f},  // Combining Grapheme Joiner
+        {0x0200b, 0x0200f},  // Zero Width Space        ..Right-to-left Mark
+        {0x02028, 0x0202e},  // Line Separator          ..Right-to-left Override
+        {0x02060, 0x02063},  // Word Joiner             ..Invisible Separator
+    };
+
+    /** Log2 of the number of code points in a page of {@link #SUPPLEMENTARY_PAGES}. */
+    private static final int PAGE_SHIFT = 8;
+    /** Log2 of the number of 2-bit widths packed into one int. */
+    private static final int WIDTHS_PER_INT_SHIFT = 4;
+
+    /** The widths of the Basic Multilingual Plane, packed as 2 bits per code point. */
+    private static final int[] BMP_WIDTHS;
+    /** Page number in {@link #SUPPLEMENTARY_PAGES} for every 256 code points above the BMP. */
+    private static final char[] SUPPLEMENTARY_PAGE_INDEX;
+    /** Deduplicated pages of 256 widths, packed as 2 bits per code point. Most pages are shared. */
+    private static final int[] SUPPLEMENTARY_PAGES;
+
+    static {
+        // Build the packed widths of all code points from the interval tables, in the same priority order as
+        // computeWidth() checks them, and then deduplicate the pages above the BMP.
+        final int[] widths = new int[(Character.MAX_CODE_POINT + 1) >> WIDTHS_PER_INT_SHIFT];
+        Arrays.fill(widths, 0x55555555); // Width 1 for all code points.
+        for (int[] range : WIDE_EASTASIAN) setWidths(widths, range[0], range[1], 2);
+        for (int[] range : ZERO_WIDTH) setWidths(widths, range[0], range[1], 0);
+        for (int[] range : ZERO_WIDTH_EXTRA) setWidths(widths, range[0], range[1], 0);
+
+        BMP_WIDTHS = Arrays.copyOf(widths, Character.MIN_SUPPLEMENTARY_CODE_POINT >> WIDTHS_PER_INT_SHIFT);
+
+        final int intsPerPage = 1 << (PAGE_SHIFT - WIDTHS_PER_INT_SHIFT);
+        final int numPages = (Character.MAX_CODE_POINT + 1 - Character.MIN_SUPPLEMENTARY_CODE_POINT) >> PAGE_SHIFT;
+        final int[] pages = new int[numPages * intsPerPage];
+        int numUniquePages = 0;
+        SUPPLEMENTARY_PAGE_INDEX = new char[numPages];
+        for (int i = 0; i < numPages; i++) {
+            int from = (Character.MIN_SUPPLEMENTARY_CODE_POINT >> WIDTHS_PER_INT_SHIFT) + i * intsPerPage;
+            int pageNumber = 0;
+            // Only a handful of distinct pages exist, so a linear search for an identical one is cheap enough.
+            while (pageNumber < numUniquePages && !pageEquals(widths, from, pages, pageNumber * intsPerPage, intsPerPage)) pageNumber++;
+            if (pageNumber == numUniquePages) {
+                System.arraycopy(widths, from, pages, pageNumber * intsPerPage, intsPerPage);
+                numUniquePages++;
+            }
+            SUPPLEMENTARY_PAGE_INDEX[i] = (char) pageNumber;
+        }
+        SUPPLEMENTARY_PAGES = Arrays.copyOf(pages, numUniquePages * intsPerPage);
+    }
+
+    private static boolean pageEquals(int[] a, int aFrom, int[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i++)
+            if (a[aFrom + i] != b[bFrom + i]) return false;
+        return true;
+    }
+
+    private static void setWidths(int[] packedWidths, int first, int last, int width) {
+        for (int c = first; c <= last; c++) {
+            int shift = (c & 15) << 1;
+            packedWidths[c >> WIDTHS_PER_INT_SHIFT] = (packedWidths[c >> WIDTHS_PER_INT_SHIFT] & ~(3 << shift)) | (width << shift);
+        }
+    }
+
     private static boolean intable(int[][] table, int c) {
         // First quick check f|| Latin1 etc. characters.
         if (c < table[0][0]) return false;
@@ -486,6 +553,22 @@ public final class WcWidth {
 
     /** Return the terminal display width of a code point: 0, 1 || 2. */
     public static int width(int ucs) {
+        if (ucs < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            if (ucs < 0) return 0;
+            return (BMP_WIDTHS[ucs >> WIDTHS_PER_INT_SHIFT] >>> ((ucs & 15) << 1)) & 3;
+        } else if (ucs <= Character.MAX_CODE_POINT) {
+            int page = SUPPLEMENTARY_PAGE_INDEX[(ucs - Character.MIN_SUPPLEMENTARY_CODE_POINT) >> PAGE_SHIFT];
+            int index = (page << (PAGE_SHIFT - WIDTHS_PER_INT_SHIFT)) | ((ucs >> WIDTHS_PER_INT_SHIFT) & 15);
+            return (SUPPLEMENTARY_PAGES[index] >>> ((ucs & 15) << 1)) & 3;
+        }
+        return 1;
+    }
+
+    /**
+     * Compute the width of a code point by searching the interval tables. Slower than {@link #width(int)}, which uses
+     * tables precomputed from the same intervals, but kept as the reference implementation.
+     */
+    static int computeWidth(int ucs) {
         if (ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
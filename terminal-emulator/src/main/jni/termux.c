@@ -1,11 +1,14 @@
 #include <dirent.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <jni.h>
 #include <signal.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/epoll.h>
 #include <sys/ioctl.h>
+#include <sys/syscall.h>
 #include <sys/wait.h>
 #include <termios.h>
 #include <unistd.h>
@@ -15,6 +18,23 @@
 # define LACKS_PTSNAME_R
 #endif
 
+// Keep in sync with the PTY_* constants in JNI.java:
+#define PTY_READABLE 1
+#define PTY_WRITABLE 2
+#define PTY_HANGUP 4
+
+// Keep in sync with the PROCESS_* constants in JNI.java:
+#define PROCESS_RUNNING 0x7fffffff
+#define PROCESS_EXIT_STATUS_UNKNOWN ((jint) 0x80000000)
+
+#ifndef __NR_pidfd_open
+// The same number on all architectures, as for all system calls added since Linux 5.1.
+# define __NR_pidfd_open 434
+#endif
+
+// The most events returned by one call to waitForPtyEvents() or waitForProcessEvents().
+#define PTY_MAX_EVENTS 64
+
 static int throw_runtime_exception(JNIEnv* env, char const* message)
 {
     jclass exClass = (*env)->FindClass(env, "java/lang/RuntimeException");
@@ -212,3 +232,241 @@ JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(
 {
     close(fileDescriptor);
 }
+
+static uint32_t pty_interest_to_epoll(jint interest)
+{
+    uint32_t events = 0;
+    if (interest & PTY_READABLE) events |= EPOLLIN;
+    if (interest & PTY_WRITABLE) events |= EPOLLOUT;
+    return events;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createPtyReactor(JNIEnv* env, jclass TERMUX_UNUSED(clazz))
+{
+    int epfd = epoll_create1(EPOLL_CLOEXEC);
+    if (epfd < 0) return throw_runtime_exception(env, "epoll_create1() failed");
+    return epfd;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_addToPtyReactor(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epfd, jint fd, jint token, jint interest)
+{
+    int flags = fcntl(fd, F_GETFL);
+    if (flags < 0 || fcntl(fd, F_SETFL, flags | O_NONBLOCK) < 0) {
+        throw_runtime_exception(env, "Cannot make pty non-blocking");
+        return;
+    }
+    struct epoll_event event = { .events = pty_interest_to_epoll(interest), .data.u32 = (uint32_t) token };
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &event) < 0) throw_runtime_exception(env, "epoll_ctl(EPOLL_CTL_ADD) failed");
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_modifyInPtyReactor(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epfd, jint fd, jint token, jint interest)
+{
+    struct epoll_event event = { .events = pty_interest_to_epoll(interest), .data.u32 = (uint32_t) token };
+    if (epoll_ctl(epfd, EPOLL_CTL_MOD, fd, &event) < 0) throw_runtime_exception(env, "epoll_ctl(EPOLL_CTL_MOD) failed");
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_removeFromPtyReactor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint epfd, jint fd)
+{
+    // Kernels before 2.6.9 require a non-null event even though it is ignored.
+    struct epoll_event event = { 0 };
+    epoll_ctl(epfd, EPOLL_CTL_DEL, fd, &event);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitForPtyEvents(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epfd, jintArray eventsArray)
+{
+    struct epoll_event events[PTY_MAX_EVENTS];
+    int max_events = (*env)->GetArrayLength(env, eventsArray) / 2;
+    if (max_events > PTY_MAX_EVENTS) max_events = PTY_MAX_EVENTS;
+
+    int count = epoll_wait(epfd, events, max_events, -1);
+    if (count < 0) {
+        if (errno == EINTR) return 0;
+        return throw_runtime_exception(env, "epoll_wait() failed");
+    }
+
+    jint result[2 * PTY_MAX_EVENTS];
+    for (int i = 0; i < count; i++) {
+        uint32_t flags = events[i].events;
+        result[2 * i] = (jint) events[i].data.u32;
+        result[2 * i + 1] = ((flags & EPOLLIN) ? PTY_READABLE : 0)
+            | ((flags & EPOLLOUT) ? PTY_WRITABLE : 0)
+            | ((flags & (EPOLLHUP | EPOLLERR)) ? PTY_HANGUP : 0);
+    }
+    (*env)->SetIntArrayRegion(env, eventsArray, 0, 2 * count, result);
+    return count;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_readPty(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jobject buffer, jint offset, jint length)
+{
+    char* address = (*env)->GetDirectBufferAddress(env, buffer);
+    if (address == NULL) return throw_runtime_exception(env, "readPty() needs a direct buffer");
+
+    ssize_t bytes_read;
+    do {
+        bytes_read = read(fd, address + offset, (size_t) length);
+    } while (bytes_read < 0 && errno == EINTR);
+
+    if (bytes_read < 0) return (errno == EAGAIN || errno == EWOULDBLOCK) ? 0 : -1;
+    // The master side reads EIO rather than end of file when the slave side is closed, but handle both:
+    if (bytes_read == 0) return -1;
+    return (jint) bytes_read;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_writePty(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jobject buffer, jint offset, jint length)
+{
+    char const* address = (*env)->GetDirectBufferAddress(env, buffer);
+    if (address == NULL) return throw_runtime_exception(env, "writePty() needs a direct buffer");
+
+    ssize_t bytes_written;
+    do {
+        bytes_written = write(fd, address + offset, (size_t) length);
+    } while (bytes_written < 0 && errno == EINTR);
+
+    if (bytes_written < 0) return (errno == EAGAIN || errno == EWOULDBLOCK) ? 0 : -1;
+    return (jint) bytes_written;
+}
+
+// The self-pipe through which the process reaper is woken up, by the SIGCHLD handler if not using pidfds.
+static int reaper_pipe[2] = { -1, -1 };
+static struct sigaction previous_sigchld_action;
+static int reaper_uses_pidfd = 0;
+// If the SIGCHLD handler is used, for all processes or for those for which no pidfd could be watched.
+static int reaper_uses_sigchld = 0;
+
+static void reaper_sigchld_handler(int signal, siginfo_t* info, void* context)
+{
+    int saved_errno = errno;
+    char byte = 0;
+    // Ignoring a full pipe, which already wakes up the reaper:
+    TERMUX_UNUSED(ssize_t result) = write(reaper_pipe[1], &byte, 1);
+    errno = saved_errno;
+
+    if (previous_sigchld_action.sa_flags & SA_SIGINFO) {
+        if (previous_sigchld_action.sa_sigaction) previous_sigchld_action.sa_sigaction(signal, info, context);
+    } else if (previous_sigchld_action.sa_handler != SIG_DFL && previous_sigchld_action.sa_handler != SIG_IGN) {
+        previous_sigchld_action.sa_handler(signal);
+    }
+}
+
+// The handler is installed again if found replaced, as java.lang.Process does when first used.
+static int install_sigchld_handler(void)
+{
+    struct sigaction current;
+    if (sigaction(SIGCHLD, NULL, &current) == 0 && (current.sa_flags & SA_SIGINFO)
+            && current.sa_sigaction == reaper_sigchld_handler) return 0;
+
+    struct sigaction action;
+    memset(&action, 0, sizeof(action));
+    action.sa_sigaction = reaper_sigchld_handler;
+    action.sa_flags = SA_SIGINFO | SA_RESTART | SA_NOCLDSTOP;
+    sigemptyset(&action.sa_mask);
+    return sigaction(SIGCHLD, &action, NULL);
+}
+
+// Start waking up the reaper on SIGCHLD, chaining to the handler installed before.
+static int start_sigchld_wakeups(void)
+{
+    if (!reaper_uses_sigchld) {
+        if (sigaction(SIGCHLD, NULL, &previous_sigchld_action) < 0) return -1;
+        reaper_uses_sigchld = 1;
+    }
+    return install_sigchld_handler();
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createProcessReaper(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jboolean mayUsePidfd)
+{
+    int epfd = epoll_create1(EPOLL_CLOEXEC);
+    if (epfd < 0) return throw_runtime_exception(env, "epoll_create1() failed");
+    if (pipe2(reaper_pipe, O_CLOEXEC | O_NONBLOCK) < 0) {
+        close(epfd);
+        return throw_runtime_exception(env, "pipe2() failed");
+    }
+    // Events for the pipe are reported with pid 0, which is never watched.
+    struct epoll_event event = { .events = EPOLLIN, .data.u32 = 0 };
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, reaper_pipe[0], &event) < 0) {
+        close(epfd);
+        return throw_runtime_exception(env, "epoll_ctl(EPOLL_CTL_ADD) failed");
+    }
+
+    if (mayUsePidfd) {
+        // The kernel may still lack pidfd_open(), which was added in Linux 5.3:
+        int pidfd = (int) syscall(__NR_pidfd_open, getpid(), 0);
+        if (pidfd >= 0) {
+            close(pidfd);
+            reaper_uses_pidfd = 1;
+        }
+    }
+    if (!reaper_uses_pidfd && start_sigchld_wakeups() < 0) {
+        close(epfd);
+        return throw_runtime_exception(env, "sigaction(SIGCHLD) failed");
+    }
+    return epfd;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_watchProcess(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epfd, jint pid)
+{
+    if (reaper_uses_sigchld) install_sigchld_handler();
+    if (!reaper_uses_pidfd) return -1;
+
+    int pidfd = (int) syscall(__NR_pidfd_open, (pid_t) pid, 0);
+    if (pidfd >= 0) {
+        // A pidfd becomes readable once the process has terminated:
+        struct epoll_event event = { .events = EPOLLIN, .data.u32 = (uint32_t) pid };
+        if (epoll_ctl(epfd, EPOLL_CTL_ADD, pidfd, &event) == 0) return pidfd;
+        int saved_errno = errno;
+        close(pidfd);
+        errno = saved_errno;
+    }
+    // Already reaped, so polling it once tells as much:
+    if (errno == ESRCH) return -1;
+    // Out of file descriptors or memory, so fall back to polling the process when SIGCHLD wakes up the reaper:
+    if (start_sigchld_wakeups() < 0) return throw_runtime_exception(env, "sigaction(SIGCHLD) failed");
+    return -1;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_wakeProcessReaper(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz))
+{
+    char byte = 0;
+    TERMUX_UNUSED(ssize_t result) = write(reaper_pipe[1], &byte, 1);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitForProcessEvents(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epfd, jintArray pidsArray, jint timeoutMillis)
+{
+    struct epoll_event events[PTY_MAX_EVENTS];
+    int max_events = (*env)->GetArrayLength(env, pidsArray);
+    if (max_events > PTY_MAX_EVENTS) max_events = PTY_MAX_EVENTS;
+
+    int count = epoll_wait(epfd, events, max_events, timeoutMillis);
+    if (count < 0) {
+        if (errno == EINTR) return 0;
+        return throw_runtime_exception(env, "epoll_wait() failed");
+    }
+
+    jint pids[PTY_MAX_EVENTS];
+    for (int i = 0; i < count; i++) {
+        pids[i] = (jint) events[i].data.u32;
+        if (pids[i] == 0) {
+            char drain[64];
+            while (read(reaper_pipe[0], drain, sizeof(drain)) > 0);
+        }
+    }
+    (*env)->SetIntArrayRegion(env, pidsArray, 0, count, pids);
+    return count;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_pollProcessExit(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid, jboolean reap)
+{
+    siginfo_t info;
+    memset(&info, 0, sizeof(info));
+    // Leave the process for its owner to reap if asked to, only looking at how it terminated:
+    int options = WEXITED | WNOHANG | (reap ? 0 : WNOWAIT);
+    int result;
+    do {
+        result = waitid(P_PID, (id_t) pid, &info, options);
+    } while (result < 0 && errno == EINTR);
+
+    // Already reaped, which only the owner should have done:
+    if (result < 0) return PROCESS_EXIT_STATUS_UNKNOWN;
+    if (info.si_pid == 0) return PROCESS_RUNNING;
+    return (info.si_code == CLD_EXITED) ? info.si_status : -info.si_status;
+}
@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+
 public class ByteQueueTest extends TestCase {
 
 	private static void assertArrayEquals(byte[] expected, byte[] actual) {
@@ -51,4 +53,29 @@ public class ByteQueueTest extends TestCase {
 		assertEquals(0, q.read(new byte[128], false));
 	}
 
+	public void testReadIntoByteBuffer() throws Exception {
+		ByteQueue q = new ByteQueue(10);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+		assertEquals(0, q.read(buffer));
+
+		// Wrapping around, and only filling the remaining space of the buffer:
+		q.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+		q.read(new byte[6], false);
+		q.write(new byte[]{9, 10, 11, 12, 13}, 0, 5);
+		buffer.put((byte) 0);
+		assertEquals(3, q.read(buffer));
+		byte[] read = new byte[4];
+		buffer.flip();
+		buffer.get(read);
+		assertArrayEquals(new byte[]{0, 7, 8, 9}, read);
+		buffer.clear();
+		assertEquals(4, q.read(buffer));
+		buffer.flip();
+		buffer.get(read);
+		assertArrayEquals(new byte[]{10, 11, 12, 13}, read);
+
+		q.close();
+		assertEquals(-1, q.read(buffer));
+	}
+
 }
@@ -35,6 +35,26 @@ public class ControlSequenceIntroducerTest extends TerminalTestCase {
 		withTerminalSized(3, 2).enterString("\033[0;38;2;255;255;255;48;2;0;0;0;1;2;3;4;5;7;8;9mabc").assertLinesAre("abc", "   ");
 	}
 
+	/** The parameters of sequences given to {@link TerminalEmulator#append(byte[], int)} are parsed as when processed one by one. */
+	public void testSequencesParsedAsCodePointsOneByOne() {
+		String input = "\033[01;32mok\033[0m \033[1;31;48;5;236merror\033[m: \033[38;2;1;22;255mx\033[K\r\n"
+			+ "\033[99999999999999mA\033[;;;4mB\033[1;2;3;4;5;6;7;8;9;10;11;12;13;14;15;16;17;18mC\033[0m\r\n"
+			+ "\033[?25l\033[?1049h\033[2;3Hz\033[?1049l\033[?25h\033[>0c\033[3\033[4mD\033[5\030E\033[12\r\n3mF\n"
+			+ "\033[6n\033[?6n\033]0;title\007\033[1;30m\033[2@G";
+		withTerminalSized(8, 4).enterString(input);
+		TerminalEmulator oneByOne = new TerminalEmulator(new MockTerminalOutput(), 8, 4, 8, null);
+		for (int i = 0; i < input.length(); i++)
+			oneByOne.processCodePoint(input.charAt(i));
+
+		assertEquals(oneByOne.getScreen().getTranscriptText(), mTerminal.getScreen().getTranscriptText());
+		for (int row = 0; row < 4; row++)
+			for (int column = 0; column < 8; column++)
+				assertEquals(oneByOne.getScreen().getStyleAt(row, column), getStyleAt(row, column));
+		assertEquals(oneByOne.getCursorRow(), mTerminal.getCursorRow());
+		assertEquals(oneByOne.getCursorCol(), mTerminal.getCursorCol());
+		assertEquals("\033[>41;320;0c\033[4;2R\033[?4;2;1R", mOutput.getOutputAndClear());
+	}
+
 	/** CSI Ps b  Repeat the preceding graphic character Ps times (REP). */
 	public void testRepeat() {
 		withTerminalSized(3, 2).enterString("a\033[b").assertLinesAre("aa ", "   ");
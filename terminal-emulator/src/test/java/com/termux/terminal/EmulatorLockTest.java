@@ -0,0 +1,69 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+public class EmulatorLockTest extends TestCase {
+
+	/** An idle session locking and unlocking from one thread at a time should not notify about unlocking at all. */
+	public void testNoNotificationsWhenUncontended() {
+		EmulatorLock lock = new EmulatorLock();
+		int notifications = 0;
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(lock.tryLockOrAwait());
+			if (lock.unlock()) notifications++;
+			lock.lock();
+			if (lock.unlock()) notifications++;
+		}
+		assertEquals(0, notifications);
+	}
+
+	/** A failed attempt makes the holder notify once when unlocking, and only then. */
+	public void testNotificationAfterFailedAttempt() throws Exception {
+		final EmulatorLock lock = new EmulatorLock();
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch attempted = new CountDownLatch(1);
+		final boolean[] notified = {false};
+		Thread holder = new Thread() {
+			@Override
+			public void run() {
+				lock.lock();
+				locked.countDown();
+				try {
+					attempted.await();
+				} catch (InterruptedException e) {
+					// Unlock right away.
+				}
+				notified[0] = lock.unlock();
+			}
+		};
+		holder.start();
+		locked.await();
+		assertFalse(lock.tryLockOrAwait());
+		attempted.countDown();
+		holder.join(5000);
+		assertTrue(notified[0]);
+
+		assertTrue(lock.tryLockOrAwait());
+		assertFalse(lock.unlock());
+	}
+
+	/** Plain attempts, as made by threads which retry by themselves, do not make the holder notify. */
+	public void testPlainTryLockDoesNotAwait() throws Exception {
+		final EmulatorLock lock = new EmulatorLock();
+		lock.lock();
+		final boolean[] locked = {true};
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				locked[0] = lock.tryLock();
+			}
+		};
+		other.start();
+		other.join(5000);
+		assertFalse(locked[0]);
+		assertFalse(lock.unlock());
+	}
+
+}
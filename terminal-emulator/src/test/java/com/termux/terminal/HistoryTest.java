@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.io.File;
+import java.io.StringWriter;
 
 public class HistoryTest extends TerminalTestCase {
 
@@ -30,4 +32,292 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	/** Rows scrolled into the transcript are frozen into a compact form using a fraction of the memory. */
+	public void testTranscriptRowMemoryFootprint() {
+		final int columns = 80;
+		withTerminalSized(columns, 10);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			output.append("\033[32m-rw-r--r--\033[0m 1 user group ").append(1000 + i).append(" Oct 17 file").append(i).append(".txt\r\n");
+		enterString(output.toString());
+
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(91, screen.getActiveTranscriptRows());
+		TerminalRow screenRow = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(0));
+		TerminalRow transcriptRow = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(-1));
+		assertTrue(transcriptRow.isFrozenAscii());
+		assertFalse(screenRow.isFrozenAscii());
+
+		// On screen: char[120] (256 bytes) and long[80] (656 bytes).
+		assertEquals(912, screenRow.getArraysMemoryUsage());
+		// In the transcript: byte[80] (96 bytes) and two style runs in a long[4] (48 bytes).
+		assertEquals(144, transcriptRow.getArraysMemoryUsage());
+		assertEquals("-rw-r--r-- 1 user group 1090 Oct 17 file90.txt", mTerminal.getScreen().getSelectedText(0, -1, columns, -1).trim());
+	}
+
+	/** Once the transcript is full, scrolling reuses the rows and arrays which it frees instead of allocating new ones. */
+	public void testRowsReusedWhileScrolling() {
+		for (boolean archived : new boolean[]{false, true}) {
+			withTerminalSized(20, 3);
+			TerminalBuffer screen = mTerminal.getScreen();
+			if (archived) screen.setCompressedTranscriptRows(1000);
+			TerminalRowPool pool = screen.getRowPool();
+
+			StringBuilder output = new StringBuilder();
+			for (int i = 0; i < screen.mTotalRows + 10; i++)
+				output.append("\033[3").append(i % 8).append("mline ").append(i).append("\033[0m\r\n");
+			enterString(output.toString());
+			long allocated = pool.getAllocatedCount();
+			long reused = pool.getReusedCount();
+
+			enterString(output.toString());
+			assertEquals(allocated, pool.getAllocatedCount());
+			assertTrue(pool.getReusedCount() - reused >= 3 * screen.mTotalRows);
+			assertEquals("line " + (screen.mTotalRows + 9), screen.getSelectedText(0, 1, 20, 1).trim());
+
+			// Clearing the transcript keeps no more than the pool can hold:
+			long discarded = pool.getDiscardedCount();
+			enterString("\033[3J");
+			assertTrue(pool.getPooledCount() <= 4 * TerminalRowPool.MAX_POOLED);
+			assertTrue(pool.getDiscardedCount() - discarded >= screen.mTotalRows - 3 - TerminalRowPool.MAX_POOLED);
+		}
+	}
+
+	public void testCompressedTranscript() {
+		withTerminalSized(20, 3);
+		TerminalBuffer screen = mTerminal.getScreen();
+		screen.setCompressedTranscriptRows(1000);
+		final int uncompressedTranscriptRows = screen.mTotalRows - 3;
+
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 2500; i++)
+			output.append("\033[3").append(i % 8).append("mline ").append(i).append("\033[0m\r\n");
+		enterString(output.toString());
+		int compressedRows = 2500 - 2 - uncompressedTranscriptRows;
+		assertEquals(compressedRows, screen.getArchivedTranscriptRows());
+		assertEquals(uncompressedTranscriptRows + compressedRows, screen.getActiveTranscriptRows());
+
+		// The oldest row, and the rows on both sides of where the compressed transcript ends:
+		int oldestRow = -screen.getActiveTranscriptRows();
+		assertLineIs(oldestRow, "line 0              ");
+		assertForegroundColorAt(oldestRow, 0, 0);
+		assertForegroundColorAt(oldestRow, 6, TextStyle.COLOR_INDEX_FOREGROUND);
+		int newestCompressedRow = oldestRow + compressedRows - 1;
+		assertLineIs(newestCompressedRow, "line " + (compressedRows - 1) + "            ");
+		assertForegroundColorAt(newestCompressedRow, 0, (compressedRows - 1) % 8);
+		assertEquals("line " + (compressedRows - 1) + "\nline " + compressedRows,
+				screen.getSelectedText(0, newestCompressedRow, 20, newestCompressedRow + 1));
+
+		// Rows in the compressed transcript keep their width, but are laid out for the current width:
+		resize(30, 3);
+		assertEquals(oldestRow, -screen.getActiveTranscriptRows());
+		assertEquals("line 0", screen.getSelectedText(0, oldestRow, 30, oldestRow));
+		// Narrowing reflows the uncompressed rows into more rows, pushing more of them into the compressed transcript:
+		resize(4, 3);
+		oldestRow = -screen.getActiveTranscriptRows();
+		assertEquals(4, screen.getRow(oldestRow).getColumns());
+		assertEquals(4, screen.getSelectedText(0, oldestRow, 4, oldestRow).length());
+
+		// The oldest blocks are dropped when full:
+		enterString(output.toString());
+		assertTrue(screen.getArchivedTranscriptRows() <= 1000);
+		assertTrue(screen.getArchivedTranscriptRows() > 1000 - CompressedTranscript.BLOCK_ROWS);
+
+		screen.clearTranscript();
+		assertEquals(0, screen.getActiveTranscriptRows());
+	}
+
+	public void testTrimTranscript() {
+		withTerminalSized(3, 3).enterString("111222333444555666777888999");
+		TerminalBuffer screen = mTerminal.getScreen();
+		int generation = screen.getTranscriptGeneration();
+		mTerminal.trimTranscript(10);
+		assertEquals(generation, screen.getTranscriptGeneration());
+		assertEquals(6, screen.getActiveTranscriptRows());
+
+		mTerminal.trimTranscript(2);
+		assertEquals(2, screen.getActiveTranscriptRows());
+		assertTrue(generation != screen.getTranscriptGeneration());
+		assertLinesAre("777", "888", "999");
+		assertHistoryStartsWith("666", "555");
+		enterString("AAA").assertHistoryStartsWith("777", "666", "555");
+
+		// Archived rows are older than all rows kept:
+		withTerminalSized(20, 3);
+		screen = mTerminal.getScreen();
+		screen.setCompressedTranscriptRows(1000);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 2500; i++) output.append("line ").append(i).append("\r\n");
+		enterString(output.toString());
+		assertTrue(screen.getArchivedTranscriptRows() > 0);
+		mTerminal.trimTranscript(6);
+		assertEquals(0, screen.getArchivedTranscriptRows());
+		assertEquals(6, screen.getActiveTranscriptRows());
+		assertLineIs(-6, "line 2492           ");
+	}
+
+	public void testSpilledTranscript() throws Exception {
+		withTerminalSized(20, 3);
+		TerminalBuffer screen = mTerminal.getScreen();
+		File file = File.createTempFile("transcript-", null);
+		mTerminal.spillTranscriptTo(file);
+		assertFalse(file.exists());
+		final int uncompressedTranscriptRows = screen.mTotalRows - 3;
+
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			output.append("\033[3").append(i % 8).append("mline ").append(i).append("\033[0m\r\n");
+		enterString(output.toString());
+		int spilledRows = 20000 - 2 - uncompressedTranscriptRows;
+		assertEquals(spilledRows, screen.getArchivedTranscriptRows());
+
+		for (int i : new int[]{0, 1, CompressedTranscript.BLOCK_ROWS, spilledRows - 1}) {
+			int row = -screen.getActiveTranscriptRows() + i;
+			assertLineIs(row, ("line " + i + "                    ").substring(0, 20));
+			assertForegroundColorAt(row, 0, i % 8);
+		}
+		assertEquals("line " + (spilledRows - 1) + "\nline " + spilledRows,
+				screen.getSelectedText(0, -screen.getActiveTranscriptRows() + spilledRows - 1, 20, -screen.getActiveTranscriptRows() + spilledRows));
+
+		screen.clearTranscript();
+		assertEquals(0, screen.getActiveTranscriptRows());
+		enterString(output.toString());
+		// The rows left on screen when clearing are the first to be scrolled into the transcript again:
+		assertLineIs(-screen.getActiveTranscriptRows(), "line 19998          ");
+		assertLineIs(-screen.getActiveTranscriptRows() + 2, "line 0              ");
+	}
+
+	/** Once all blocks of a chunk of the spilled transcript are dropped, its space in the file is used again. */
+	public void testSpilledTranscriptReusesFile() throws Exception {
+		SpilledTranscript transcript = new SpilledTranscript(File.createTempFile("transcript-", null), 20000);
+		try {
+			// Each row takes about 90 bytes, so that 20000 rows fit in a chunk and 200000 rows in three:
+			for (int i = 0; i < 200000; i++) {
+				TerminalRow row = new TerminalRow(80, TextStyle.NORMAL);
+				row.setChar(0, 'a' + i % 26, TextStyle.NORMAL);
+				transcript.add(row);
+			}
+			assertTrue(transcript.size() <= 20000);
+			assertTrue(transcript.getStoredBytes() < 8 * 1024 * 1024);
+			assertEquals(2 * 8 * 1024 * 1024, transcript.getFileBytes());
+			assertTrue(transcript.getMappedChunkCount() <= 2);
+			assertEquals('a' + (200000 - 1) % 26, transcript.getRow(transcript.size() - 1, 80).getText()[0]);
+			assertEquals('a' + (200000 - transcript.size()) % 26, transcript.getRow(0, 80).getText()[0]);
+
+			transcript.clear();
+			assertEquals(0, transcript.getMappedChunkCount());
+			TerminalRow row = new TerminalRow(80, TextStyle.NORMAL);
+			row.setChar(0, 'x', TextStyle.NORMAL);
+			for (int i = 0; i < TranscriptArchive.BLOCK_ROWS + 1; i++) transcript.add(row);
+			assertEquals('x', transcript.getRow(0, 80).getText()[0]);
+			assertEquals(1, transcript.getMappedChunkCount());
+			assertEquals(2 * 8 * 1024 * 1024, transcript.getFileBytes());
+		} finally {
+			transcript.close();
+		}
+	}
+
+	/** Rows in the compressed transcript use a small fraction of the memory of uncompressed rows. */
+	public void testCompressedTranscriptMemoryFootprint() {
+		CompressedTranscript transcript = new CompressedTranscript(100000);
+		long style = TextStyle.encode(2, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		long uncompressedBytes = 0;
+		for (int i = 0; i < 10000; i++) {
+			TerminalRow row = new TerminalRow(80, TextStyle.NORMAL);
+			String text = "-rw-r--r-- 1 user group " + (1000 + i) + " Oct 17 file" + i + ".txt";
+			for (int column = 0; column < text.length(); column++) row.setChar(column, text.charAt(column), column < 10 ? style : TextStyle.NORMAL);
+			row.freeze();
+			uncompressedBytes += row.getArraysMemoryUsage();
+			transcript.add(row);
+		}
+		assertEquals(10000, transcript.size());
+		// Frozen rows use 144 bytes of arrays, while the compressed ones use less than 16 bytes each:
+		assertEquals(144 * 10000, uncompressedBytes);
+		assertTrue("Stored bytes: " + transcript.getStoredBytes(), transcript.getStoredBytes() < 16 * 10000);
+		TerminalRow newestRow = transcript.getRow(9999, 80);
+		assertEquals("-rw-r--r-- 1 user group 10999 Oct 17 file9999.txt", new String(newestRow.getText(), 0, newestRow.getSpaceUsed()).trim());
+		assertEquals(style, newestRow.getStyle(9));
+	}
+
+	/** Rows may be read by another thread, such as when rendering, while rows are added and old blocks dropped. */
+	public void testTranscriptReadWhileAdding() throws Exception {
+		final CompressedTranscript transcript = new CompressedTranscript(1000);
+		final Throwable[] failure = {null};
+		Thread adder = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 20000; i++) {
+						TerminalRow row = new TerminalRow(10, TextStyle.NORMAL);
+						row.setChar(0, 'a' + i % 26, TextStyle.NORMAL);
+						transcript.add(row);
+					}
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		};
+		adder.start();
+		while (adder.isAlive()) {
+			synchronized (transcript) {
+				int size = transcript.size();
+				if (size == 0) continue;
+				assertEquals(10, transcript.getRow(size - 1, 10).getColumns());
+				assertEquals(10, transcript.getRow(0, 10).getColumns());
+			}
+		}
+		adder.join();
+		assertNull(failure[0]);
+		assertTrue(transcript.size() <= 1000);
+	}
+
+	/** Reading rows in order through a cursor gives the same rows as reading them one by one, in any order. */
+	public void testTranscriptRowCursor() {
+		CompressedTranscript transcript = new CompressedTranscript(100000);
+		int rows = 3 * TranscriptArchive.BLOCK_ROWS + 5;
+		for (int i = 0; i < rows; i++) {
+			TerminalRow row = new TerminalRow(20, TextStyle.NORMAL);
+			String text = "row " + i;
+			for (int column = 0; column < text.length(); column++) row.setChar(column, text.charAt(column), TextStyle.encode(i % 8, 0, 0));
+			row.mLineWrap = (i % 3 == 0);
+			transcript.add(row);
+		}
+
+		TranscriptArchive.RowCursor cursor = transcript.newCursor(10);
+		int[] indices = {0, 1, 5, 127, 128, 200, 3, rows - 1, 2 * TranscriptArchive.BLOCK_ROWS, rows - 5};
+		for (int index : indices) {
+			TerminalRow expected = transcript.getRow(index, 10);
+			TerminalRow actual = cursor.read(index);
+			assertEquals(10, actual.getColumns());
+			assertEquals(new String(expected.getText(), 0, expected.getSpaceUsed()), new String(actual.getText(), 0, actual.getSpaceUsed()));
+			assertEquals(expected.getStyle(0), actual.getStyle(0));
+			assertEquals(expected.mLineWrap, actual.mLineWrap);
+		}
+	}
+
+	/** Writing the transcript streams the same text as the getTranscriptText*() methods, including archived rows. */
+	public void testWriteTranscript() throws Exception {
+		withTerminalSized(10, 3);
+		TerminalBuffer screen = mTerminal.getScreen();
+		screen.setCompressedTranscriptRows(1000);
+		StringBuilder output = new StringBuilder("\r\n  \r\n");
+		for (int i = 0; i < 2500; i++) output.append("line ").append(i).append(i % 7 == 0 ? "  wrapped\r\n" : "\r\n");
+		enterString(output.append("  \r\n").toString());
+		assertTrue(screen.getArchivedTranscriptRows() > 0);
+
+		StringWriter writer = new StringWriter();
+		screen.writeTranscript(writer, true, false);
+		assertEquals(screen.getTranscriptText(), writer.toString());
+		assertTrue(writer.toString().startsWith("line 0  wrapped\nline 1\n"));
+		assertTrue(writer.toString().endsWith("\nline 2498\nline 2499  wrapped"));
+
+		writer = new StringWriter();
+		screen.writeTranscript(writer, true, true);
+		assertEquals(screen.getTranscriptTextWithFullLinesJoined(), writer.toString());
+
+		StringBuilder builder = new StringBuilder();
+		screen.writeTranscript(builder, false, false);
+		assertTrue(builder.toString().startsWith("line 0  wr\napped\nline 1\n"));
+	}
+
 }
@@ -9,6 +9,59 @@ public class ResizeTest extends TerminalTestCase {
 		resize(cols, 3).assertCursorAt(2, 2).assertLinesAre("777", "888", "999");
 	}
 
+	public void testHistoryReflowedLazily() {
+		withTerminalSized(10, 3);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 1000; i++) output.append("line ").append(i).append("\r\n");
+		enterString(output.toString());
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(998, screen.getActiveTranscriptRows());
+
+		// Only the screen and the rows just above it are reflowed right away, each line now taking two rows:
+		mTerminal.resize(5, 3);
+		assertTrue(mTerminal.isReflowPending());
+		assertEquals(2 * TerminalBuffer.IMMEDIATE_REFLOW_ROWS + 2, screen.getActiveTranscriptRows());
+		assertEquals("line 798", screen.getSelectedText(0, -402, 5, -401));
+
+		// The rest is added before the oldest rows, which does not move the newer ones:
+		assertTrue(mTerminal.reflowHistory(100));
+		assertEquals(2 * TerminalBuffer.IMMEDIATE_REFLOW_ROWS + 202, screen.getActiveTranscriptRows());
+		assertEquals("line 698", screen.getSelectedText(0, -602, 5, -601));
+		assertEquals("line 798", screen.getSelectedText(0, -402, 5, -401));
+		//noinspection StatementWithEmptyBody
+		while (mTerminal.reflowHistory(100)) ;
+		// The transcript is full, with the start of the oldest line dropped:
+		assertEquals(1997, screen.getActiveTranscriptRows());
+		assertEquals("0", screen.getSelectedText(0, -1997, 5, -1997));
+		assertEquals("line 1", screen.getSelectedText(0, -1996, 5, -1995));
+		assertLinesAre("line ", "999  ", "     ");
+	}
+
+	/** Archived rows stay in the transcript while the rows after them are reflowed, instead of disappearing meanwhile. */
+	public void testArchivedHistoryKeptWhileReflowing() {
+		withTerminalSized(10, 3);
+		TerminalBuffer screen = mTerminal.getScreen();
+		screen.setCompressedTranscriptRows(1000);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 2500; i++) output.append("line ").append(i).append("\r\n");
+		enterString(output.toString());
+		final int archivedRows = screen.getArchivedTranscriptRows();
+		assertTrue(archivedRows > 0);
+
+		mTerminal.resize(5, 3);
+		assertTrue(mTerminal.isReflowPending());
+		assertEquals(archivedRows, screen.getArchivedTranscriptRows());
+		assertEquals(archivedRows + 2 * TerminalBuffer.IMMEDIATE_REFLOW_ROWS + 2, screen.getActiveTranscriptRows());
+		// Archived rows keep their width, so the oldest one is cut at the new width:
+		assertEquals("line", screen.getSelectedText(0, -screen.getActiveTranscriptRows(), 5, -screen.getActiveTranscriptRows()));
+		assertTrue(screen.getTranscriptText().startsWith("line\nline\n"));
+
+		//noinspection StatementWithEmptyBody
+		while (mTerminal.reflowHistory(100)) ;
+		assertTrue(screen.getArchivedTranscriptRows() >= archivedRows);
+		assertEquals("line 2498", screen.getSelectedText(0, -2, 5, -1));
+	}
+
 	public void testResizeWhenInAltBuffer() {
 		final int rows = 3, cols = 3;
 		withTerminalSized(cols, rows).enterString("a\r\ndef$").assertLinesAre("a  ", "def", "$  ").assertCursorAt(2, 1);
@@ -24,6 +24,24 @@ public class ScreenBufferTest extends TerminalTestCase {
 		assertEquals("XX\nXYY\n YY", screen.getTranscriptText());
 	}
 
+	/** Reading rows not allocated yet, as done without locking by the renderer, leaves the buffer unchanged. */
+	public void testReadingDoesNotAllocateRows() {
+		TerminalBuffer screen = new TerminalBuffer(5, 3, 3);
+		int internalRow = screen.externalToInternalRow(1);
+		screen.mLines[internalRow] = null;
+		TerminalRow row = screen.getRow(1);
+		assertNull(screen.mLines[internalRow]);
+		assertEquals(5, row.getColumns());
+		assertTrue(row.isBlank());
+		assertEquals("", screen.getTranscriptText());
+
+		screen.setChar(0, 1, 'a', 0);
+		assertNotNull(screen.mLines[internalRow]);
+		assertNotSame(row, screen.getRow(1));
+		assertEquals("a", screen.getTranscriptText());
+		assertTrue(row.isBlank());
+	}
+
 	public void testGetSelectedText() {
 		withTerminalSized(5, 3).enterString("ABCDEFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
 		assertEquals("AB", mTerminal.getSelectedText(0, 0, 1, 0));
@@ -62,4 +80,40 @@ public class ScreenBufferTest extends TerminalTestCase {
 		assertEquals("", mTerminal.getScreen().getWordAtLocation(1, 2));
 		assertEquals("", mTerminal.getScreen().getWordAtLocation(2, 2));
 	}
+
+	public void testGetWordAtLocationInTranscript() {
+		withTerminalSized(5, 3).enterString("ab cdefg\r\n1\r\n2\r\n3");
+		// The first line has scrolled into the transcript:
+		assertEquals("cdefg", mTerminal.getScreen().getWordAtLocation(1, -1));
+		assertEquals("ab", mTerminal.getScreen().getWordAtLocation(0, -2));
+
+		withTerminalSized(5, 3).enterString("a中文b");
+		assertEquals("a中文b", mTerminal.getScreen().getWordAtLocation(2, 0));
+	}
+
+	public void testFindWordAt() {
+		withTerminalSized(5, 3).enterString("abcd \r\nefgh");
+		TerminalBuffer screen = mTerminal.getScreen();
+		int[] bounds = new int[4];
+		assertTrue(screen.findWordAt(1, 0, bounds));
+		assertEquals("[0, 0, 3, 0]", java.util.Arrays.toString(bounds));
+		assertFalse(screen.findWordAt(4, 0, bounds));
+
+		withTerminalSized(5, 3).enterString("  abcdefg h");
+		screen = mTerminal.getScreen();
+		assertTrue(screen.findWordAt(0, 1, bounds));
+		assertEquals("[2, 0, 3, 1]", java.util.Arrays.toString(bounds));
+	}
+
+	public void testLogicalLines() {
+		withTerminalSized(5, 4).enterString("abcdefghij\r\nabc\r\nxy");
+		TerminalBuffer screen = mTerminal.getScreen();
+		// The first line wraps once, and then fills the width of the second row:
+		assertEquals(0, screen.getLogicalLineStart(1, false));
+		assertEquals(1, screen.getLogicalLineEnd(0, false));
+		assertEquals(2, screen.getLogicalLineEnd(0, true));
+		assertEquals(0, screen.getLogicalLineStart(2, true));
+		assertEquals(2, screen.getLogicalLineStart(2, false));
+		assertEquals(3, screen.getLogicalLineEnd(3, true));
+	}
 }
@@ -127,4 +127,47 @@ public class ScrollRegionTest extends TerminalTestCase {
 				"   xxx"
 			);
 	}
+
+	public void testRunOfLinefeedsScrollsOnce() {
+		withTerminalSized(3, 3).enterString("a\r\n\r\n\r\nb\n\nc").assertLinesAre("b  ", "   ", " c ");
+		assertEquals("a\n\n\nb\n\n c", mTerminal.getScreen().getTranscriptText());
+		// With a status line at the bottom, as kept by e.g. tmux:
+		withTerminalSized(3, 4).enterString("\033[4;1Hxyz\033[1;3r\033[3;1Ha\r\n\r\nb").assertLinesAre("a  ", "   ", "b  ", "xyz");
+		assertEquals(2, mTerminal.getScreen().getActiveTranscriptRows());
+		// Below the scrolling region the cursor just moves down:
+		withTerminalSized(3, 4).enterString("\033[1;2r\033[3;1H\n\n\nd").assertLinesAre("   ", "   ", "   ", "d  ");
+	}
+
+	public void testScrollingLinesInOneGo() {
+		// Scrolling several lines in one go is the same as one at a time, for any margins and filling the transcript:
+		for (int topMargin = 0; topMargin < 4; topMargin++) {
+			for (int bottomMargin = topMargin + 1; bottomMargin <= 5; bottomMargin++) {
+				for (int lines = 1; lines <= 7; lines++) {
+					TerminalBuffer batched = createBufferForScrolling(), single = createBufferForScrolling();
+					batched.scrollDownLines(topMargin, bottomMargin, lines, TextStyle.NORMAL);
+					for (int i = 0; i < lines; i++)
+						single.scrollDownOneLine(topMargin, bottomMargin, TextStyle.NORMAL);
+					String message = "topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", lines=" + lines;
+					assertEquals(message, single.getActiveTranscriptRows(), batched.getActiveTranscriptRows());
+					assertEquals(message, getAllText(single), getAllText(batched));
+				}
+			}
+		}
+	}
+
+	/** A buffer with five screen rows and two rows of transcript, with room for one more. */
+	private static TerminalBuffer createBufferForScrolling() {
+		TerminalBuffer buffer = new TerminalBuffer(2, 8, 5);
+		for (int i = 0; i < 7; i++) {
+			buffer.setChar(0, 4, 'a' + i, TextStyle.NORMAL);
+			if (i < 2) buffer.scrollDownOneLine(0, 5, TextStyle.NORMAL);
+			else buffer.setChar(0, i - 2, 'a' + i, TextStyle.NORMAL);
+		}
+		return buffer;
+	}
+
+	private static String getAllText(TerminalBuffer buffer) {
+		return buffer.getSelectedText(0, -buffer.getActiveTranscriptRows(), 2, buffer.mScreenRows - 1);
+	}
+
 }
@@ -0,0 +1,178 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class SpscByteQueueTest extends TestCase {
+
+	public void testCapacityMustBePowerOfTwo() {
+		assertEquals(16, new SpscByteQueue(16).capacity());
+		try {
+			new SpscByteQueue(10);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testCompleteWrites() {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+
+		byte[] arr = new byte[16];
+		assertEquals(3, q.read(arr, true));
+		assertEquals(1, arr[0]);
+		assertEquals(3, arr[2]);
+
+		byte[] full = new byte[16];
+		for (int i = 0; i < full.length; i++) full[i] = (byte) i;
+		assertTrue(q.write(full, 0, full.length));
+		assertEquals(16, q.read(arr, true));
+		for (int i = 0; i < full.length; i++) assertEquals(full[i], arr[i]);
+	}
+
+	public void testQueueWraparound() {
+		SpscByteQueue q = new SpscByteQueue(16);
+
+		byte[] origArray = new byte[]{1, 2, 3, 4, 5, 6, 7};
+		byte[] readArray = new byte[origArray.length];
+		for (int i = 0; i < 20; i++) {
+			q.write(origArray, 0, origArray.length);
+			assertEquals(origArray.length, q.read(readArray, true));
+			for (int j = 0; j < origArray.length; j++) assertEquals(origArray[j], readArray[j]);
+		}
+	}
+
+	public void testWriteNotesClosing() {
+		SpscByteQueue q = new SpscByteQueue(16);
+		q.close();
+		assertFalse(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertEquals(-1, q.read(new byte[16], true));
+	}
+
+	public void testReadNonBlocking() {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertEquals(0, q.read(new byte[128], false));
+	}
+
+	public void testWriteInPlace() {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertEquals(16, q.getContiguousFreeSpace());
+
+		// Wrap around by filling in place after 10 bytes have been written and read:
+		assertTrue(q.write(new byte[10], 0, 10));
+		assertEquals(10, q.read(new byte[16], false));
+		int value = 0;
+		for (int free; (free = q.getContiguousFreeSpace()) > 0; ) {
+			int offset = q.getWriteOffset();
+			for (int i = 0; i < free; i++) q.getBuffer().put(offset + i, (byte) value++);
+			q.commitWrite(free);
+		}
+		assertEquals(16, value);
+		assertFalse(q.hasFreeSpace());
+
+		byte[] readArray = new byte[16];
+		assertEquals(16, q.read(readArray, false));
+		for (int i = 0; i < 16; i++) assertEquals(i, readArray[i]);
+		assertTrue(q.hasFreeSpace());
+	}
+
+	public void testReadInPlace() {
+		SpscByteQueue q = new SpscByteQueue(ByteBuffer.allocate(16));
+		assertTrue(q.hasArray());
+		assertEquals(0, q.getContiguousReadable());
+
+		// Wrap around by reading in place after 10 bytes have been written and read:
+		assertTrue(q.write(new byte[10], 0, 10));
+		assertEquals(10, q.read(new byte[16], false));
+		byte[] full = new byte[16];
+		for (int i = 0; i < full.length; i++) full[i] = (byte) i;
+		assertTrue(q.write(full, 0, full.length));
+		int value = 0;
+		for (int readable; (readable = q.getContiguousReadable()) > 0; ) {
+			int offset = q.getReadOffset();
+			for (int i = 0; i < readable; i++) assertEquals(value++, q.getArray()[offset + i]);
+			q.commitRead(readable);
+		}
+		assertEquals(16, value);
+		assertEquals(0, q.read(new byte[16], false));
+	}
+
+	public void testDiscard() {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+		assertEquals(5, q.available());
+		q.discard();
+		assertEquals(0, q.available());
+		assertEquals(0, q.read(new byte[16], false));
+
+		assertTrue(q.write(new byte[]{6, 7}, 0, 2));
+		byte[] readArray = new byte[16];
+		assertEquals(2, q.read(readArray, false));
+		assertEquals(6, readArray[0]);
+		assertEquals(7, readArray[1]);
+	}
+
+	public void testCloseWakesBlockedWriter() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(4);
+		final boolean[] result = {true};
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				result[0] = q.write(new byte[8], 0, 8);
+			}
+		};
+		writer.start();
+		Thread.sleep(50);
+		q.close();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertFalse(result[0]);
+	}
+
+	/** Stream a long pseudo-random sequence of odd sized writes and reads through a small queue. */
+	public void testStress() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(64);
+		final int totalBytes = 4 * 1024 * 1024;
+		final Throwable[] producerError = {null};
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Random random = new Random(42);
+					byte[] chunk = new byte[200];
+					int value = 0;
+					int written = 0;
+					while (written < totalBytes) {
+						int length = Math.min(1 + random.nextInt(chunk.length), totalBytes - written);
+						for (int i = 0; i < length; i++) chunk[i] = (byte) value++;
+						if (!q.write(chunk, 0, length)) throw new AssertionError("Queue closed while writing");
+						written += length;
+					}
+				} catch (Throwable t) {
+					producerError[0] = t;
+				}
+			}
+		};
+		producer.start();
+
+		Random random = new Random(4711);
+		int expectedValue = 0;
+		int read = 0;
+		while (read < totalBytes) {
+			byte[] buffer = new byte[1 + random.nextInt(100)];
+			int bytesRead = q.read(buffer, random.nextBoolean());
+			assertTrue(bytesRead >= 0);
+			for (int i = 0; i < bytesRead; i++)
+				assertEquals("At byte " + (read + i), (byte) expectedValue++, buffer[i]);
+			read += bytesRead;
+		}
+		producer.join(10000);
+		assertNull(producerError[0]);
+		assertEquals(0, q.read(new byte[16], false));
+	}
+
+}
@@ -51,6 +51,56 @@ public class TerminalRowTest extends TestCase {
 		}
 	}
 
+	/** Columns past the column index, which only modifying the row extends, are found by walking the row. */
+	public void testFindStartOfColumnPastColumnIndex() {
+		for (int i = 0; i < 20; i++)
+			row.setChar(2 * i, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(45, TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, 0);
+		row.setChar(46, DIARESIS_CODEPOINT, 0);
+		int[] starts = new int[COLUMNS];
+		for (int column = COLUMNS - 1; column >= 0; column--)
+			starts[column] = row.findStartOfColumn(column);
+		assertEquals(0, starts[1]);
+		assertEquals(19, starts[39]);
+		assertEquals(25, starts[45]);
+		assertEquals(27, starts[46]);
+		assertEquals(29, starts[47]);
+
+		// Index the columns up to and including a wide character without changing the row, walking on from it:
+		row.setChar(10, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		for (int column = 0; column < COLUMNS; column++)
+			assertEquals("At column=" + column, starts[column], row.findStartOfColumn(column));
+
+		// Index all columns without changing the row:
+		row.setChar(COLUMNS - 1, ' ', 0);
+		for (int column = 0; column < COLUMNS; column++)
+			assertEquals("At column=" + column, starts[column], row.findStartOfColumn(column));
+	}
+
+	/** Finding columns does not fail while another thread modifies and freezes the row, as when rendering. */
+	public void testFindStartOfColumnWhileModified() throws Exception {
+		final TerminalRow sharedRow = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		final boolean[] done = {false};
+		Thread modifier = new Thread() {
+			@Override
+			public void run() {
+				Random random = new Random(1);
+				for (int i = 0; i < 20000; i++) {
+					sharedRow.setChar(random.nextInt(COLUMNS - 1), (i % 3 == 0) ? ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1 : 'a', 0);
+					if (i % 50 == 0) sharedRow.freeze();
+					if (i % 500 == 0) sharedRow.clear(0);
+				}
+				done[0] = true;
+			}
+		};
+		modifier.start();
+		while (modifier.isAlive())
+			for (int column = 0; column < COLUMNS; column++)
+				assertTrue(sharedRow.findStartOfColumn(column) >= 0);
+		modifier.join();
+		assertTrue(done[0]);
+	}
+
 	public void testSimpleDiaresis() {
 		row.setChar(0, DIARESIS_CODEPOINT, 0);
 		assertEquals(81, row.getSpaceUsed());
@@ -429,4 +479,93 @@ public class TerminalRowTest extends TestCase {
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	public void testColumnIndexOfWideRows() {
+		final int columns = 256;
+		final int[] codePoints = {'a', ' ', DIARESIS_CODEPOINT, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1};
+		Random random = new Random(5);
+		row = new TerminalRow(columns, TextStyle.NORMAL);
+		for (int i = 0; i < 5000; i++) {
+			int codePoint = codePoints[random.nextInt(codePoints.length)];
+			int column = random.nextInt(WcWidth.width(codePoint) == 2 ? columns - 1 : columns);
+			row.setChar(column, codePoint, TextStyle.NORMAL);
+
+			// Compare with walking the row from the start:
+			int currentColumn = 0;
+			for (int charIndex = 0; charIndex < row.getSpaceUsed(); ) {
+				int startCharIndex = charIndex;
+				int codePointAtIndex = Character.codePointAt(row.mText, charIndex);
+				charIndex += Character.charCount(codePointAtIndex);
+				for (int w = WcWidth.width(codePointAtIndex); w > 0; w--)
+					assertEquals("column=" + currentColumn, startCharIndex, row.findStartOfColumn(currentColumn++));
+			}
+			assertEquals(columns, currentColumn);
+			assertEquals(row.getSpaceUsed(), row.findStartOfColumn(columns));
+		}
+	}
+
+	public void testCompactStyle() {
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		long bold = TextStyle.encode(TextStyle.COLOR_INDEX_FOREGROUND, 2, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		for (int column = 10; column < 20; column++) row.setChar(column, 'r', red);
+		row.setChar(COLUMNS - 1, 'b', bold);
+		long[] expected = row.mStyle.clone();
+
+		row.compactStyle();
+		assertTrue(row.isStyleCompacted());
+		for (int column = 0; column < COLUMNS; column++) assertEquals(expected[column], row.getStyle(column));
+
+		// Modifying the row expands the styles again:
+		row.setChar(0, 'x', bold);
+		assertFalse(row.isStyleCompacted());
+		expected[0] = bold;
+		assertTrue(Arrays.equals(expected, row.mStyle));
+
+		// Rows with too many different styles are left as is:
+		for (int column = 0; column < COLUMNS; column++) row.setChar(column, 'x', column % 2 == 0 ? red : bold);
+		row.compactStyle();
+		assertFalse(row.isStyleCompacted());
+
+		row.compactStyle();
+		row.clear(red);
+		assertFalse(row.isStyleCompacted());
+		for (int column = 0; column < COLUMNS; column++) assertEquals(red, row.getStyle(column));
+	}
+
+	public void testFreeze() {
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		for (int column = 0; column < 5; column++) row.setChar(column, "hello".charAt(column), red);
+		row.freeze();
+		assertTrue(row.isFrozenAscii());
+		assertNull(row.mText);
+		assertFalse(row.isBlank());
+		assertEquals("hello", new String(row.getText(), 0, 5));
+		assertEquals(COLUMNS, row.getSpaceUsed());
+		assertEquals(red, row.getStyle(4));
+
+		// Copying from a frozen row leaves it frozen, while writing to it thaws it:
+		TerminalRow copy = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		copy.copyInterval(row, 1, 3, 0);
+		assertEquals("el", new String(copy.mText, 0, 2));
+		assertTrue(row.isFrozenAscii());
+		row.setChar(0, 'j', red);
+		assertFalse(row.isFrozenAscii());
+		assertLineStartsWith('j', 'e', 'l', 'l', 'o', ' ');
+
+		// Rows with non-ASCII text keep a char[], trimmed to the space used:
+		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, red);
+		row.setChar(2, DIARESIS_CODEPOINT, red);
+		row.freeze();
+		assertFalse(row.isFrozenAscii());
+		assertEquals(row.getSpaceUsed(), row.mText.length);
+		assertEquals(1, row.findStartOfColumn(2));
+		row.setChar(5, 'x', red);
+		assertLineStartsWith(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 'l', DIARESIS_CODEPOINT, 'l', 'o', 'x', ' ');
+
+		row.freeze();
+		row.clear(TextStyle.NORMAL);
+		assertTrue(row.isBlank());
+		assertEquals(COLUMNS, row.getSpaceUsed());
+	}
+
 }
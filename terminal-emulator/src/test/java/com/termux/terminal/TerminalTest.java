@@ -1,6 +1,8 @@
 package com.termux.terminal;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 public class TerminalTest extends TerminalTestCase {
 
@@ -27,6 +29,18 @@ public class TerminalTest extends TerminalTestCase {
 		assertEquals("hello\nworld", mTerminal.getScreen().getTranscriptText());
 	}
 
+	public void testResynchronizeAfterDroppedOutput() {
+		withTerminalSized(5, 3).enterString("\033[3");
+		mTerminal.resynchronize();
+		enterString("1mX").assertLinesAre("1mX  ", "     ", "     ");
+
+		// Partial UTF-8 sequence:
+		withTerminalSized(5, 3);
+		mTerminal.append(new byte[]{(byte) 0xE2, (byte) 0x82}, 2);
+		mTerminal.resynchronize();
+		enterString("ab").assertLinesAre("ab   ", "     ", "     ");
+	}
+
 	public void testScrollDownInAltBuffer() {
 		withTerminalSized(3, 3).enterString("\033[?1049h");
 		enterString("\033[38;5;111m1\r\n");
@@ -294,4 +308,100 @@ public class TerminalTest extends TerminalTestCase {
 		withTerminalSized(11, 2).enterString("01234567890\033[44m\r\tXX").assertLinesAre("01234567XX0", "           ");
 	}
 
+
+	public void testAsciiRunsWrapAtMargins() {
+		withTerminalSized(5, 3).enterString("abcdefghijk").assertLinesAre("abcde", "fghij", "k    ").assertCursorAt(2, 1);
+		assertLineWraps(true, true, false);
+		withTerminalSized(5, 3).enterString("abcdefghijklmnop").assertLinesAre("fghij", "klmno", "p    ").assertCursorAt(2, 1);
+		// Without autowrap the last column is overwritten:
+		withTerminalSized(5, 3).enterString("\033[?7labcdefgh").assertLinesAre("abcdh", "     ", "     ").assertCursorAt(0, 4);
+		// Left and right margins:
+		withTerminalSized(6, 3).enterString("\033[?69h\033[2;4s\033[1;2Habcdefg").assertLinesAre(" abc  ", " def  ", " g    ");
+		// Line drawing character set:
+		withTerminalSized(4, 2).enterString("\033(0qqx\033(Bq").assertLinesAre("──│q", "    ");
+	}
+
+	public void testAsciiRunsMatchBytewiseProcessing() {
+		final String[] pieces = {"hello", " world", "\r\n", "\n", "\t", "\b", "\033[31m", "\033[0m", "\033[4h", "\033[4l",
+			"\033[?7l", "\033[?7h", "\033[2;5r", "\033[r", "\033[3G", "\033[H", "\033[2b", "漢", "e\u0301", "\033(0lqk\033(B",
+			"The quick brown fox jumps over the lazy dog"};
+		Random random = new Random(1234);
+		for (int round = 0; round < 50; round++) {
+			StringBuilder input = new StringBuilder();
+			for (int i = 0; i < 200; i++) input.append(pieces[random.nextInt(pieces.length)]);
+			byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+			withTerminalSized(13, 7);
+			TerminalEmulator bytewise = new TerminalEmulator(new MockTerminalOutput(), 13, 7, 14, null);
+			mTerminal.append(bytes, bytes.length);
+			for (byte b : bytes) bytewise.append(new byte[]{b}, 1);
+			assertInvariants();
+
+			assertEquals(bytewise.getCursorRow(), mTerminal.getCursorRow());
+			assertEquals(bytewise.getCursorCol(), mTerminal.getCursorCol());
+			TerminalBuffer expected = bytewise.getScreen();
+			TerminalBuffer actual = mTerminal.getScreen();
+			assertEquals(expected.getActiveTranscriptRows(), actual.getActiveTranscriptRows());
+			for (int row = -expected.getActiveTranscriptRows(); row < 7; row++) {
+				TerminalRow expectedRow = expected.allocateFullLineIfNecessary(expected.externalToInternalRow(row));
+				TerminalRow actualRow = actual.allocateFullLineIfNecessary(actual.externalToInternalRow(row));
+				assertEquals(new String(expectedRow.getText(), 0, expectedRow.getSpaceUsed()), new String(actualRow.getText(), 0, actualRow.getSpaceUsed()));
+				assertEquals(expectedRow.mLineWrap, actualRow.mLineWrap);
+				for (int column = 0; column < 13; column++)
+					assertEquals(expectedRow.getStyle(column), actualRow.getStyle(column));
+			}
+		}
+	}
+
+	public void testTranscriptRowsHaveCompactStyles() {
+		withTerminalSized(10, 3).enterString("\033[31mred\033[0m\r\nplain\r\n\033[1mbold\r\n");
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(1, screen.getActiveTranscriptRows());
+		assertTrue(screen.allocateFullLineIfNecessary(screen.externalToInternalRow(-1)).isStyleCompacted());
+		assertForegroundColorAt(-1, 0, 1);
+		assertForegroundColorAt(-1, 3, TextStyle.COLOR_INDEX_FOREGROUND);
+		assertFalse(screen.allocateFullLineIfNecessary(screen.externalToInternalRow(0)).isStyleCompacted());
+
+		// Rows on screen are kept as is, and transcript rows revealed by a resize are expanded when written to:
+		mTerminal.resize(10, 6);
+		assertEquals(0, screen.getActiveTranscriptRows());
+		assertForegroundColorAt(0, 0, 1);
+		enterString("\033[1;1Hx");
+		assertFalse(screen.allocateFullLineIfNecessary(0).isStyleCompacted());
+		assertForegroundColorAt(0, 1, 1);
+	}
+
+	public void testDamageTracking() {
+		withTerminalSized(5, 5);
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertTrue(screen.isFullyDamaged());
+		screen.clearDamage();
+		assertFalse(screen.isFullyDamaged());
+		assertEquals(-1, screen.getFirstDamagedRow());
+
+		enterString("\033[3;1Hab");
+		assertFalse(screen.isFullyDamaged());
+		assertEquals(2, screen.getFirstDamagedRow());
+		assertEquals(2, screen.getLastDamagedRow());
+		assertTrue(screen.isRowDamaged(2));
+		assertFalse(screen.isRowDamaged(1));
+		assertFalse(screen.isRowDamaged(3));
+
+		// Erasing in display changes the rows below:
+		enterString("\033[J");
+		assertEquals(2, screen.getFirstDamagedRow());
+		assertEquals(4, screen.getLastDamagedRow());
+		assertFalse(screen.isRowDamaged(1));
+
+		// Cursor movement alone does not change any rows:
+		screen.clearDamage();
+		enterString("\033[1;1H");
+		assertEquals(-1, screen.getFirstDamagedRow());
+
+		// Scrolling moves all rows:
+		enterString("\033[5;1H\n");
+		assertTrue(screen.isFullyDamaged());
+		assertTrue(screen.isRowDamaged(-1));
+	}
+
 }
@@ -54,6 +54,10 @@ public abstract class TerminalTestCase extends TestCase {
 		public void onColorsChanged() {
 			colorsChanged++;
 		}
+
+		@Override
+		public void onTerminalCursorStateChange(boolean state) {
+		}
 	}
 
 	public TerminalEmulator mTerminal;
@@ -146,7 +150,7 @@ public abstract class TerminalTestCase extends TestCase {
 		for (int i = 0; i < lines.length; i++) {
 			if (lines[i] == null) continue;
 			assertTrue("Line exists at multiple places: " + i, linesSet.add(new LineWrapper(lines[i])));
-			char[] text = lines[i].mText;
+			char[] text = lines[i].getText();
 			int usedChars = lines[i].getSpaceUsed();
 			int currentColumn = 0;
 			for (int j = 0; j < usedChars; j++) {
@@ -165,7 +169,7 @@ public abstract class TerminalTestCase extends TestCase {
 				assertFalse("The first column should not start with combining character", currentColumn == 0 && width < 0);
 				if (width > 0) currentColumn += width;
 			}
-			assertEquals("Line whose width does not match screens. line=" + new String(lines[i].mText, 0, lines[i].getSpaceUsed()),
+			assertEquals("Line whose width does not match screens. line=" + new String(lines[i].getText(), 0, lines[i].getSpaceUsed()),
 					screen.mColumns, currentColumn);
 		}
 
@@ -178,8 +182,8 @@ public abstract class TerminalTestCase extends TestCase {
 	}
 
 	protected void assertLineIs(int line, String expected) {
-		TerminalRow l = mTerminal.getScreen().allocateFullLineIfNecessary(mTerminal.getScreen().externalToInternalRow(line));
-		char[] chars = l.mText;
+		TerminalRow l = mTerminal.getScreen().getRow(line);
+		char[] chars = l.getText();
 		int textLen = l.getSpaceUsed();
 		if (textLen != expected.length()) fail("Expected '" + expected + "' (len=" + expected.length() + "), was='"
 				+ new String(chars, 0, textLen) + "' (len=" + textLen + ")");
@@ -202,6 +206,9 @@ public abstract class TerminalTestCase extends TestCase {
 
 	public TerminalTestCase resize(int cols, int rows) {
 		mTerminal.resize(cols, rows);
+		// As done by TerminalSession after resizing:
+		//noinspection StatementWithEmptyBody
+		while (mTerminal.reflowHistory(100)) ;
 		assertInvariants();
 		return this;
 	}
@@ -213,7 +220,7 @@ public abstract class TerminalTestCase extends TestCase {
 	}
 
 	protected TerminalTestCase assertLineStartsWith(int line, int... codePoints) {
-		char[] chars = mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(line)].mText;
+		char[] chars = mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(line)].getText();
 		int charIndex = 0;
 		for (int i = 0; i < codePoints.length; i++) {
 			int lineCodePoint = chars[charIndex++];
@@ -297,7 +304,7 @@ public abstract class TerminalTestCase extends TestCase {
 	}
 
 	public void assertForegroundColorAt(int externalRow, int column, int color) {
-		long style = mTerminal.getScreen().mLines[mTerminal.getScreen().externalToInternalRow(externalRow)].getStyle(column);
+		long style = mTerminal.getScreen().getStyleAt(externalRow, column);
 		assertEquals(color, TextStyle.decodeForeColor(style));
 	}
 
@@ -0,0 +1,170 @@
+package com.termux.terminal;
+
+public class TranscriptSearchTest extends TerminalTestCase {
+
+	private TranscriptSearch mSearch;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mSearch = new TranscriptSearch();
+	}
+
+	private void search(String query, boolean regex, boolean ignoreCase) {
+		mSearch.setQuery(query, regex, ignoreCase);
+		updateFully();
+	}
+
+	private void updateFully() {
+		// Searching one line per update, to cover continuing where the last update stopped:
+		//noinspection StatementWithEmptyBody
+		while (mSearch.update(mTerminal.getScreen(), 0)) ;
+		assertTrue(mSearch.isComplete());
+	}
+
+	/** Assert the matches as "externalStartRow:startColumn-externalEndRow:endColumn". */
+	private void assertMatches(String... expected) {
+		TerminalBuffer screen = mTerminal.getScreen();
+		String[] actual = new String[mSearch.getMatchCount()];
+		for (int i = 0; i < actual.length; i++) {
+			TranscriptSearch.Match match = mSearch.getMatch(i);
+			actual[i] = mSearch.getExternalRow(screen, match.mStartRow) + ":" + match.mStartColumn + "-"
+				+ mSearch.getExternalRow(screen, match.mEndRow) + ":" + match.mEndColumn;
+		}
+		assertEquals(String.join(" ", expected), String.join(" ", actual));
+	}
+
+	public void testLiteral() {
+		withTerminalSized(10, 3).enterString("foo bar\r\nbar foo\r\nfoobar");
+		search("foo", false, false);
+		assertMatches("0:0-0:3", "1:4-1:7", "2:0-2:3");
+		search("FOO", false, false);
+		assertMatches();
+		search("FOO", false, true);
+		assertMatches("0:0-0:3", "1:4-1:7", "2:0-2:3");
+		search("", false, false);
+		assertMatches();
+	}
+
+	public void testRegex() {
+		withTerminalSized(10, 3).enterString("a1 b22\r\nc333");
+		search("[a-z]\\d+", true, false);
+		assertMatches("0:0-0:2", "0:3-0:6", "1:0-1:4");
+		// Empty matches are ignored:
+		search("x*", true, false);
+		assertMatches();
+	}
+
+	public void testMatchSpanningWrappedRows() {
+		withTerminalSized(5, 3).enterString("abcdefghij");
+		search("def", false, false);
+		assertMatches("0:3-1:1");
+		search("abcdefghij", false, false);
+		assertMatches("0:0-1:5");
+	}
+
+	public void testWideCharacters() {
+		withTerminalSized(10, 2).enterString("a中文b");
+		search("文b", false, false);
+		assertMatches("0:3-0:6");
+	}
+
+	public void testTranscriptSearchedIncrementally() {
+		withTerminalSized(10, 3);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 100; i++) output.append("line ").append(i).append("\r\n");
+		enterString(output.toString());
+		search("line 5", false, false);
+		// Lines 5 and 50-59 are in the transcript, with 98 and 99 on screen followed by an empty row:
+		assertEquals(11, mSearch.getMatchCount());
+		assertEquals(-93, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.getMatch(0).mStartRow));
+
+		// Matches are kept as they scroll, and new output is searched:
+		enterString("line 5x\r\nline 5y\r\nline 5z\r\nnothing\r\nnothing\r\nnothing");
+		updateFully();
+		assertEquals(14, mSearch.getMatchCount());
+		assertEquals(-98, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.getMatch(0).mStartRow));
+		assertEquals(-1, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.getMatch(13).mStartRow));
+
+		// Narrowing the query only searches lines which matched:
+		search("line 55", false, false);
+		assertMatches("-48:0--48:7");
+
+		// Changes on the screen are found:
+		enterString("\r\nline 55");
+		updateFully();
+		assertMatches("-49:0--49:7", "2:0-2:7");
+	}
+
+	public void testClearedTranscript() {
+		withTerminalSized(10, 3).enterString("abc\r\nabc\r\nabc\r\nabc");
+		search("abc", false, false);
+		assertEquals(4, mSearch.getMatchCount());
+		enterString("\033[3J");
+		updateFully();
+		assertMatches("0:0-0:3", "1:0-1:3", "2:0-2:3");
+	}
+
+	public void testSelectMatch() {
+		withTerminalSized(10, 3).enterString("a\r\na\r\na");
+		search("a", false, false);
+		assertEquals(2, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.selectMatch(true).mStartRow));
+		assertEquals(1, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.selectMatch(true).mStartRow));
+		assertEquals(2, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.selectMatch(false).mStartRow));
+		assertEquals(0, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.selectMatch(false).mStartRow));
+		assertEquals(2, mSearch.getExternalRow(mTerminal.getScreen(), mSearch.selectMatch(true).mStartRow));
+	}
+
+	public void testMarkMatchesInRow() {
+		withTerminalSized(5, 3).enterString("xxabcdefx");
+		search("abcdef", false, false);
+		boolean[] columns = new boolean[5];
+		assertTrue(mSearch.markMatchesInRow(mTerminal.getScreen(), 0, columns));
+		assertEquals("[false, false, true, true, true]", java.util.Arrays.toString(columns));
+		columns = new boolean[5];
+		assertTrue(mSearch.markMatchesInRow(mTerminal.getScreen(), 1, columns));
+		assertEquals("[true, true, true, false, false]", java.util.Arrays.toString(columns));
+		assertFalse(mSearch.markMatchesInRow(mTerminal.getScreen(), 2, new boolean[5]));
+	}
+
+	public void testMatchText() {
+		withTerminalSized(10, 3).enterString("see https://example.com/x here");
+		mSearch.setQuery(java.util.regex.Pattern.compile("https?://\\S+"));
+		updateFully();
+		assertEquals(1, mSearch.getMatchCount());
+		assertEquals("https://example.com/x", mSearch.getMatchText(mTerminal.getScreen(), mSearch.getMatch(0)));
+	}
+
+	public void testFindMatchAt() {
+		withTerminalSized(10, 3).enterString("see https://example.com/x here");
+		java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("https?://\\S+");
+		TerminalBuffer screen = mTerminal.getScreen();
+		// The link starts at row 0 column 4 and ends at row 2 column 5:
+		assertNull(TranscriptSearch.findMatchAt(screen, pattern, 3, 0));
+		assertEquals("https://example.com/x", TranscriptSearch.findMatchAt(screen, pattern, 4, 0));
+		assertEquals("https://example.com/x", TranscriptSearch.findMatchAt(screen, pattern, 2, 1));
+		assertEquals("https://example.com/x", TranscriptSearch.findMatchAt(screen, pattern, 4, 2));
+		assertNull(TranscriptSearch.findMatchAt(screen, pattern, 5, 2));
+	}
+
+	/** Rows in the archived part of the transcript are searched too, including matches spanning rows. */
+	public void testArchivedTranscript() {
+		withTerminalSized(10, 3);
+		TerminalBuffer screen = mTerminal.getScreen();
+		screen.setCompressedTranscriptRows(1000);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 2500; i++) output.append(i % 100 == 0 ? "line " + i + " needle" : "line " + i).append("\r\n");
+		enterString(output.toString());
+		assertTrue(screen.getArchivedTranscriptRows() > 0);
+
+		search("needle", false, false);
+		assertEquals(25, mSearch.getMatchCount());
+		TranscriptSearch.Match first = mSearch.getMatch(0);
+		int oldestRow = -screen.getActiveTranscriptRows();
+		assertEquals(oldestRow, mSearch.getExternalRow(screen, first.mStartRow));
+		assertEquals(7, first.mStartColumn);
+		assertEquals(oldestRow + 1, mSearch.getExternalRow(screen, first.mEndRow));
+		assertEquals(3, first.mEndColumn);
+	}
+
+}
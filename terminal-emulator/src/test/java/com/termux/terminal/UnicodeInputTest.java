@@ -55,6 +55,39 @@ public class UnicodeInputTest extends TerminalTestCase {
 		// assertLinesAre("\uFFFD\uFFFDa  ", "     ");
 	}
 
+	/** Runs of UTF-8 decoded in one go are decoded as when split into single bytes at any point. */
+	public void testUtf8DecodedAsOneByteAtATime() {
+		byte[] input = concat("a枝文😀\u0302é".getBytes(java.nio.charset.StandardCharsets.UTF_8),
+			// Overlong, C1 control, unassigned, surrogate, above U+10FFFF, truncated and stray continuation bytes:
+			new byte[]{(byte) 0xc0, (byte) 0xaf, (byte) 0xc2, (byte) 0x85, (byte) 0xcd, (byte) 0xb8, (byte) 0xed, (byte) 0xa0, (byte) 0x80,
+				(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80, (byte) 0xe6, (byte) 0x9e, 'x', (byte) 0x80, (byte) 0xf8},
+			// Within an escape sequence and a title:
+			"\033文\033]0;枝😀\007ü\r\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+
+		withTerminalSized(12, 4);
+		for (byte b : input)
+			mTerminal.append(new byte[]{b}, 1);
+		String expectedText = mTerminal.getScreen().getTranscriptText();
+		assertEquals("枝😀", mTerminal.getTitle());
+		assertTrue(expectedText.startsWith("a枝文😀\u0302é\uFFFD"));
+
+		for (int split = 0; split < input.length; split++) {
+			withTerminalSized(12, 4);
+			mTerminal.append(input, split);
+			byte[] rest = java.util.Arrays.copyOfRange(input, split, input.length);
+			mTerminal.append(rest, rest.length);
+			assertEquals(expectedText, mTerminal.getScreen().getTranscriptText());
+			assertEquals("枝😀", mTerminal.getTitle());
+		}
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
+		for (byte[] array : arrays)
+			output.write(array, 0, array.length);
+		return output.toByteArray();
+	}
+
 	public void testUnassignedCodePoint() throws UnsupportedEncodingException {
 		withTerminalSized(3, 3);
 		// UTF-8 for U+C2541, an unassigned code point:
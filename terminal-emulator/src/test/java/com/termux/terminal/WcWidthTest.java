@@ -78,4 +78,12 @@ public class WcWidthTest extends TestCase {
 		assertWidthIs(2, 0x1F643); // UPSIDE-DOWN FACE (Unicode 8).
 	}
 
+	public void testLookupTablesMatchIntervalTables() {
+		for (int codePoint = -1; codePoint <= Character.MAX_CODE_POINT + 1; codePoint++) {
+			if (WcWidth.width(codePoint) != WcWidth.computeWidth(codePoint))
+				fail("Differing width for code point 0x" + Integer.toHexString(codePoint) + ": " + WcWidth.width(codePoint)
+					+ " instead of " + WcWidth.computeWidth(codePoint));
+		}
+	}
+
 }
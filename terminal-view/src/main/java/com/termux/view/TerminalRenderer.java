@@ -1,6 +1,8 @@
 package com.termux.view;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
@@ -9,8 +11,11 @@ import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
 import com.termux.terminal.TextStyle;
+import com.termux.terminal.TranscriptSearch;
 import com.termux.terminal.WcWidth;
 
+import java.util.Arrays;
+
 /**
  * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
  * <p/>
@@ -33,6 +38,43 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /** The number of entries in the measurement cache for code points not in {@link #asciiMeasures}. A power of two. */
+    private static final int MEASURE_CACHE_SIZE = 1024;
+    /**
+     * Direct mapped cache of code points to their width as measured by {@link #mTextPaint}, to avoid measuring text
+     * each frame for box drawing, CJK and emoji characters. A slot holding -1 is empty. Since the renderer is
+     * recreated when the typeface or text size changes the measurements do not need to be invalidated.
+     */
+    private final int[] mMeasureCacheCodePoints = new int[MEASURE_CACHE_SIZE];
+    private final float[] mMeasureCacheWidths = new float[MEASURE_CACHE_SIZE];
+    private long mMeasureCacheHits, mMeasureCacheMisses;
+
+    /** Buffer for the text of rows frozen as ASCII, which do not have a char[] to render from. */
+    private char[] mFrozenRowText;
+    /** The columns of the row being rendered which are part of a search match, highlighted like selected text. */
+    private boolean[] mSearchMatchColumns = new boolean[0];
+
+    /**
+     * Rendered rows kept from the last frame, so that only rows which have changed according to
+     * {@link TerminalBuffer#isRowDamaged(int)}, or which the cursor moved into or out of, need to be rendered again.
+     */
+    private Bitmap mRowCache;
+    private Canvas mRowCacheCanvas;
+    /** If {@link #mRowCache} contains the last frame rendered. */
+    private boolean mRowCacheValid;
+
+    /* The state the last frame was rendered with. Rows are only reused from {@link #mRowCache} if it is unchanged. */
+    private TerminalBuffer mLastScreen;
+    private int mLastTopRow, mLastRows, mLastColumns, mLastCursorShape, mLastCanvasWidth, mLastCanvasHeight;
+    private boolean mLastReverseVideo;
+    private final int[] mLastSelection = new int[4];
+    private TranscriptSearch mLastSearch;
+    private int mLastSearchResultsVersion;
+    private int[] mLastPalette;
+    /** The row the cursor was rendered at in the last frame, or {@link Integer#MIN_VALUE} if not visible. */
+    private int mLastCursorRenderedAt = Integer.MIN_VALUE;
+    private int mLastCursorCol;
+
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
         mTypeface = typeface;
@@ -51,13 +93,133 @@ public final class TerminalRenderer {
             sb.setCharAt(0, (char) i);
             asciiMeasures[i] = mTextPaint.measureText(sb, 0, 1);
         }
+        Arrays.fill(mMeasureCacheCodePoints, -1);
+    }
+
+    /** Measure the width of the code point starting at the index in the text, using cached measurements if possible. */
+    private float measureCodePoint(int codePoint, char[] text, int index, int charCount) {
+        if (codePoint < asciiMeasures.length) return asciiMeasures[codePoint];
+        // Spread out code points from the same block, which are typically used together:
+        final int slot = (codePoint ^ (codePoint >>> 7)) & (MEASURE_CACHE_SIZE - 1);
+        if (mMeasureCacheCodePoints[slot] == codePoint) {
+            mMeasureCacheHits++;
+            return mMeasureCacheWidths[slot];
+        }
+        mMeasureCacheMisses++;
+        final float width = mTextPaint.measureText(text, index, charCount);
+        mMeasureCacheCodePoints[slot] = codePoint;
+        mMeasureCacheWidths[slot] = width;
+        return width;
+    }
+
+    /** The number of measurements of non-ASCII code points served from the measurement cache. */
+    public long getMeasureCacheHits() {
+        return mMeasureCacheHits;
+    }
+
+    /** The number of measurements of non-ASCII code points which were not in the measurement cache. */
+    public long getMeasureCacheMisses() {
+        return mMeasureCacheMisses;
+    }
+
+    /** The fraction of measurements of non-ASCII code points served from the measurement cache, or 0 if none. */
+    public float getMeasureCacheHitRate() {
+        final long total = mMeasureCacheHits + mMeasureCacheMisses;
+        return total == 0 ? 0 : (float) mMeasureCacheHits / total;
     }
 
     /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
     public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
                              int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        render(mEmulator, canvas, topRow, selectionY1, selectionY2, selectionX1, selectionX2, null);
+    }
+
+    /** Render the terminal like {@link #render(TerminalEmulator, Canvas, int, int, int, int, int)}, highlighting the matches of a search. */
+    public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2, TranscriptSearch search) {
+        final boolean reverseVideo = mEmulator.isReverseVideo();
+        final int rows = mEmulator.mRows;
+        final int cursorCol = mEmulator.getCursorCol();
+        final int cursorRow = mEmulator.getCursorRow();
+        final boolean cursorVisible = mEmulator.shouldCursorBeVisible();
+        final TerminalBuffer screen = mEmulator.getScreen();
+        final int[] palette = mEmulator.mColors.mCurrentColors;
+        final int cursorShape = mEmulator.getCursorStyle();
+
+        final boolean sameStateAsLastFrame = screen == mLastScreen && topRow == mLastTopRow && rows == mLastRows
+            && mEmulator.mColumns == mLastColumns && reverseVideo == mLastReverseVideo && cursorShape == mLastCursorShape
+            && selectionY1 == mLastSelection[0] && selectionY2 == mLastSelection[1] && selectionX1 == mLastSelection[2]
+            && selectionX2 == mLastSelection[3] && canvas.getWidth() == mLastCanvasWidth && canvas.getHeight() == mLastCanvasHeight
+            && Arrays.equals(palette, mLastPalette)
+            && search == mLastSearch && (search == null || search.getResultsVersion() == mLastSearchResultsVersion);
+        if (!sameStateAsLastFrame) {
+            mLastScreen = screen;
+            mLastTopRow = topRow;
+            mLastRows = rows;
+            mLastColumns = mEmulator.mColumns;
+            mLastReverseVideo = reverseVideo;
+            mLastCursorShape = cursorShape;
+            mLastSelection[0] = selectionY1;
+            mLastSelection[1] = selectionY2;
+            mLastSelection[2] = selectionX1;
+            mLastSelection[3] = selectionX2;
+            mLastCanvasWidth = canvas.getWidth();
+            mLastCanvasHeight = canvas.getHeight();
+            mLastPalette = palette.clone();
+            mLastSearch = search;
+            mLastSearchResultsVersion = (search == null) ? 0 : search.getResultsVersion();
+        }
+
+        final int cursorRenderedAt = cursorVisible ? cursorRow : Integer.MIN_VALUE;
+        if (!sameStateAsLastFrame || screen.isFullyDamaged() || canvas.getWidth() <= 0 || canvas.getHeight() <= 0) {
+            // Typically scrolling or lots of output, in which case everything would have to be rendered to the row cache
+            // anyway, so draw directly to the canvas and rebuild the row cache when only some rows change again.
+            mRowCacheValid = false;
+            if (reverseVideo)
+                canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+            for (int row = topRow; row < topRow + rows; row++)
+                renderRow(mEmulator, canvas, row, row - topRow, selectionY1, selectionY2, selectionX1, selectionX2, search);
+        } else {
+            if (mRowCache == null || mRowCache.getWidth() != canvas.getWidth() || mRowCache.getHeight() != canvas.getHeight()) {
+                mRowCache = Bitmap.createBitmap(canvas.getWidth(), canvas.getHeight(), Bitmap.Config.ARGB_8888);
+                mRowCacheCanvas = new Canvas(mRowCache);
+                mRowCacheValid = false;
+            }
+            final int backgroundColor = reverseVideo ? palette[TextStyle.COLOR_INDEX_FOREGROUND] : Color.TRANSPARENT;
+            if (!mRowCacheValid) mRowCache.eraseColor(backgroundColor);
+            for (int row = topRow; row < topRow + rows; row++) {
+                final boolean rowNeedsRendering = !mRowCacheValid || screen.isRowDamaged(row)
+                    || ((row == cursorRenderedAt || row == mLastCursorRenderedAt) && (cursorRenderedAt != mLastCursorRenderedAt || cursorCol != mLastCursorCol));
+                if (!rowNeedsRendering) continue;
+                final int rowIndex = row - topRow;
+                if (mRowCacheValid) {
+                    // Clear the previous contents of the row before rendering it again:
+                    mRowCacheCanvas.save();
+                    mRowCacheCanvas.clipRect(0, getRowTop(rowIndex), mRowCache.getWidth(), getRowTop(rowIndex + 1));
+                    mRowCacheCanvas.drawColor(backgroundColor, PorterDuff.Mode.SRC);
+                    renderRow(mEmulator, mRowCacheCanvas, row, rowIndex, selectionY1, selectionY2, selectionX1, selectionX2, search);
+                    mRowCacheCanvas.restore();
+                } else {
+                    renderRow(mEmulator, mRowCacheCanvas, row, rowIndex, selectionY1, selectionY2, selectionX1, selectionX2, search);
+                }
+            }
+            mRowCacheValid = true;
+            canvas.drawBitmap(mRowCache, 0, 0, null);
+        }
+
+        mLastCursorRenderedAt = cursorRenderedAt;
+        mLastCursorCol = cursorCol;
+        screen.clearDamage();
+    }
+
+    /** The top y coordinate of a row on the screen, where 0 is the top row being rendered. */
+    public int getRowTop(int rowIndex) {
+        return mFontLineSpacing * (rowIndex + 1) + mFontAscent;
+    }
+
+    private void renderRow(TerminalEmulator mEmulator, Canvas canvas, int row, int rowIndex,
+                           int selectionY1, int selectionY2, int selectionX1, int selectionX2, TranscriptSearch search) {
         final boolean reverseVideo = mEmulator.isReverseVideo();
-        final int endRow = topRow + mEmulator.mRows;
         final int columns = mEmulator.mColumns;
         final int cursorCol = mEmulator.getCursorCol();
         final int cursorRow = mEmulator.getCursorRow();
@@ -66,94 +228,96 @@ public final class TerminalRenderer {
         final int[] palette = mEmulator.mColors.mCurrentColors;
         final int cursorShape = mEmulator.getCursorStyle();
 
-        if (reverseVideo)
-            canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+        final float heightOffset = mFontLineSpacingAndAscent + mFontLineSpacing * (rowIndex + 1);
 
-        float heightOffset = mFontLineSpacingAndAscent;
-        for (int row = topRow; row < endRow; row++) {
-            heightOffset += mFontLineSpacing;
+        final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
+        int selx1 = -1, selx2 = -1;
+        if (row >= selectionY1 && row <= selectionY2) {
+            if (row == selectionY1) selx1 = selectionX1;
+            selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
+        }
 
-            final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
-            int selx1 = -1, selx2 = -1;
-            if (row >= selectionY1 && row <= selectionY2) {
-                if (row == selectionY1) selx1 = selectionX1;
-                selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
-            }
+        boolean searchMatchInRow = false;
+        if (search != null) {
+            if (mSearchMatchColumns.length != columns) mSearchMatchColumns = new boolean[columns];
+            else Arrays.fill(mSearchMatchColumns, false);
+            searchMatchInRow = search.markMatchesInRow(screen, row, mSearchMatchColumns);
+        }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
-            final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
-
-            long lastRunStyle = 0;
-            boolean lastRunInsideCursor = false;
-            boolean lastRunInsideSelection = false;
-            int lastRunStartColumn = -1;
-            int lastRunStartIndex = 0;
-            boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
-            float measuredWidthForRun = 0.f;
-
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
-                final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final int codePointWcWidth = WcWidth.width(codePoint);
-                final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                final long style = lineObject.getStyle(column);
-
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
-                    currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0) {
-                        // Skip first column as there is nothing to draw, just record the current style.
-                    } else {
-                        final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-                        boolean invertCursorTextColor = false;
-                        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                            invertCursorTextColor = true;
-                        }
-                        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
-                            lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
-                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+        TerminalRow lineObject = screen.getRow(row);
+        char[] line = lineObject.mText;
+        // Frozen transcript rows only containing ASCII text are decoded into a reused buffer:
+        if (line == null) line = mFrozenRowText = lineObject.decodeAsciiText(mFrozenRowText);
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+
+        long lastRunStyle = 0;
+        boolean lastRunInsideCursor = false;
+        boolean lastRunInsideSelection = false;
+        int lastRunStartColumn = -1;
+        int lastRunStartIndex = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        float measuredWidthForRun = 0.f;
+
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
+            final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+            final boolean insideSelection = (column >= selx1 && column <= selx2) || (searchMatchInRow && mSearchMatchColumns[column]);
+            final long style = lineObject.getStyle(column);
+
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth = measureCodePoint(codePoint, line, currentCharIndex, charsForCodePoint);
+            final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
+
+            if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
+                if (column == 0) {
+                    // Skip first column as there is nothing to draw, just record the current style.
+                } else {
+                    final int columnWidthSinceLastRun = column - lastRunStartColumn;
+                    final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+                    int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
+                    boolean invertCursorTextColor = false;
+                    if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+                        invertCursorTextColor = true;
                     }
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = style;
-                    lastRunInsideCursor = insideCursor;
-                    lastRunInsideSelection = insideSelection;
-                    lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = fontWidthMismatch;
-                }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
-                currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+                    drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
+                        lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
+                        cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
                 }
+                measuredWidthForRun = 0.f;
+                lastRunStyle = style;
+                lastRunInsideCursor = insideCursor;
+                lastRunInsideSelection = insideSelection;
+                lastRunStartColumn = column;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = fontWidthMismatch;
             }
-
-            final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-            boolean invertCursorTextColor = false;
-            if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                invertCursorTextColor = true;
+            measuredWidthForRun += measuredCodePointWidth;
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
             }
-            drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
-                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
         }
+
+        final int columnWidthSinceLastRun = columns - lastRunStartColumn;
+        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
+        boolean invertCursorTextColor = false;
+        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+            invertCursorTextColor = true;
+        }
+        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
+            measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
     }
 
     private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns,
@@ -33,8 +33,10 @@ import android.widget.Scroller;
 import androidx.annotation.RequiresApi;
 
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TranscriptSearch;
 import com.termux.view.textselection.TextSelectionCursorController;
 
 /** View displaying and interacting with a {@link TerminalSession}. */
@@ -63,7 +65,11 @@ public final class TerminalView extends View {
 
     /** The top row of text to display. Ranges from -activeTranscriptRows to 0. */
     int mTopRow;
+    /** The cursor row when last calling {@link #invalidateDamagedRows(boolean)}. */
+    private int mLastInvalidatedCursorRow = -1;
     int[] mDefaultSelectors = new int[]{-1,-1,-1,-1};
+    /** The search whose matches are highlighted, if any, see {@link #startSearch(TranscriptSearch.Listener)}. */
+    private TranscriptSearch mSearch;
 
     float mScaleFactor = 1.f;
     final GestureAndScaleRecognizer mGestureRecognizer;
@@ -242,9 +248,12 @@ public final class TerminalView extends View {
     public boolean attachSession(TerminalSession session) {
         if (session == mTermSession) return false;
         mTopRow = 0;
+        stopSearch();
 
+        if (mTermSession != null) mTermSession.setAttached(false);
         mTermSession = session;
         mEmulator = null;
+        if (mTermSession != null) mTermSession.setAttached(true);
         mCombiningAccent = 0;
 
         updateSize();
@@ -405,21 +414,22 @@ public final class TerminalView extends View {
     public void onScreenUpdated() {
         if (mEmulator == null) return;
 
+        final int oldTopRow = mTopRow;
         int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
         if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
 
         boolean skipScrolling = false;
-        if (isSelectingText()) {
-            // Do not scroll when selecting text.
+        if (isSelectingText() || (mSearch != null && mTopRow != 0)) {
+            // Do not scroll when selecting text or looking at search matches.
             int rowShift = mEmulator.getScrollCounter();
             if (-mTopRow + rowShift > rowsInHistory) {
                 // .. unless we're hitting the end of history transcript, in which
                 // case we abort text selection and scroll to end.
-                stopTextSelectionMode();
+                if (isSelectingText()) stopTextSelectionMode();
             } else {
                 skipScrolling = true;
                 mTopRow -= rowShift;
-                decrementYTextSelectionCursors(rowShift);
+                if (isSelectingText()) decrementYTextSelectionCursors(rowShift);
             }
         }
 
@@ -435,11 +445,35 @@ public final class TerminalView extends View {
         }
 
         mEmulator.clearScrollCounter();
+        if (mSearch != null) mSearch.onScreenUpdated();
 
-        invalidate();
+        invalidateDamagedRows(mTopRow != oldTopRow);
         if (mAccessibilityEnabled) setContentDescription(getText());
     }
 
+    /**
+     * Invalidate the band of rows which have changed according to {@link TerminalBuffer#isRowDamaged(int)}, together
+     * with the rows the cursor moved between, or the whole view if scrolled.
+     */
+    private void invalidateDamagedRows(boolean scrolled) {
+        final TerminalBuffer screen = mEmulator.getScreen();
+        final int cursorRow = mEmulator.getCursorRow();
+        final int lastCursorRow = mLastInvalidatedCursorRow;
+        mLastInvalidatedCursorRow = cursorRow;
+        if (scrolled || mTopRow != 0 || screen.isFullyDamaged() || lastCursorRow < 0 || lastCursorRow >= mEmulator.mRows) {
+            invalidate();
+            return;
+        }
+
+        int firstRow = Math.min(cursorRow, lastCursorRow);
+        int lastRow = Math.max(cursorRow, lastCursorRow);
+        if (screen.getFirstDamagedRow() != -1) {
+            firstRow = Math.min(firstRow, screen.getFirstDamagedRow());
+            lastRow = Math.max(lastRow, screen.getLastDamagedRow());
+        }
+        invalidate(0, mRenderer.getRowTop(firstRow), getWidth(), mRenderer.getRowTop(lastRow + 1));
+    }
+
     /**
      * Sets the text size, which in turn sets the number of rows and columns.
      *
@@ -918,7 +952,7 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3], mSearch);
 
             // render the text selection handles
             renderTextSelection();
@@ -960,6 +994,58 @@ public final class TerminalView extends View {
         this.mTopRow = mTopRow;
     }
 
+    /**
+     * Start searching the transcript of the attached session, highlighting the matches. The query is set with
+     * {@link TranscriptSearch#setQuery(String, boolean, boolean)}, and {@link #jumpToSearchMatch(boolean)} scrolls to
+     * the matches.
+     *
+     * @param listener Notified on the main thread as matches are found, or null.
+     * @return The search, or null if no session is attached.
+     */
+    public TranscriptSearch startSearch(final TranscriptSearch.Listener listener) {
+        stopSearch();
+        if (mTermSession == null) return null;
+        mSearch = new TranscriptSearch(mTermSession, search -> {
+            if (search != mSearch) return;
+            invalidate();
+            if (listener != null) listener.onSearchResultsChanged(search);
+        });
+        return mSearch;
+    }
+
+    /** Stop the search started by {@link #startSearch(TranscriptSearch.Listener)}, if any. */
+    public void stopSearch() {
+        if (mSearch == null) return;
+        mSearch.close();
+        mSearch = null;
+        invalidate();
+    }
+
+    public TranscriptSearch getSearch() {
+        return mSearch;
+    }
+
+    /**
+     * Select the next or previous match of the search, see {@link TranscriptSearch#selectMatch(boolean)}, and scroll to
+     * it if not visible.
+     *
+     * @return If a match was selected.
+     */
+    public boolean jumpToSearchMatch(boolean backwards) {
+        if (mSearch == null || mEmulator == null) return false;
+        TranscriptSearch.Match match = mSearch.selectMatch(backwards);
+        if (match == null) return false;
+        int row = mSearch.getExternalRow(mEmulator.getScreen(), match.mStartRow);
+        if (row == Integer.MIN_VALUE) return false;
+        if (row < mTopRow || row >= mTopRow + mEmulator.mRows) {
+            // Center the match vertically:
+            mTopRow = Math.min(0, Math.max(-mEmulator.getScreen().getActiveTranscriptRows(), row - mEmulator.mRows / 2));
+            awakenScrollBars();
+        }
+        invalidate();
+        return true;
+    }
+
 
 
     /**
@@ -94,14 +94,13 @@ public class TextSelectionCursorController implements CursorController {
         mSelY1 = mSelY2 = columnAndRow[1];
 
         TerminalBuffer screen = terminalView.mEmulator.getScreen();
-        if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
-            // Selecting something other than whitespace. Expand to word.
-            while (mSelX1 > 0 && !"".equals(screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1))) {
-                mSelX1--;
-            }
-            while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !"".equals(screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1))) {
-                mSelX2++;
-            }
+        final int[] word = new int[4];
+        if (screen.findWordAt(mSelX1, mSelY1, word)) {
+            // Selecting something other than whitespace. Expand to word, which may continue on wrapped rows.
+            mSelX1 = word[0];
+            mSelY1 = word[1];
+            mSelX2 = word[2];
+            mSelY2 = word[3];
         }
     }
     
@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableBiMap;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.logger.Logger;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
 import com.termux.view.TerminalView;
 
 import java.io.File;
@@ -14,7 +15,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 /*
- * Version: v0.15.0
+ * Version: v0.18.0
  *
  * Changelog
  *
@@ -66,6 +67,15 @@ import java.util.Set;
  *
  * - 0.15.0 (2021-09-05)
  *      - Add `KEY_EXTRA_KEYS_TEXT_ALL_CAPS`.
+ *
+ * - 0.16.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK`.
+ *
+ * - 0.17.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_OUTPUT_BACKPRESSURE` and `KEY_TERMINAL_OUTPUT_BUFFER_SIZE`.
+ *
+ * - 0.18.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_FAST_FORWARD_SCREENS`.
  */
 
 /**
@@ -112,6 +122,11 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether terminal transcript rows not fitting in memory are spilled to a file in the cache directory */
+    public static final String KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK =  "terminal-transcript-spill-to-disk"; // Default: "terminal-transcript-spill-to-disk"
+
+
+
     /** Defines the key for whether to use black UI */
     public static final String KEY_USE_BLACK_UI =  "use-black-ui"; // Default: "use-black-ui"
 
@@ -203,6 +218,42 @@ public final class TermuxPropertyConstants {
 
 
 
+    /**
+     * Defines the key for what to do when terminal sessions output faster than the output can be emulated.
+     * With "drop-frames", output of sessions not shown which has not been emulated yet is dropped instead of
+     * blocking them. Mode changes in the dropped output, like switching to the alternate screen or enabling mouse
+     * reporting, are lost too, which may leave the session in the wrong mode until the program sets it again.
+     */
+    public static final String KEY_TERMINAL_OUTPUT_BACKPRESSURE =  "terminal-output-backpressure"; // Default: "terminal-output-backpressure"
+
+    public static final String VALUE_TERMINAL_OUTPUT_BACKPRESSURE_BLOCK = "block";
+    public static final String VALUE_TERMINAL_OUTPUT_BACKPRESSURE_DROP_FRAMES = "drop-frames";
+
+    public static final int IVALUE_TERMINAL_OUTPUT_BACKPRESSURE_BLOCK = TerminalSession.OUTPUT_BACKPRESSURE_BLOCK;
+    public static final int IVALUE_TERMINAL_OUTPUT_BACKPRESSURE_DROP_FRAMES = TerminalSession.OUTPUT_BACKPRESSURE_DROP_FRAMES;
+    public static final int DEFAULT_IVALUE_TERMINAL_OUTPUT_BACKPRESSURE = TerminalSession.DEFAULT_OUTPUT_BACKPRESSURE;
+
+    /** Defines the bidirectional map for terminal output backpressure values and their internal values */
+    public static final ImmutableBiMap<String, Integer> MAP_TERMINAL_OUTPUT_BACKPRESSURE =
+        new ImmutableBiMap.Builder<String, Integer>()
+            .put(VALUE_TERMINAL_OUTPUT_BACKPRESSURE_BLOCK, IVALUE_TERMINAL_OUTPUT_BACKPRESSURE_BLOCK)
+            .put(VALUE_TERMINAL_OUTPUT_BACKPRESSURE_DROP_FRAMES, IVALUE_TERMINAL_OUTPUT_BACKPRESSURE_DROP_FRAMES)
+            .build();
+
+    /** Defines the key for the size in bytes the output buffer of terminal sessions may grow to under sustained output */
+    public static final String KEY_TERMINAL_OUTPUT_BUFFER_SIZE =  "terminal-output-buffer-size"; // Default: "terminal-output-buffer-size"
+    public static final int IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MIN = TerminalSession.OUTPUT_BUFFER_SIZE_MIN;
+    public static final int IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MAX = TerminalSession.OUTPUT_BUFFER_SIZE_MAX;
+    public static final int DEFAULT_IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE = TerminalSession.DEFAULT_OUTPUT_BUFFER_SIZE;
+
+    /** Defines the key for the number of screens of transcript rows kept while emulating output of sessions not shown */
+    public static final String KEY_TERMINAL_FAST_FORWARD_SCREENS =  "terminal-fast-forward-screens"; // Default: "terminal-fast-forward-screens"
+    public static final int IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MIN = TerminalSession.FAST_FORWARD_SCREENS_MIN;
+    public static final int IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MAX = TerminalSession.FAST_FORWARD_SCREENS_MAX;
+    public static final int DEFAULT_IVALUE_TERMINAL_FAST_FORWARD_SCREENS = TerminalSession.DEFAULT_FAST_FORWARD_SCREENS;
+
+
+
     /** Defines the key for the terminal transcript rows */
     public static final String KEY_TERMINAL_TRANSCRIPT_ROWS =  "terminal-transcript-rows"; // Default: "terminal-transcript-rows"
     public static final int IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN = TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN;
@@ -335,6 +386,7 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK,
         KEY_USE_BLACK_UI,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
@@ -345,8 +397,11 @@ public final class TermuxPropertyConstants {
         KEY_BELL_BEHAVIOUR,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
+        KEY_TERMINAL_FAST_FORWARD_SCREENS,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
+        KEY_TERMINAL_OUTPUT_BACKPRESSURE,
+        KEY_TERMINAL_OUTPUT_BUFFER_SIZE,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
 
         /* float */
@@ -378,6 +433,7 @@ public final class TermuxPropertyConstants {
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
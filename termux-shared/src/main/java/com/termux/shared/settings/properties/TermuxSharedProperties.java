@@ -224,10 +224,16 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalCursorBlinkRateInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE:
                 return (int) getTerminalCursorStyleInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_FAST_FORWARD_SCREENS:
+                return (int) getTerminalFastForwardScreensInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL:
                 return (int) getTerminalMarginHorizontalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL:
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BACKPRESSURE:
+                return (int) getTerminalOutputBackpressureInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BUFFER_SIZE:
+                return (int) getTerminalOutputBufferSizeInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
 
@@ -369,6 +375,54 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the internal value after mapping it based on
+     * {@link TermuxPropertyConstants#MAP_TERMINAL_OUTPUT_BACKPRESSURE} if the value is not {@code null}
+     * and is valid, otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_OUTPUT_BACKPRESSURE}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalOutputBackpressureInternalPropertyValueFromValue(String value) {
+        return (int) SharedProperties.getDefaultIfNotInMap(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BACKPRESSURE, TermuxPropertyConstants.MAP_TERMINAL_OUTPUT_BACKPRESSURE, SharedProperties.toLowerCase(value), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OUTPUT_BACKPRESSURE, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalOutputBufferSizeInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BUFFER_SIZE,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE,
+            TermuxPropertyConstants.IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_OUTPUT_BUFFER_SIZE_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_FAST_FORWARD_SCREENS}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalFastForwardScreensInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_FAST_FORWARD_SCREENS,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_FAST_FORWARD_SCREENS),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_FAST_FORWARD_SCREENS,
+            TermuxPropertyConstants.IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_FAST_FORWARD_SCREENS_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN} and
@@ -535,6 +589,10 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
     }
 
+    public boolean shouldSpillTerminalTranscriptToDisk() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_TO_DISK, true);
+    }
+
     public boolean isUsingBlackUI() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_BLACK_UI, true);
     }
@@ -571,6 +629,18 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL, true);
     }
 
+    public int getTerminalOutputBackpressure() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BACKPRESSURE, true);
+    }
+
+    public int getTerminalOutputBufferSize() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_BUFFER_SIZE, true);
+    }
+
+    public int getTerminalFastForwardScreens() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_FAST_FORWARD_SCREENS, true);
+    }
+
     public int getTerminalTranscriptRows() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
@@ -4,6 +4,8 @@ import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 
 public class ShellUtils {
@@ -52,4 +54,72 @@ public class ShellUtils {
         return transcriptText;
     }
 
+    /**
+     * Write the transcript of a {@link TerminalSession} to {@code output} without building it up in
+     * memory first, see {@link TerminalSession#writeTranscript(Appendable, boolean, boolean)}. The
+     * text is trimmed.
+     *
+     * @return Returns {@code false} if the session has no emulator yet, otherwise {@code true}.
+     */
+    public static boolean writeTerminalSessionTranscript(TerminalSession terminalSession, Appendable output, boolean linesJoined) throws IOException {
+        if (terminalSession == null || terminalSession.getEmulator() == null) return false;
+
+        terminalSession.writeTranscript(output, true, linesJoined);
+        return true;
+    }
+
+    /**
+     * Get the end of the transcript of a {@link TerminalSession}, keeping at most twice
+     * {@code maxLength} chars in memory while it is written, so that it can be passed to
+     * {@link com.termux.shared.data.DataUtils#getTruncatedCommandOutput(String, int, boolean, boolean, boolean)}
+     * with {@code maxLength} to get the same result as for the full transcript.
+     */
+    public static String getTerminalSessionTranscriptTextTail(TerminalSession terminalSession, boolean linesJoined, int maxLength) {
+        TailWriter tailWriter = new TailWriter(2 * maxLength);
+        try {
+            if (!writeTerminalSessionTranscript(terminalSession, tailWriter, linesJoined)) return null;
+        } catch (IOException e) {
+            // Not thrown by TailWriter.
+            return null;
+        }
+        return tailWriter.toString();
+    }
+
+    /** A {@link Writer} keeping only the last chars written. */
+    private static class TailWriter extends Writer {
+
+        private final StringBuilder mText = new StringBuilder();
+        private final int mMaxLength;
+
+        TailWriter(int maxLength) {
+            mMaxLength = maxLength;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            if (length > mMaxLength) {
+                offset += length - mMaxLength;
+                length = mMaxLength;
+            }
+            mText.append(chars, offset, length);
+            // Let the text grow to twice the limit before dropping from the start, to not move it on every write:
+            if (mText.length() > 2 * mMaxLength)
+                mText.delete(0, mText.length() - mMaxLength);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return (mText.length() > mMaxLength) ? mText.substring(mText.length() - mMaxLength) : mText.toString();
+        }
+
+    }
+
 }
@@ -14,6 +14,7 @@ import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * A class that maintains info for foreground Termux sessions.
@@ -166,7 +167,7 @@ public class TermuxSession {
         mExecutionCommand.resultData.exitCode = exitCode;
 
         if (this.mSetStdoutOnExit)
-            mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+            appendTranscriptToStdout();
 
         if (!mExecutionCommand.setState(ExecutionCommand.ExecutionState.EXECUTED))
             return;
@@ -174,6 +175,14 @@ public class TermuxSession {
         TermuxSession.processTermuxSessionResult(this, null);
     }
 
+    private void appendTranscriptToStdout() {
+        try {
+            ShellUtils.writeTerminalSessionTranscript(mTerminalSession, mExecutionCommand.resultData.stdout, true);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder.
+        }
+    }
+
     /**
      * Kill this {@link TermuxSession} by sending a {@link OsConstants#SIGILL} to its {@link #mTerminalSession}
      * if its still executing.
@@ -196,7 +205,7 @@ public class TermuxSession {
 
                 // Get whatever output has been set till now in case its needed
                 if (this.mSetStdoutOnExit)
-                    mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+                    appendTranscriptToStdout();
 
                 TermuxSession.processTermuxSessionResult(this, null);
             }
@@ -14,11 +14,14 @@ import com.termux.shared.models.ResultData;
 import com.termux.shared.models.errors.Errno;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.models.ExecutionCommand.ExecutionState;
+import com.termux.terminal.ProcessReaper;
 
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A class that maintains info for background Termux tasks run with {@link Runtime#exec(String[], String[], File)}.
@@ -31,6 +34,17 @@ public final class TermuxTask {
     private final ExecutionCommand mExecutionCommand;
     private final TermuxTaskClient mTermuxTaskClient;
 
+    private int mPid;
+    private DataOutputStream mStdin;
+    private StreamGobbler mStdout;
+    private StreamGobbler mStderr;
+
+    /**
+     * Runs the setup and result processing of asynchronous tasks. No thread waits while their process runs, since the
+     * {@link ProcessReaper} notices when it exits.
+     */
+    private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newCachedThreadPool();
+
     private static final String LOG_TAG = "TermuxTask";
 
     private TermuxTask(@NonNull final Process process, @NonNull final ExecutionCommand executionCommand,
@@ -58,8 +72,8 @@ public final class TermuxTask {
      * @param isSynchronous If set to {@code true}, then the command will be executed in the
      *                      caller thread and results returned synchronously in the {@link ExecutionCommand}
      *                      sub object of the {@link TermuxTask} returned.
-     *                      If set to {@code false}, then a new thread is started run the commands
-     *                      asynchronously in the background and control is returned to the caller thread.
+     *                      If set to {@code false}, then the commands are run asynchronously in the
+     *                      background and control is returned to the caller thread.
      * @return Returns the {@link TermuxTask}. This will be {@code null} if failed to start the execution command.
      */
     public static TermuxTask execute(@NonNull final Context context, @NonNull ExecutionCommand executionCommand,
@@ -109,16 +123,7 @@ public final class TermuxTask {
                 // TODO: Should either of these be handled or returned?
             }
         } else {
-            new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        termuxTask.executeInner(context);
-                    } catch (IllegalThreadStateException | InterruptedException e) {
-                        // TODO: Should either of these be handled or returned?
-                    }
-                }
-            }.start();
+            termuxTask.executeInBackground(context);
         }
 
         return termuxTask;
@@ -134,16 +139,67 @@ public final class TermuxTask {
      * @param context The {@link Context} for operations.
      */
     private void executeInner(@NonNull final Context context) throws IllegalThreadStateException, InterruptedException {
+        if (!startInner(context)) return;
+
+        // wait for our process to finish, while we gobble away in the background
+        finishInner(mProcess.waitFor());
+    }
+
+    /**
+     * Same as {@link #executeInner(Context)}, but on the {@link #BACKGROUND_EXECUTOR} and with the
+     * {@link ProcessReaper} noticing when the process ends instead of a thread waiting for it.
+     *
+     * This only saves the thread of this class which waited for the process. The {@link Process} started by
+     * {@link Runtime#exec(String[], String[], File)} is still reaped by the reaper thread of the runtime, which
+     * {@link Process#waitFor()} gets the exit code from, and its stdout and stderr are still read by the
+     * {@link StreamGobbler} threads. Dropping those would need tasks to be started without {@link Process}.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    private void executeInBackground(@NonNull final Context context) {
+        BACKGROUND_EXECUTOR.execute(() -> {
+            try {
+                if (!startInner(context)) return;
+                if (mPid == -1) {
+                    // The pid could not be found, so wait for the process to finish the old way
+                    finishInner(mProcess.waitFor());
+                    return;
+                }
+            } catch (IllegalThreadStateException | InterruptedException e) {
+                // TODO: Should either of these be handled or returned?
+                return;
+            }
+
+            // The Process reaps the child itself, so only get notified once it has exited
+            ProcessReaper.getInstance().watch(mPid, false, (pid, exitStatus) -> BACKGROUND_EXECUTOR.execute(() -> {
+                try {
+                    // Does not block for long, since the process has already exited
+                    finishInner(mProcess.waitFor());
+                } catch (IllegalThreadStateException | InterruptedException e) {
+                    // TODO: Should either of these be handled or returned?
+                }
+            }));
+        });
+    }
+
+    /**
+     * Sets up stdin, and stdout and stderr readers for the {@link #mProcess}.
+     *
+     * @param context The {@link Context} for operations.
+     * @return Returns {@code false} if writing stdin failed, in which case the result has already been processed.
+     */
+    private boolean startInner(@NonNull final Context context) {
         final int pid = ShellUtils.getPid(mProcess);
+        mPid = pid;
 
         Logger.logDebug(LOG_TAG, "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask with pid " + pid);
 
         mExecutionCommand.resultData.exitCode = null;
 
         // setup stdin, and stdout and stderr gobblers
-        DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
-        StreamGobbler STDOUT = new StreamGobbler(pid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
-        StreamGobbler STDERR = new StreamGobbler(pid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
+        DataOutputStream STDIN = mStdin = new DataOutputStream(mProcess.getOutputStream());
+        StreamGobbler STDOUT = mStdout = new StreamGobbler(pid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
+        StreamGobbler STDERR = mStderr = new StreamGobbler(pid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
 
         // start gobbling
         STDOUT.start();
@@ -169,13 +225,24 @@ public final class TermuxTask {
                     mExecutionCommand.resultData.exitCode = 1;
                     TermuxTask.processTermuxTaskResult(this, null);
                     kill();
-                    return;
+                    return false;
                 }
             }
         }
 
-        // wait for our process to finish, while we gobble away in the background
-        int exitCode = mProcess.waitFor();
+        return true;
+    }
+
+    /**
+     * Waits for the stdout and stderr readers once the {@link #mProcess} has ended and processes the result.
+     *
+     * @param exitCode The exit code of the process.
+     */
+    private void finishInner(int exitCode) throws IllegalThreadStateException, InterruptedException {
+        final int pid = mPid;
+        DataOutputStream STDIN = mStdin;
+        StreamGobbler STDOUT = mStdout;
+        StreamGobbler STDERR = mStderr;
 
         // make sure our threads are done gobbling
         // and the process is destroyed - while the latter shouldn't be